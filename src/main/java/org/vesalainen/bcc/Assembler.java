@@ -19,10 +19,11 @@ package org.vesalainen.bcc;
 import org.vesalainen.bcc.Label.Branch;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
@@ -46,12 +47,15 @@ public class Assembler implements OpCode
     
     protected static final int WIDEFIXOFFSET = 8;
     protected CodeDataOutput out;
-    protected Map<String, Label> labels = new HashMap<>();
-    protected Map<Integer, Label> labelMap = new HashMap<>();
-    protected Deque<TypeASM> asmStack = new ArrayDeque<>();
+    protected Map<String, Label> labels;
+    protected List<Label> handles;
+    private List<Label> fixedLabels = new ArrayList<>();
+    private int fixedPosition = -1;
+    protected Deque<TypeASM> asmStack;
     private int nextBranch;
     protected TypeASM asm;
     protected Map<TypeKind,TypeASM> types;
+    private EmissionArena arena;
     private BooleanASM z;
     private ByteASM b;
     private CharASM c;
@@ -68,36 +72,92 @@ public class Assembler implements OpCode
 
     public Assembler()
     {
-        out = new CodeDataOutput(this);
-        types = new EnumMap<>(TypeKind.class);
-        z = new BooleanASM(out, labels);
-        b = new ByteASM(out, labels);
-        c = new CharASM(out, labels);
-        s = new ShortASM(out, labels);
-        i = new IntASM(out, labels);
-        l = new LongASM(out, labels);
-        f = new FloatASM(out, labels);
-        d = new DoubleASM(out, labels);
-        a = new ReferenceASM(out, labels);
-        v = new VoidASM(out, labels);
-        types.put(TypeKind.BOOLEAN, z);
-        types.put(TypeKind.BYTE, b);
-        types.put(TypeKind.CHAR, c);
-        types.put(TypeKind.SHORT, s);
-        types.put(TypeKind.INT, i);
-        types.put(TypeKind.LONG, l);
-        types.put(TypeKind.FLOAT, f);
-        types.put(TypeKind.DOUBLE, d);
-        types.put(TypeKind.ARRAY, a);
-        types.put(TypeKind.DECLARED, a);
-        types.put(TypeKind.TYPEVAR, a);
-        types.put(TypeKind.VOID, v);
+        prepare(false);
+    }
+    /**
+     * Creates assembler without code buffer and labels. prepare must be
+     * called before code is emitted.
+     * @param prepare If true prepare(false) is called here.
+     */
+    Assembler(boolean prepare)
+    {
+        if (prepare)
+        {
+            prepare(false);
+        }
     }
 
     protected Assembler(CodeDataOutput out, Map<String, Label> labels)
     {
         this.out = out;
         this.labels = labels;
+        this.handles = Collections.emptyList();
+    }
+    /**
+     * Sets code buffer, labels and type helpers either from arena or newly
+     * allocated.
+     * @param useArena If true arena is acquired from thread's free list.
+     * @see #releaseArena() 
+     */
+    final void prepare(boolean useArena)
+    {
+        if (useArena)
+        {
+            arena = EmissionArena.acquire();
+            out = arena.getOut();
+            labels = arena.getLabels();
+            handles = arena.getHandles();
+            asmStack = arena.getAsmStack();
+            types = arena.getTypes();
+        }
+        else
+        {
+            out = new CodeDataOutput(this);
+            labels = new HashMap<>();
+            handles = new ArrayList<>();
+            asmStack = new ArrayDeque<>();
+            types = EmissionArena.createTypes(out, labels);
+        }
+        z = (BooleanASM) types.get(TypeKind.BOOLEAN);
+        b = (ByteASM) types.get(TypeKind.BYTE);
+        c = (CharASM) types.get(TypeKind.CHAR);
+        s = (ShortASM) types.get(TypeKind.SHORT);
+        i = (IntASM) types.get(TypeKind.INT);
+        l = (LongASM) types.get(TypeKind.LONG);
+        f = (FloatASM) types.get(TypeKind.FLOAT);
+        d = (DoubleASM) types.get(TypeKind.DOUBLE);
+        v = (VoidASM) types.get(TypeKind.VOID);
+        a = (ReferenceASM) types.get(TypeKind.DECLARED);
+        if (wideIndex)
+        {
+            setWideIndex(wideIndex);
+        }
+    }
+    /**
+     * Returns arena or null if not in arena mode.
+     * @return 
+     */
+    EmissionArena getArena()
+    {
+        return arena;
+    }
+    /**
+     * Returns arena to free list. Code buffer and labels are cleared. Live
+     * labels are kept so that labelForAddress works in dump.
+     */
+    void releaseArena()
+    {
+        if (arena != null)
+        {
+            List<Label> kept = liveLabels();
+            arena.release();
+            arena = null;
+            out = null;
+            labels = Collections.emptyMap();
+            handles = kept;
+            asmStack = null;
+            types = null;
+        }
     }
     /**
      * Set goto and jsr to use wide index
@@ -116,6 +176,16 @@ public class Assembler implements OpCode
         }
     }
 
+    /**
+     * Creates a new label. Branches to returned label don't need name lookup.
+     * @return 
+     */
+    public Label newLabel()
+    {
+        Label label = new Label();
+        handles.add(label);
+        return label;
+    }
     /**
      * Fixes address here for object
      * @param name
@@ -123,15 +193,23 @@ public class Assembler implements OpCode
      */
     public void fixAddress(String name) throws IOException
     {
-        Label label = labels.get(name);
-        if (label == null)
-        {
-            label = new Label(name);
-            labels.put(name, label);
-        }
+        fixAddress(getLabel(name));
+    }
+    /**
+     * Fixes address here for label
+     * @param label
+     * @throws IOException
+     */
+    public void fixAddress(Label label) throws IOException
+    {
         int pos = position();
         label.setAddress(pos);
-        labelMap.put(pos, label);
+        if (pos != fixedPosition)
+        {
+            fixedLabels.clear();
+            fixedPosition = pos;
+        }
+        fixedLabels.add(label);
     }
 
     public Label getLabel(String name)
@@ -142,12 +220,31 @@ public class Assembler implements OpCode
             label = new Label(name);
             labels.put(name, label);
         }
-        return label;
+        return label.resolve();
     }
-    
+    /**
+     * Returns label fixed at address or null. This is slow and intended for
+     * dumping code.
+     * @param address
+     * @return 
+     */
     public Label labelForAddress(int address)
     {
-        return labelMap.get(address);
+        for (Label label : labels.values())
+        {
+            if (!label.isMerged() && label.getAddress() == address)
+            {
+                return label;
+            }
+        }
+        for (Label label : handles)
+        {
+            if (!label.isMerged() && label.getAddress() == address)
+            {
+                return label;
+            }
+        }
+        return null;
     }
 
     /**
@@ -158,12 +255,16 @@ public class Assembler implements OpCode
      */
     public Branch createBranch(String name) throws IOException
     {
-        Label label = labels.get(name);
-        if (label == null)
-        {
-            label = new Label(name);
-            labels.put(name, label);
-        }
+        return createBranch(getLabel(name));
+    }
+    /**
+     * Creates a branch for possibly unknown address
+     * @param label
+     * @return
+     * @throws IOException
+     */
+    public Branch createBranch(Label label) throws IOException
+    {
         return label.createBranch(position());
     }
 
@@ -177,16 +278,63 @@ public class Assembler implements OpCode
         return out.getCode();
     }
     
-    public void fixLabels(byte[] code)
+    /**
+     * Fixes branch offsets. Short branches which don't reach their target
+     * are grown to wide form. In that case code is relocated and new code
+     * is returned.
+     * @param code
+     * @return Code with fixed branches. Same as code if nothing was grown.
+     * @see #relocate(int[]) 
+     */
+    public byte[] fixLabels(byte[] code)
     {
+        List<Label> list = liveLabels();
+        BranchRelaxer relaxer = new BranchRelaxer(code, list);
+        if (relaxer.isNeeded())
+        {
+            code = relaxer.relax();
+            relocate(relaxer.getPositions());
+        }
         if (code.length > 0xfffe)
         {
             throw new BranchException("code size "+code.length+" > 65534");
         }
-        for (Label label : labels.values())
+        for (Label label : list)
         {
             label.fixCode(code);
         }
+        return code;
+    }
+    /**
+     * Returns labels which are not merged to other labels.
+     * @return 
+     */
+    List<Label> liveLabels()
+    {
+        List<Label> list = new ArrayList<>();
+        for (Label label : labels.values())
+        {
+            if (!label.isMerged())
+            {
+                list.add(label);
+            }
+        }
+        for (Label label : handles)
+        {
+            if (!label.isMerged())
+            {
+                list.add(label);
+            }
+        }
+        return list;
+    }
+    /**
+     * Called when fixLabels has relocated code. Labels and branches are
+     * already moved. Subclass moves other addresses it holds.
+     * @param positions New addresses indexed by old address.
+     */
+    protected void relocate(int[] positions)
+    {
     }
 
     public int position() throws IOException
@@ -558,9 +706,9 @@ public class Assembler implements OpCode
     /**
      * @throws IOException
      */
-    private void if_tcmpne(String target) throws IOException
+    private void if_tcmpne(Label target) throws IOException
     {
-        asm.if_tcmpne(target);
+        ((LabelTypeASM)asm).if_tcmpne(target);
     }
     /**
      * ne succeeds if and only if value1 != value2
@@ -569,18 +717,23 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmpne(TypeMirror type, String target) throws IOException
+    public void if_tcmpne(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmpne(target);
         popType();
     }
+
+    public void if_tcmpne(TypeMirror type, String target) throws IOException
+    {
+        if_tcmpne(type, getLabel(target));
+    }
     /**
      * @throws IOException
      */
-    private void if_tcmplt(String target) throws IOException
+    private void if_tcmplt(Label target) throws IOException
     {
-        asm.if_tcmplt(target);
+        ((LabelTypeASM)asm).if_tcmplt(target);
     }
 
     /**
@@ -590,18 +743,23 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmplt(TypeMirror type, String target) throws IOException
+    public void if_tcmplt(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmplt(target);
         popType();
     }
+
+    public void if_tcmplt(TypeMirror type, String target) throws IOException
+    {
+        if_tcmplt(type, getLabel(target));
+    }
     /**
      * @throws IOException
      */
-    private void if_tcmple(String target) throws IOException
+    private void if_tcmple(Label target) throws IOException
     {
-        asm.if_tcmple(target);
+        ((LabelTypeASM)asm).if_tcmple(target);
     }
 
     /**
@@ -611,18 +769,23 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmple(TypeMirror type, String target) throws IOException
+    public void if_tcmple(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmple(target);
         popType();
     }
+
+    public void if_tcmple(TypeMirror type, String target) throws IOException
+    {
+        if_tcmple(type, getLabel(target));
+    }
     /**
      * @throws IOException
      */
-    private void if_tcmpgt(String target) throws IOException
+    private void if_tcmpgt(Label target) throws IOException
     {
-        asm.if_tcmpgt(target);
+        ((LabelTypeASM)asm).if_tcmpgt(target);
     }
 
     /**
@@ -632,18 +795,23 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmpgt(TypeMirror type, String target) throws IOException
+    public void if_tcmpgt(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmpgt(target);
         popType();
     }
+
+    public void if_tcmpgt(TypeMirror type, String target) throws IOException
+    {
+        if_tcmpgt(type, getLabel(target));
+    }
     /**
      * @throws IOException
      */
-    private void if_tcmpge(String target) throws IOException
+    private void if_tcmpge(Label target) throws IOException
     {
-        asm.if_tcmpge(target);
+        ((LabelTypeASM)asm).if_tcmpge(target);
     }
 
     /**
@@ -653,18 +821,23 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmpge(TypeMirror type, String target) throws IOException
+    public void if_tcmpge(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmpge(target);
         popType();
     }
+
+    public void if_tcmpge(TypeMirror type, String target) throws IOException
+    {
+        if_tcmpge(type, getLabel(target));
+    }
     /**
      * @throws IOException
      */
-    private void if_tcmpeq(String target) throws IOException
+    private void if_tcmpeq(Label target) throws IOException
     {
-        asm.if_tcmpeq(target);
+        ((LabelTypeASM)asm).if_tcmpeq(target);
     }
     /**
      * eq succeeds if and only if value1 == value2
@@ -673,73 +846,108 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException 
      */
-    public void if_tcmpeq(TypeMirror type, String target) throws IOException
+    public void if_tcmpeq(TypeMirror type, Label target) throws IOException
     {
         pushType(type);
         if_tcmpeq(target);
         popType();
     }
 
+    public void if_tcmpeq(TypeMirror type, String target) throws IOException
+    {
+        if_tcmpeq(type, getLabel(target));
+    }
+
     /**
      * Branch if value1 = value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmpeq(String target) throws IOException
+    public void if_icmpeq(Label target) throws IOException
     {
         i.if_tcmpeq(target);
     }
 
+    public void if_icmpeq(String target) throws IOException
+    {
+        if_icmpeq(getLabel(target));
+    }
+
     /**
      * Branch if value1 != value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmpne(String target) throws IOException
+    public void if_icmpne(Label target) throws IOException
     {
         i.if_tcmpne(target);
     }
 
+    public void if_icmpne(String target) throws IOException
+    {
+        if_icmpne(getLabel(target));
+    }
+
     /**
      * Branch if value1 &lt; value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmplt(String target) throws IOException
+    public void if_icmplt(Label target) throws IOException
     {
         i.if_tcmplt(target);
     }
 
+    public void if_icmplt(String target) throws IOException
+    {
+        if_icmplt(getLabel(target));
+    }
+
     /**
      * Branch if value1 &lt;= value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmple(String target) throws IOException
+    public void if_icmple(Label target) throws IOException
     {
         i.if_tcmple(target);
     }
 
+    public void if_icmple(String target) throws IOException
+    {
+        if_icmple(getLabel(target));
+    }
+
     /**
      * Branch if value1 &gt; value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmpgt(String target) throws IOException
+    public void if_icmpgt(Label target) throws IOException
     {
         i.if_tcmpgt(target);
     }
 
+    public void if_icmpgt(String target) throws IOException
+    {
+        if_icmpgt(getLabel(target));
+    }
+
     /**
      * Branch if value1 &gt;= value2
      * <p>Stack: ..., value1, value2 =&gt; ...
      * @throws IOException
      */
-    public void if_icmpge(String target) throws IOException
+    public void if_icmpge(Label target) throws IOException
     {
         i.if_tcmpge(target);
     }
 
+    public void if_icmpge(String target) throws IOException
+    {
+        if_icmpge(getLabel(target));
+    }
+
     public void i2t() throws IOException
     {
         i.i2t();
@@ -886,7 +1094,7 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException
      */
-    public void goto_n(String target) throws IOException
+    public void goto_n(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -914,7 +1122,12 @@ public class Assembler implements OpCode
             }
         }
     }
-    public void goto_w(String target) throws IOException
+
+    public void goto_n(String target) throws IOException
+    {
+        goto_n(getLabel(target));
+    }
+    public void goto_w(Label target) throws IOException
     {
         boolean ok = optimizeGoto(target);
         if (!ok)
@@ -924,12 +1137,17 @@ public class Assembler implements OpCode
             out.writeInt(branch);
         }
     }
+
+    public void goto_w(String target) throws IOException
+    {
+        goto_w(getLabel(target));
+    }
     /**
      * Branch always (wide index)
      * @param target
      * @throws IOException
      */
-    private boolean optimizeGoto(String target) throws IOException
+    private boolean optimizeGoto(Label target) throws IOException
     {
         if (!optimizeGoto)
         {
@@ -955,33 +1173,26 @@ public class Assembler implements OpCode
                 return false;
         }
         int position = position();
-        Label label = labelForAddress(position);
-        if (label == null)
+        if (position != fixedPosition || fixedLabels.isEmpty())
         {
             return false;
         }
-        label.resetAddress();
-        Label targetLabel = labels.get(target);
-        if (targetLabel != null)
+        Label targetLabel = target.resolve();
+        for (Label label : fixedLabels)
         {
-            Label union = new Label(label, targetLabel);
-            for (String name : union.getNames())
-            {
-                labels.remove(name);
-                labels.put(name, union);
-            }
-            labels.put(target, union);
-            int addr = targetLabel.getAddress();
-            if (addr != -1)
+            if (label.resolve() == targetLabel)
             {
-                union.setAddress(addr);
+                return false;
             }
         }
-        else
+        for (Label label : fixedLabels)
         {
-            labels.put(target, label);
-            label.addName(target);
+            if (label.resolve() != targetLabel)
+            {
+                label.mergeTo(targetLabel);
+            }
         }
+        fixedLabels.clear();
         return true;
     }
 
@@ -995,7 +1206,7 @@ public class Assembler implements OpCode
      * @param target
      * @throws IOException
      */
-    public void ifeq(String target) throws IOException
+    public void ifeq(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1013,12 +1224,17 @@ public class Assembler implements OpCode
         }
     }
 
+    public void ifeq(String target) throws IOException
+    {
+        ifeq(getLabel(target));
+    }
+
     /**
      * ne succeeds if and only if value != 0
      * @param target
      * @throws IOException
      */
-    public void ifne(String target) throws IOException
+    public void ifne(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1036,12 +1252,17 @@ public class Assembler implements OpCode
         }
     }
 
+    public void ifne(String target) throws IOException
+    {
+        ifne(getLabel(target));
+    }
+
     /**
      * lt succeeds if and only if value &lt; 0
      * @param target
      * @throws IOException
      */
-    public void iflt(String target) throws IOException
+    public void iflt(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1059,12 +1280,17 @@ public class Assembler implements OpCode
         }
     }
 
+    public void iflt(String target) throws IOException
+    {
+        iflt(getLabel(target));
+    }
+
     /**
      * ge succeeds if and only if value &gt;= 0
      * @param target
      * @throws IOException
      */
-    public void ifge(String target) throws IOException
+    public void ifge(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1082,12 +1308,17 @@ public class Assembler implements OpCode
         }
     }
 
+    public void ifge(String target) throws IOException
+    {
+        ifge(getLabel(target));
+    }
+
     /**
      * gt succeeds if and only if value &gt; 0
      * @param target
      * @throws IOException
      */
-    public void ifgt(String target) throws IOException
+    public void ifgt(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1105,12 +1336,17 @@ public class Assembler implements OpCode
         }
     }
 
+    public void ifgt(String target) throws IOException
+    {
+        ifgt(getLabel(target));
+    }
+
     /**
      * le succeeds if and only if value &lt;= 0
      * @param target
      * @throws IOException
      */
-    public void ifle(String target) throws IOException
+    public void ifle(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1128,7 +1364,12 @@ public class Assembler implements OpCode
         }
     }
 
-    public void ifnonnull(String target) throws IOException
+    public void ifle(String target) throws IOException
+    {
+        ifle(getLabel(target));
+    }
+
+    public void ifnonnull(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1146,7 +1387,12 @@ public class Assembler implements OpCode
         }
     }
 
-    public void ifnull(String target) throws IOException
+    public void ifnonnull(String target) throws IOException
+    {
+        ifnonnull(getLabel(target));
+    }
+
+    public void ifnull(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1164,6 +1410,11 @@ public class Assembler implements OpCode
         }
     }
 
+    public void ifnull(String target) throws IOException
+    {
+        ifnull(getLabel(target));
+    }
+
     public void instanceo(int index) throws IOException
     {
         out.writeOpCode(INSTANCEOF);
@@ -1268,7 +1519,7 @@ public class Assembler implements OpCode
         out.writeOpCode(IXOR);
     }
 
-    public void jsr(String target) throws IOException
+    public void jsr(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -1282,13 +1533,23 @@ public class Assembler implements OpCode
         }
     }
 
-    public void jsr_w(String target) throws IOException
+    public void jsr(String target) throws IOException
+    {
+        jsr(getLabel(target));
+    }
+
+    public void jsr_w(Label target) throws IOException
     {
         Branch branch = createBranch(target);
         out.writeOpCode(JSR_W);
         out.writeInt(branch);
     }
 
+    public void jsr_w(String target) throws IOException
+    {
+        jsr_w(getLabel(target));
+    }
+
     public void ldc(int index) throws IOException
     {
         if (index < 256)
@@ -1315,6 +1576,11 @@ public class Assembler implements OpCode
     }
 
     public void lookupswitch(String def, LookupList list) throws IOException
+    {
+        lookupswitch(getLabel(def), list);
+    }
+
+    public void lookupswitch(Label def, LookupList list) throws IOException
     {
         Collections.sort(list);
         Branch[] ba = new Branch[list.size()];
@@ -1418,16 +1684,27 @@ public class Assembler implements OpCode
 
     public void tableswitch(String def, int low, int high, String... symbols) throws IOException
     {
-        if ((high - low + 1) != symbols.length)
+        Label[] targets = new Label[symbols.length];
+        int index = 0;
+        for (String symbol : symbols)
+        {
+            targets[index++] = getLabel(symbol);
+        }
+        tableswitch(getLabel(def), low, high, targets);
+    }
+
+    public void tableswitch(Label def, int low, int high, Label... targets) throws IOException
+    {
+        if ((high - low + 1) != targets.length)
         {
             int exp = (high - low + 1);
-            throw new IllegalArgumentException("expected number of offsets " + exp + " got " + symbols.length);
+            throw new IllegalArgumentException("expected number of offsets " + exp + " got " + targets.length);
         }
-        Branch[] ba = new Branch[symbols.length];
+        Branch[] ba = new Branch[targets.length];
         int index = 0;
-        for (String symbol : symbols)
+        for (Label target : targets)
         {
-            ba[index++] = createBranch(symbol);
+            ba[index++] = createBranch(target);
         }
         Branch defOffset = createBranch(def);
         out.writeOpCode(TABLESWITCH);
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.vesalainen.bcc.Label.Branch;
+
+/**
+ * Grows short branches whose offset doesn't fit in 16 bits. Goto and jsr are
+ * changed to goto_w and jsr_w. Conditional branch is inverted to jump over a
+ * goto_w. Growing moves code, which can push other branches out of range, so
+ * growing is repeated until nothing changes. Switch padding is recalculated
+ * for moved switches.
+ *
+ * <p>Only instructions having a branch are changed. Their addresses are
+ * known from branches, so code between them is copied without decoding.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+class BranchRelaxer implements OpCode
+{
+    private static final int KEEP = 0;
+    private static final int SHORT = 1;
+    private static final int CONDITIONAL = 2;
+    private static final int SWITCH = 3;
+
+    private final byte[] code;
+    private final List<Label> labels;
+    private Branch[] branches;
+    private int[] instruction;  // branch -> index of starts
+    private int[] starts;
+    private int[] kind;
+    private boolean[] grown;
+    private int[] newStart;
+    private int[] shift;        // shift of addresses after instruction
+    private int[] positions;
+
+    BranchRelaxer(byte[] code, List<Label> labels)
+    {
+        this.code = code;
+        this.labels = labels;
+    }
+    /**
+     * Returns true if some short branch doesn't reach its target.
+     * @return
+     */
+    boolean isNeeded()
+    {
+        for (Label label : labels)
+        {
+            int address = label.getAddress();
+            if (address != -1)
+            {
+                for (Branch branch : label.getBranches())
+                {
+                    if (!branch.isWide() && !fits(address - branch.getOffset()))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+    /**
+     * Grows branches, relocates labels and branches and returns new code.
+     * @return
+     */
+    byte[] relax()
+    {
+        init();
+        boolean changed = true;
+        while (changed)
+        {
+            layout();
+            changed = false;
+            for (int ii=0;ii<branches.length;ii++)
+            {
+                int k = instruction[ii];
+                if ((kind[k] == SHORT || kind[k] == CONDITIONAL) && !grown[k])
+                {
+                    int address = branches[ii].getLabel().getAddress();
+                    if (address != -1 && !fits(positions[address] - newStart[k]))
+                    {
+                        grown[k] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        byte[] relaxed = write();
+        relocate();
+        return relaxed;
+    }
+    /**
+     * Returns new addresses indexed by old address. Valid for instruction
+     * addresses and code length.
+     * @return
+     */
+    int[] getPositions()
+    {
+        return positions;
+    }
+
+    private void init()
+    {
+        List<Branch> list = new ArrayList<>();
+        for (Label label : labels)
+        {
+            list.addAll(label.getBranches());
+        }
+        branches = list.toArray(new Branch[list.size()]);
+        int[] offsets = new int[branches.length];
+        for (int ii=0;ii<branches.length;ii++)
+        {
+            offsets[ii] = branches[ii].getOffset();
+        }
+        Arrays.sort(offsets);
+        int count = 0;
+        for (int ii=0;ii<offsets.length;ii++)
+        {
+            if (count == 0 || offsets[count-1] != offsets[ii])
+            {
+                offsets[count++] = offsets[ii];
+            }
+        }
+        starts = Arrays.copyOf(offsets, count);
+        kind = new int[count];
+        for (int k=0;k<count;k++)
+        {
+            kind[k] = kind(code[starts[k]] & 0xff);
+        }
+        instruction = new int[branches.length];
+        for (int ii=0;ii<branches.length;ii++)
+        {
+            instruction[ii] = Arrays.binarySearch(starts, branches[ii].getOffset());
+        }
+        grown = new boolean[count];
+        newStart = new int[count];
+        shift = new int[count];
+        positions = new int[code.length+1];
+    }
+
+    private static int kind(int op)
+    {
+        switch (op)
+        {
+            case GOTO:
+            case JSR:
+                return SHORT;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                return SWITCH;
+            default:
+                if ((op >= IFEQ && op <= IF_ACMPNE) || op == IFNULL || op == IFNONNULL)
+                {
+                    return CONDITIONAL;
+                }
+                return KEEP;
+        }
+    }
+
+    private void layout()
+    {
+        int s = 0;
+        for (int k=0;k<starts.length;k++)
+        {
+            newStart[k] = starts[k] + s;
+            switch (kind[k])
+            {
+                case SWITCH:
+                    s += pad(newStart[k]) - pad(starts[k]);
+                    break;
+                case SHORT:
+                    s += grown[k] ? 2 : 0;
+                    break;
+                case CONDITIONAL:
+                    s += grown[k] ? 5 : 0;
+                    break;
+            }
+            shift[k] = s;
+        }
+        int k = 0;
+        s = 0;
+        for (int pc=0;pc<=code.length;pc++)
+        {
+            while (k < starts.length && starts[k] < pc)
+            {
+                s = shift[k++];
+            }
+            positions[pc] = pc + s;
+        }
+    }
+
+    private byte[] write()
+    {
+        byte[] relaxed = new byte[positions[code.length]];
+        int pc = 0;
+        for (int k=0;k<starts.length;k++)
+        {
+            int start = starts[k];
+            int ns = newStart[k];
+            if (kind[k] == SWITCH)
+            {
+                System.arraycopy(code, pc, relaxed, positions[pc], start - pc);
+                int base = start + 1 + pad(start);
+                int end;
+                if ((code[start] & 0xff) == TABLESWITCH)
+                {
+                    end = base + 12 + 4*(s4(base+8) - s4(base+4) + 1);
+                }
+                else
+                {
+                    end = base + 8 + 8*s4(base+4);
+                }
+                relaxed[ns] = code[start];
+                System.arraycopy(code, base, relaxed, ns + 1 + pad(ns), end - base);
+                pc = end;
+            }
+            else
+            {
+                if (grown[k])
+                {
+                    System.arraycopy(code, pc, relaxed, positions[pc], start - pc);
+                    int op = code[start] & 0xff;
+                    switch (op)
+                    {
+                        case GOTO:
+                            relaxed[ns] = (byte) GOTO_W;
+                            break;
+                        case JSR:
+                            relaxed[ns] = (byte) JSR_W;
+                            break;
+                        default:
+                            relaxed[ns] = (byte) invert(op);
+                            relaxed[ns+1] = 0;
+                            relaxed[ns+2] = (byte) Assembler.WIDEFIXOFFSET;
+                            relaxed[ns+3] = (byte) GOTO_W;
+                            break;
+                    }
+                    pc = start + 3;
+                }
+            }
+        }
+        System.arraycopy(code, pc, relaxed, positions[pc], code.length - pc);
+        return relaxed;
+    }
+
+    private void relocate()
+    {
+        for (int ii=0;ii<branches.length;ii++)
+        {
+            Branch branch = branches[ii];
+            int k = instruction[ii];
+            int start = starts[k];
+            int ns = newStart[k];
+            switch (kind[k])
+            {
+                case SWITCH:
+                    int rel = branch.getReference() - (start + 1 + pad(start));
+                    branch.relocate(ns, ns + 1 + pad(ns) + rel);
+                    break;
+                case SHORT:
+                    branch.relocate(ns, ns + 1);
+                    branch.setWide(grown[k]);
+                    break;
+                case CONDITIONAL:
+                    if (grown[k])
+                    {
+                        branch.relocate(ns + 3, ns + 4);
+                        branch.setWide(true);
+                    }
+                    else
+                    {
+                        branch.relocate(ns, ns + 1);
+                    }
+                    break;
+                default:
+                    branch.relocate(ns, ns + branch.getReference() - start);
+                    break;
+            }
+        }
+        for (Label label : labels)
+        {
+            int address = label.getAddress();
+            if (address != -1)
+            {
+                label.relocate(positions[address]);
+            }
+        }
+    }
+
+    static int invert(int op)
+    {
+        if (op == IFNULL || op == IFNONNULL)
+        {
+            return ((op - IFNULL) ^ 1) + IFNULL;
+        }
+        return ((op - IFEQ) ^ 1) + IFEQ;
+    }
+
+    private static int pad(int address)
+    {
+        return 3 - (address & 3);
+    }
+
+    private static boolean fits(int offset)
+    {
+        return offset >= Short.MIN_VALUE && offset <= Short.MAX_VALUE;
+    }
+
+    private int s4(int p)
+    {
+        return ((code[p] & 0xff) << 24) | ((code[p+1] & 0xff) << 16) | ((code[p+2] & 0xff) << 8) | (code[p+3] & 0xff);
+    }
+
+}
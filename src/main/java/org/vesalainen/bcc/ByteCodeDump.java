@@ -514,6 +514,12 @@ public class ByteCodeDump extends OpCodeUtil
                     out.print(" " + us);
                     out.print(" // "+cf.getMethodDescription(us)+" count="+ub);
                     break;
+                case INVOKEDYNAMIC:
+                    us = in.readUnsignedShort();
+                    in.readUnsignedShort();
+                    out.print(" " + us);
+                    out.print(" // "+cf.getConstantInfo(us));
+                    break;
                 case NEW:
                     us = in.readUnsignedShort();
                     out.print(" " + us);
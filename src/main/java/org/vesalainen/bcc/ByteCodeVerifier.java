@@ -59,6 +59,7 @@ public class ByteCodeVerifier extends OpCodeUtil
     private ExceptionTable[] exceptionTable;
     private MethodCompiler mc;
     private boolean[] coverage; // TODO evaluate BitSet!
+    private int codeLength;
     private TypeMirror[] lvType;
 
     public ByteCodeVerifier(
@@ -67,13 +68,51 @@ public class ByteCodeVerifier extends OpCodeUtil
             ClassFile classFile,
             MethodCompiler mc
             )
+    {
+        reset(code, exceptionTable, classFile, mc);
+    }
+    /**
+     * Creates verifier to be initialized with reset.
+     */
+    ByteCodeVerifier()
+    {
+    }
+    /**
+     * Initializes verifier for method. Collections and coverage array of
+     * previous verification are reused.
+     * @param code
+     * @param exceptionTable
+     * @param classFile
+     * @param mc 
+     */
+    final void reset(
+            byte[] code,
+            ExceptionTable[] exceptionTable,
+            ClassFile classFile,
+            MethodCompiler mc
+            )
     {
         this.code = code;
         this.exceptionTable = exceptionTable;
         this.in = new CodeDataInput(code);
         this.cf = classFile;
         this.mc = mc;
-        coverage = new boolean[code.length];
+        branch.clear();
+        goneThrough.clear();
+        stackAt.clear();
+        lvAt.clear();
+        opCodePosition = 0;
+        maxLocal = 0;
+        maxStack = 0;
+        codeLength = code.length;
+        if (coverage == null || coverage.length < codeLength)
+        {
+            coverage = new boolean[codeLength];
+        }
+        else
+        {
+            Arrays.fill(coverage, 0, codeLength, false);
+        }
         lvType = new TypeMirror[mc.localSize()];
         int index = 0;
         lvType[index++] = classFile.asType();
@@ -132,12 +171,12 @@ public class ByteCodeVerifier extends OpCodeUtil
             throw new IllegalArgumentException(at, ex);
         }
         List<Integer> clist = new ArrayList<>();
-        for (int ii=0;ii<coverage.length;ii++)
+        for (int ii=0;ii<codeLength;ii++)
         {
             if (!coverage[ii])
             {
                 clist.add(ii);
-                while (ii<coverage.length && !coverage[ii])
+                while (ii<codeLength && !coverage[ii])
                 {
                     ii++;
                 }
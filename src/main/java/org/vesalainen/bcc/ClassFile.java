@@ -16,8 +16,7 @@
  */
 package org.vesalainen.bcc;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import org.vesalainen.bcc.ConstantInfo.Clazz;
 import org.vesalainen.bcc.ConstantInfo.ConstantDouble;
 import org.vesalainen.bcc.ConstantInfo.ConstantFloat;
@@ -29,13 +28,17 @@ import org.vesalainen.bcc.ConstantInfo.Methodref;
 import org.vesalainen.bcc.ConstantInfo.NameAndType;
 import org.vesalainen.bcc.ConstantInfo.Ref;
 import org.vesalainen.bcc.ConstantInfo.Utf8;
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,6 +49,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
@@ -66,7 +70,6 @@ import javax.lang.model.type.TypeVisitor;
 import javax.lang.model.util.ElementFilter;
 import org.vesalainen.bcc.AccessFlags.ClassFlags;
 import org.vesalainen.bcc.ClassFile.ClassType;
-import org.vesalainen.bcc.ConstantInfo.Filler;
 import org.vesalainen.bcc.ConstantInfo.InterfaceMethodref;
 import org.vesalainen.bcc.annotation.ModelUtil;
 import org.vesalainen.bcc.model.El;
@@ -82,7 +85,7 @@ public class ClassFile implements Writable, TypeElement
     protected int magic;
     protected int minor_version;
     protected int major_version;
-    protected List<ConstantInfo> constant_pool = new ArrayList<>();
+    protected ConstantPool constant_pool;
     protected int this_class;
     protected int super_class;
     protected List<Short> interfaces = new ArrayList<>();
@@ -90,9 +93,7 @@ public class ClassFile implements Writable, TypeElement
     protected List<MethodInfo> methods = new ArrayList<>();
     protected List<AttributeInfo> attributes = new ArrayList<>();
 
-    protected Map<Integer,Object> indexedElementMap = new HashMap<>();
-    protected Map<Class<? extends ConstantInfo>,List<ConstantInfo>> constantPoolMap = new HashMap<>();
-    protected Map<ConstantInfo,Integer> constantPoolIndexMap = new HashMap<>();
+    protected Map<Integer,Object> indexedElementMap;
     protected Map<String, TypeParameterElement> typeParameterMap = new HashMap<>();
     
     protected TypeElement superClass;
@@ -103,9 +104,14 @@ public class ClassFile implements Writable, TypeElement
     protected List<Element> enclosedElements = new ArrayList<>();
     private Name simpleName;
     private boolean synthetic = true;
+    private volatile ByteBuffer lazyMembers;
+    private ByteBuffer classBytes;
+    private int bodyOffset;
 
-    protected ClassFile(TypeElement superClass, String qualifiedName, Modifier... modifiers)
+    protected ClassFile(TypeElement superClass, String qualifiedName, ConstantPool constantPool, Modifier... modifiers)
     {
+        constant_pool = constantPool;
+        indexedElementMap = new ConcurrentHashMap<>();
         this.superClass = superClass;
         this.qualifiedName = El.getName(qualifiedName);
         this.modifiers.addAll(Arrays.asList(modifiers));
@@ -132,48 +138,125 @@ public class ClassFile implements Writable, TypeElement
 
     public ClassFile(byte[] bytes) throws IOException
     {
-        this(new ByteArrayInputStream(bytes));
+        this(ByteBuffer.wrap(bytes));
+    }
+    /**
+     * Creates ClassFile from class file bytes starting at buffer position.
+     * Only header, constant pool offsets and interfaces are read here. 
+     * Constants are decoded when accessed. Fields, methods and attributes are
+     * decoded when first accessed. Buffer content must not change while this
+     * ClassFile is in use.
+     * @param buffer
+     * @throws IOException 
+     */
+    public ClassFile(ByteBuffer buffer) throws IOException
+    {
+        ByteBuffer bb = buffer.slice();
+        indexedElementMap = new HashMap<>();
+        magic = bb.getInt(0);
+        if (magic != 0xcafebabe)
+        {
+            throw new ClassFormatError();
+        }
+        minor_version = bb.getChar(4);
+        major_version = bb.getChar(6);
+        MappedConstantPool pool = new MappedConstantPool(bb, 8);
+        constant_pool = pool;
+        int pos = pool.getEnd();
+        classBytes = bb;
+        bodyOffset = pos;
+        int access_flags = bb.getChar(pos);
+        ClassFlags.setModifiers(modifiers, access_flags);
+        synthetic = ClassFlags.isSynthetic(access_flags);
+        this_class = bb.getChar(pos+2);
+        super_class = bb.getChar(pos+4);
+        int interfaces_count = bb.getChar(pos+6);
+        pos += 8;
+        for (int ii = 0; ii < interfaces_count; ii++)
+        {
+            interfaces.add((short) bb.getChar(pos));
+            pos += 2;
+        }
+        bb.limit(end(bb, pos));
+        bb.position(pos);
+        lazyMembers = bb.slice();
+        bb.position(0);
+        Clazz clazz = (Clazz) getConstantInfo(this_class);
+        qualifiedName = El.getName(Descriptor.getFullyQualifiedForm(getString(clazz.getName_index())));
+    }
+    /**
+     * Creates ClassFile from memory-mapped file.
+     * @param file
+     * @return
+     * @throws IOException 
+     * @see #ClassFile(java.nio.ByteBuffer) 
+     */
+    public static ClassFile map(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+            return new ClassFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
     }
 
     public ClassFile(InputStream in) throws IOException
     {
-        this(new DataInputStream(new BufferedInputStream(in)));
+        this(readFully(in));
     }
 
     public ClassFile(File file) throws IOException
     {
-        this(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
+        this(Files.readAllBytes(file.toPath()));
     }
 
-    private ClassFile(DataInputStream oin) throws IOException
+    /**
+     * Returns the end of class file by skipping fields, methods and 
+     * attributes.
+     * @param bb
+     * @param pos Offset of fields_count
+     * @return 
+     */
+    private static int end(ByteBuffer bb, int pos)
     {
-        magic = oin.readInt();
-        if (magic != 0xcafebabe)
-        {
-            throw new ClassFormatError();
-        }
-        minor_version = oin.readUnsignedShort();
-        major_version = oin.readUnsignedShort();
-        int constant_pool_count = oin.readUnsignedShort();
-        for (int ii = 0; ii < constant_pool_count-1; ii++)
+        for (int jj=0;jj<2;jj++)    // fields and methods
         {
-            ConstantInfo ci = ConstantInfo.read(oin);
-            addConstantInfo(ci);
-            if (ci instanceof ConstantInfo.ConstantDouble || ci instanceof ConstantInfo.ConstantLong)
+            int count = bb.getChar(pos);
+            pos += 2;
+            for (int ii=0;ii<count;ii++)
             {
-                ii++;
+                pos = skipAttributes(bb, pos+6);
             }
         }
-        int access_flags = oin.readUnsignedShort();
-        ClassFlags.setModifiers(modifiers, access_flags);
-        synthetic = ClassFlags.isSynthetic(access_flags);
-        this_class = oin.readUnsignedShort();
-        super_class = oin.readUnsignedShort();
-        int interfaces_count = oin.readUnsignedShort();
-        for (int ii = 0; ii < interfaces_count; ii++)
+        return skipAttributes(bb, pos);
+    }
+
+    static int skipAttributes(ByteBuffer bb, int pos)
+    {
+        int attributes_count = bb.getChar(pos);
+        pos += 2;
+        for (int ii=0;ii<attributes_count;ii++)
         {
-            interfaces.add((short) oin.readUnsignedShort());
+            pos += 6 + bb.getInt(pos+2);
         }
+        return pos;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buf = new byte[4096];
+        int rc = in.read(buf);
+        while (rc != -1)
+        {
+            out.write(buf, 0, rc);
+            rc = in.read(buf);
+        }
+        return out.toByteArray();
+    }
+
+    private void readMembers(DataInput oin) throws IOException
+    {
         int fields_count = oin.readUnsignedShort();
         for (int ii = 0; ii < fields_count; ii++)
         {
@@ -193,16 +276,62 @@ public class ClassFile implements Writable, TypeElement
         {
             attributes.add(AttributeInfo.getInstance(this, oin));
         }
-        Clazz superClazz = (Clazz) getConstantInfo(super_class);
-        superClass = El.fromDescriptor(getString(superClazz.getName_index()));
-        Clazz clazz = (Clazz) getConstantInfo(this_class);
-        qualifiedName = El.getName(Descriptor.getFullyQualifiedForm(getString(clazz.getName_index())));
+    }
+    /**
+     * Decodes fields, methods and attributes if they were left undecoded.
+     */
+    protected final void decodeMembers()
+    {
+        if (lazyMembers != null)
+        {
+            synchronized(this)
+            {
+                ByteBuffer bb = lazyMembers;
+                if (bb != null)
+                {
+                    try
+                    {
+                        readMembers(new DataInputStream(new BufferInputStream(bb)));
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new IllegalArgumentException(ex);
+                    }
+                    lazyMembers = null;
+                }
+            }
+        }
+    }
+    /**
+     * Returns super class element. Resolved lazily for ClassFiles read from
+     * buffer.
+     * @return 
+     */
+    private TypeElement superClass()
+    {
+        TypeElement sc = superClass;
+        if (sc == null && super_class != 0)
+        {
+            Clazz superClazz = (Clazz) getConstantInfo(super_class);
+            sc = El.fromDescriptor(getString(superClazz.getName_index()));
+            superClass = sc;
+        }
+        return sc;
     }
 
     int getConstantPoolSize()
     {
         return constant_pool.size();
     }
+    /**
+     * Returns the number of bytes constant pool takes in class file including
+     * constant_pool_count.
+     * @return 
+     */
+    int getConstantPoolByteSize()
+    {
+        return constant_pool.getByteSize();
+    }
     /**
      * Returns the constant map index to field
      * @param declaringClass
@@ -223,8 +352,7 @@ public class ClassFile implements Writable, TypeElement
      */
     int getFieldIndex(TypeElement declaringClass, String name, String descriptor)
     {
-        String fullyQualifiedForm = declaringClass.getQualifiedName().toString();
-        return getRefIndex(Fieldref.class, fullyQualifiedForm, name, descriptor);
+        return getRefIndex(Fieldref.class, declaringClass, name, descriptor);
     }
     /**
      * Returns the constant map index to method
@@ -234,8 +362,7 @@ public class ClassFile implements Writable, TypeElement
     int getMethodIndex(ExecutableElement method)
     {
         TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
-        String fullyQualifiedname = declaringClass.getQualifiedName().toString();
-        return getRefIndex(Methodref.class, fullyQualifiedname, method.getSimpleName().toString(), Descriptor.getDesriptor(method));
+        return getRefIndex(Methodref.class, declaringClass, method.getSimpleName().toString(), Descriptor.getDesriptor(method));
     }
     /**
      * Returns the constant map index to reference
@@ -248,30 +375,44 @@ public class ClassFile implements Writable, TypeElement
     protected int getRefIndex(Class<? extends Ref> refType, String fullyQualifiedname, String name, String descriptor)
     {
         String internalForm = fullyQualifiedname.replace('.', '/');
-        for (ConstantInfo ci : listConstantInfo(refType))
+        return getRefIndex(refType, getClassIndex(internalForm), name, descriptor);
+    }
+    /**
+     * Returns the constant map index to reference
+     * @param refType
+     * @param declaringClass
+     * @param name
+     * @param descriptor
+     * @return
+     */
+    protected int getRefIndex(Class<? extends Ref> refType, TypeElement declaringClass, String name, String descriptor)
+    {
+        return getRefIndex(refType, getClassIndex(declaringClass), name, descriptor);
+    }
+    private int getRefIndex(Class<? extends Ref> refType, int classIndex, String name, String descriptor)
+    {
+        if (classIndex == -1)
         {
-            Ref mr = (Ref) ci;
-            int classIndex = mr.getClass_index();
-            Clazz clazz = (Clazz) getConstantInfo(classIndex);
-            String cn = getString(clazz.getName_index());
-            if (internalForm.equals(cn))
-            {
-                int nameAndTypeIndex = mr.getName_and_type_index();
-                NameAndType nat = (NameAndType) getConstantInfo(nameAndTypeIndex);
-                int nameIndex = nat.getName_index();
-                String str = getString(nameIndex);
-                if (name.equals(str))
-                {
-                    int descriptorIndex = nat.getDescriptor_index();
-                    String descr = getString(descriptorIndex);
-                    if (descriptor.equals(descr))
-                    {
-                        return constantPoolIndexMap.get(ci);
-                    }
-                }
-            }
+            return -1;
+        }
+        int nameAndTypeIndex = getNameAndTypeIndex(name, descriptor);
+        if (nameAndTypeIndex == -1)
+        {
+            return -1;
+        }
+        if (Fieldref.class.equals(refType))
+        {
+            return indexOf(new Fieldref(classIndex, nameAndTypeIndex));
         }
-        return -1;
+        if (Methodref.class.equals(refType))
+        {
+            return indexOf(new Methodref(classIndex, nameAndTypeIndex));
+        }
+        if (InterfaceMethodref.class.equals(refType))
+        {
+            return indexOf(new InterfaceMethodref(classIndex, nameAndTypeIndex));
+        }
+        throw new IllegalArgumentException(refType+" not supported");
     }
     /**
      * Returns the constant map index to name
@@ -280,16 +421,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public int getNameIndex(CharSequence name)
     {
-        for (ConstantInfo ci : listConstantInfo(Utf8.class))
-        {
-            Utf8 utf8 = (Utf8) ci;
-            String str = utf8.getString();
-            if (str.contentEquals(name))
-            {
-                return constantPoolIndexMap.get(ci);
-            }
-        }
-        return -1;
+        return indexOf(new Utf8(name));
     }
     /**
      * Returns the constant map index to name and type
@@ -299,22 +431,17 @@ public class ClassFile implements Writable, TypeElement
      */
     public int getNameAndTypeIndex(String name, String descriptor)
     {
-        for (ConstantInfo ci : listConstantInfo(NameAndType.class))
+        int nameIndex = getNameIndex(name);
+        if (nameIndex == -1)
         {
-            NameAndType nat = (NameAndType) ci;
-            int nameIndex = nat.getName_index();
-            String str = getString(nameIndex);
-            if (name.equals(str))
-            {
-                int descriptorIndex = nat.getDescriptor_index();
-                String descr = getString(descriptorIndex);
-                if (descriptor.equals(descr))
-                {
-                    return constantPoolIndexMap.get(ci);
-                }
-            }
+            return -1;
         }
-        return -1;
+        int descriptorIndex = getNameIndex(descriptor);
+        if (descriptorIndex == -1)
+        {
+            return -1;
+        }
+        return indexOf(new NameAndType(nameIndex, descriptorIndex));
     }
     /**
      * Returns the constant map index to integer constant
@@ -323,15 +450,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public final int getConstantIndex(int constant)
     {
-        for (ConstantInfo ci : listConstantInfo(ConstantInteger.class))
-        {
-            ConstantInteger ic = (ConstantInteger) ci;
-            if (constant == ic.getConstant())
-            {
-                return constantPoolIndexMap.get(ci);
-            }
-        }
-        return -1;
+        return indexOf(new ConstantInteger(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -340,15 +459,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public final int getConstantIndex(float constant)
     {
-        for (ConstantInfo ci : listConstantInfo(ConstantFloat.class))
-        {
-            ConstantFloat ic = (ConstantFloat) ci;
-            if (Float.compare(constant, ic.getConstant()) == 0)
-            {
-                return constantPoolIndexMap.get(ci);
-            }
-        }
-        return -1;
+        return indexOf(new ConstantFloat(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -357,15 +468,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public final int getConstantIndex(double constant)
     {
-        for (ConstantInfo ci : listConstantInfo(ConstantDouble.class))
-        {
-            ConstantDouble ic = (ConstantDouble) ci;
-            if (Double.compare(constant, ic.getConstant()) == 0)
-            {
-                return constantPoolIndexMap.get(ci);
-            }
-        }
-        return -1;
+        return indexOf(new ConstantDouble(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -374,15 +477,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public final int getConstantIndex(long constant)
     {
-        for (ConstantInfo ci : listConstantInfo(ConstantLong.class))
-        {
-            ConstantLong ic = (ConstantLong) ci;
-            if (constant == ic.getConstant())
-            {
-                return constantPoolIndexMap.get(ci);
-            }
-        }
-        return -1;
+        return indexOf(new ConstantLong(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -392,19 +487,26 @@ public class ClassFile implements Writable, TypeElement
     public final int getConstantIndex(String constant)
     {
         int nameIndex = getNameIndex(constant);
-        for (ConstantInfo ci : listConstantInfo(ConstantString.class))
+        if (nameIndex == -1)
         {
-            ConstantString ic = (ConstantString) ci;
-            if (nameIndex == ic.getString_index())
-            {
-                return constantPoolIndexMap.get(ci);
-            }
+            return -1;
         }
-        return -1;
+        return indexOf(new ConstantString(nameIndex));
+    }
+    /**
+     * Returns the index of structurally equal constant or -1
+     * @param ci
+     * @return 
+     */
+    private int indexOf(ConstantInfo ci)
+    {
+        return constant_pool.indexOf(ci);
     }
 
     protected void addMethodInfo(MethodInfo methodInfo)
     {
+        checkModifiable();
+        decodeMembers();
         if (methods.contains(methodInfo))
         {
             throw new IllegalArgumentException("method "+methodInfo.getName_index()+" "+methodInfo.getDescriptor_index()+" exists already");
@@ -415,6 +517,8 @@ public class ClassFile implements Writable, TypeElement
 
     protected void addFieldInfo(FieldInfo fieldInfo)
     {
+        checkModifiable();
+        decodeMembers();
         if (fields.contains(fieldInfo))
         {
             throw new IllegalArgumentException("field "+fieldInfo+" exists already");
@@ -425,11 +529,13 @@ public class ClassFile implements Writable, TypeElement
 
     protected List<FieldInfo> getFields()
     {
+        decodeMembers();
         return fields;
     }
 
     protected List<MethodInfo> getMethodInfos()
     {
+        decodeMembers();
         return methods;
     }
     
@@ -440,12 +546,12 @@ public class ClassFile implements Writable, TypeElement
     public SortedSet<String> getReferencedClassnames()
     {
         SortedSet<String> set = new TreeSet<String>();
-        List<ConstantInfo> list = constantPoolMap.get(ConstantInfo.Clazz.class);
-        if (list != null)
+        int count = constant_pool.size();
+        for (int index=1;index<=count;index++)
         {
-            for (ConstantInfo ci : list)
+            if (constant_pool.getTag(index) == ConstantInfo.CONSTANT_Class)
             {
-                ConstantInfo.Clazz cls = (Clazz) ci;
+                ConstantInfo.Clazz cls = (Clazz) constant_pool.getConstantInfo(index);
                 int ni = cls.getName_index();
                 String name = getString(ni);
                 if (name.startsWith("["))
@@ -469,53 +575,15 @@ public class ClassFile implements Writable, TypeElement
         return set;
     }
 
-    private int addConstantInfo(ConstantInfo ci)
-    {
-        return addConstantInfo(ci, constant_pool.size());
-    }
-    protected int addConstantInfo(ConstantInfo ci, int fromIndex)
-    {
-        List<ConstantInfo> rest = constant_pool.subList(fromIndex, constant_pool.size());
-        int index = rest.indexOf(ci);
-        if (index != -1)
-        {
-            return fromIndex+index+1;
-        }
-        constant_pool.add(ci);
-        index = constant_pool.size();
-        if (ci instanceof ConstantInfo.ConstantDouble || ci instanceof ConstantInfo.ConstantLong)
-        {
-            constant_pool.add(new Filler());
-        }
-        List<ConstantInfo> list = constantPoolMap.get(ci.getClass());
-        if (list == null)
-        {
-            list = new ArrayList<>();
-            constantPoolMap.put(ci.getClass(), list);
-        }
-        constantPoolIndexMap.put(ci, index);
-        list.add(ci);
-        return index;
-    }
-    
     protected void addIndexedElement(int index, Object type)
     {
         assert (type instanceof Element) || (type instanceof ArrayType);
         indexedElementMap.put(index, type);
     }
 
-    private List<ConstantInfo> listConstantInfo(Class<? extends ConstantInfo> cls)
-    {
-        List<ConstantInfo> list = constantPoolMap.get(cls);
-        if (list == null)
-        {
-            list = new ArrayList<ConstantInfo>();
-            constantPoolMap.put(cls, list);
-        }
-        return list;
-    }
     public void addInterface(short intf)
     {
+        checkModifiable();
         interfaces.add(intf);
     }
     /**
@@ -524,8 +592,23 @@ public class ClassFile implements Writable, TypeElement
      */
     public void addAttribute(AttributeInfo ai)
     {
+        checkModifiable();
+        decodeMembers();
         attributes.add(ai);
     }
+    /**
+     * Class read from class file is written as original bytes, so it cannot
+     * be modified.
+     * @throws UnsupportedOperationException If this class was read from class
+     * file.
+     */
+    private void checkModifiable()
+    {
+        if (classBytes != null)
+        {
+            throw new UnsupportedOperationException(qualifiedName+" is read from class file. Use SubClass(ClassFile) to modify it.");
+        }
+    }
     /**
      * Returns a element from constant map
      * @param index
@@ -603,6 +686,7 @@ public class ClassFile implements Writable, TypeElement
         ExecutableType mt = (ExecutableType) method.asType();
         List<? extends TypeMirror> mpt = mt.getParameterTypes();
         int count = mpt.size();
+        decodeMembers();
         for (ExecutableElement exe : ElementFilter.methodsIn(enclosedElements))
         {
             ExecutableType et = (ExecutableType) exe.asType();
@@ -636,11 +720,10 @@ public class ClassFile implements Writable, TypeElement
     public boolean referencesMethod(ExecutableElement method)
     {
         TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
-        String fullyQualifiedname = declaringClass.getQualifiedName().toString();
         String name = method.getSimpleName().toString();
         assert name.indexOf('.') == -1;
         String descriptor = Descriptor.getDesriptor(method);
-        return getRefIndex(Methodref.class, fullyQualifiedname, name, descriptor) != -1;
+        return getRefIndex(Methodref.class, declaringClass, name, descriptor) != -1;
     }
     public boolean referencesClass(TypeElement type)
     {
@@ -648,27 +731,25 @@ public class ClassFile implements Writable, TypeElement
     }
     protected final int getClassIndex(TypeElement type)
     {
-        return getClassIndex(El.getInternalForm(type));
+        int nameIndex = indexOf(DescriptorCache.getInternalName(type));
+        if (nameIndex == -1)
+        {
+            return -1;
+        }
+        return indexOf(new Clazz(nameIndex));
     }
     protected final int getClassIndex(ArrayType at)
     {
         return getClassIndex(Descriptor.getFieldDesriptor(at));
     }
-    private final int getClassIndex(String name)
+    private int getClassIndex(String name)
     {
-        int index = -1;
-        for (ConstantInfo ci : listConstantInfo(Clazz.class))
+        int nameIndex = getNameIndex(name);
+        if (nameIndex == -1)
         {
-            Clazz cls = (Clazz) ci;
-            int nameIndex = cls.getName_index();
-            String cn = getString(nameIndex);
-            if (name.equals(cn))
-            {
-                index = constantPoolIndexMap.get(ci);
-                break;
-            }
+            return -1;
         }
-        return index;
+        return indexOf(new Clazz(nameIndex));
     }
     /**
      * Return constantInfo at index.
@@ -677,7 +758,17 @@ public class ClassFile implements Writable, TypeElement
      */
     public final ConstantInfo getConstantInfo(int index)
     {
-        return constant_pool.get(index-1);
+        return constant_pool.getConstantInfo(index);
+    }
+    /**
+     * Return the tag of constant at index. Unusable slot after long or double
+     * returns 0.
+     * @param index
+     * @return
+     */
+    public final int getConstantTag(int index)
+    {
+        return constant_pool.getTag(index);
     }
     /**
      * Return a constant string at index.
@@ -686,8 +777,7 @@ public class ClassFile implements Writable, TypeElement
      */
     public final String getString(int index)
     {
-        Utf8 utf8 = (Utf8) getConstantInfo(index);
-        return utf8.getString();
+        return constant_pool.getString(index);
     }
     public boolean isSynthetic()
     {
@@ -703,24 +793,27 @@ public class ClassFile implements Writable, TypeElement
     @Override
     public List<? extends AnnotationMirror> getAnnotationMirrors()
     {
+        decodeMembers();
         return ModelUtil.getAnnotationMirrors(attributes);
     }
 
     @Override
     public <A extends Annotation> A getAnnotation(Class<A> annotationType)
     {
+        decodeMembers();
         return ModelUtil.getAnnotation(attributes, annotationType);
     }
 
     @Override
     public TypeMirror getSuperclass()
     {
-        return superClass.asType();
+        return superClass().asType();
     }
 
     @Override
     public List<? extends Element> getEnclosedElements()
     {
+        decodeMembers();
         return enclosedElements;
     }
 
@@ -746,7 +839,7 @@ public class ClassFile implements Writable, TypeElement
     @Override
     public List<? extends TypeParameterElement> getTypeParameters()
     {
-        return superClass.getTypeParameters();
+        return superClass().getTypeParameters();
     }
 
     @Override
@@ -779,10 +872,40 @@ public class ClassFile implements Writable, TypeElement
         return v.visitType(this, p);
     }
 
+    /**
+     * Writes the original class file bytes. Class read from class file cannot
+     * be modified. Use SubClass(ClassFile) to write modified class.
+     * @param out
+     * @throws IOException 
+     */
     @Override
     public void write(DataOutput out) throws IOException
     {
-        throw new UnsupportedOperationException("Not supported yet.");
+        ByteBuffer bb = classBytes.duplicate();
+        byte[] buf = new byte[4096];
+        while (bb.hasRemaining())
+        {
+            int count = Math.min(buf.length, bb.remaining());
+            bb.get(buf, 0, count);
+            out.write(buf, 0, count);
+        }
+    }
+    /**
+     * Returns the original class file bytes or null if this class was not
+     * read from class file.
+     * @return 
+     */
+    ByteBuffer getClassBytes()
+    {
+        return classBytes;
+    }
+    /**
+     * Returns the offset of access_flags in class file bytes.
+     * @return 
+     */
+    int getBodyOffset()
+    {
+        return bodyOffset;
     }
 
     @Override
@@ -821,7 +944,7 @@ public class ClassFile implements Writable, TypeElement
         @Override
         public List<? extends TypeMirror> getTypeArguments()
         {
-            DeclaredType dt = (DeclaredType) superClass.asType();
+            DeclaredType dt = (DeclaredType) superClass().asType();
             return dt.getTypeArguments();
         }
 
@@ -856,4 +979,43 @@ public class ClassFile implements Writable, TypeElement
         }
         
     }
+    /**
+     * InputStream reading buffer with absolute gets.
+     */
+    private static class BufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+        private int position;
+
+        public BufferInputStream(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (position >= buffer.limit())
+            {
+                return -1;
+            }
+            return buffer.get(position++) & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = Math.min(len, buffer.limit()-position);
+            if (count <= 0)
+            {
+                return len == 0 ? 0 : -1;
+            }
+            for (int ii=0;ii<count;ii++)
+            {
+                b[off+ii] = buffer.get(position++);
+            }
+            return count;
+        }
+
+    }
 }
@@ -16,19 +16,44 @@
  */
 package org.vesalainen.bcc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
+ * Finds class files from class path of directories and jar files.
  *
+ * <p>Class path is indexed at first lookup. Index maps class file name to
+ * the first class path element containing it, so a lookup is a single hash
+ * probe and a read. Jar files are kept open until close is called. Classes
+ * added to class path after indexing are not found.
+ *
+ * <p>Lookups are thread-safe.
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
-public class ClassFinder
+public class ClassFinder implements Closeable
 {
+    private static final String CLASS = ".class";
     private File[] classPath;
+    private final List<JarFile> jars = new ArrayList<>();
+    private volatile Map<String,Location> index;
 
     public ClassFinder(File... classPath)
     {
@@ -42,44 +67,251 @@ public class ClassFinder
 
     public ClassFile find(String name) throws IOException
     {
-        name = name.replace('.', '/')+".class";
-        for (File entry : classPath)
+        name = name.replace('.', '/')+CLASS;
+        Location location = getIndex().get(name);
+        if (location == null)
+        {
+            throw new IllegalArgumentException(name+" not found");
+        }
+        return location.read();
+    }
+    /**
+     * Returns class names from class file header without parsing the class.
+     * @param name
+     * @return
+     * @throws IOException 
+     * @see ClassHeader
+     */
+    public ClassHeader findHeader(String name) throws IOException
+    {
+        name = name.replace('.', '/')+CLASS;
+        Location location = getIndex().get(name);
+        if (location == null)
+        {
+            throw new IllegalArgumentException(name+" not found");
+        }
+        return new ClassHeader(location.bytes());
+    }
+    /**
+     * Returns true if class is in class path.
+     * @param name
+     * @return
+     * @throws IOException 
+     */
+    public boolean contains(String name) throws IOException
+    {
+        return getIndex().containsKey(name.replace('.', '/')+CLASS);
+    }
+    /**
+     * Returns internal names of all classes in class path.
+     * @return
+     * @throws IOException 
+     */
+    public Set<String> getClassnames() throws IOException
+    {
+        Set<String> set = new HashSet<>();
+        for (String name : getIndex().keySet())
         {
-            ClassFile is = findIn(entry, name);
-            if (is != null)
+            set.add(name.substring(0, name.length()-CLASS.length()));
+        }
+        return set;
+    }
+    /**
+     * Returns the class path element containing class or null if not found.
+     * @param name
+     * @return
+     * @throws IOException 
+     */
+    File locate(String name) throws IOException
+    {
+        Location location = getIndex().get(name.replace('.', '/')+CLASS);
+        if (location == null)
+        {
+            return null;
+        }
+        return location.getElement();
+    }
+    /**
+     * Closes jar files and drops the index. Finder can be used after close.
+     * Class path is then indexed again.
+     * @throws IOException 
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        IOException exc = null;
+        for (JarFile jar : jars)
+        {
+            try
+            {
+                jar.close();
+            }
+            catch (IOException ex)
             {
-                return is;
+                exc = ex;
             }
         }
-        throw new IllegalArgumentException(name+" not found");
+        jars.clear();
+        index = null;
+        if (exc != null)
+        {
+            throw exc;
+        }
+    }
+
+    private Map<String,Location> getIndex() throws IOException
+    {
+        Map<String,Location> current = index;
+        if (current != null)
+        {
+            return current;
+        }
+        synchronized(this)
+        {
+            return buildIndex();
+        }
     }
 
-    private ClassFile findIn(File file, String name) throws IOException
+    private Map<String,Location> buildIndex() throws IOException
     {
-        if (file.isDirectory())
+        if (index == null)
         {
-            File ff = new File(file, name);
-            if (ff.exists())
+            Map<String,Location> map = new HashMap<>();
+            for (File file : classPath)
             {
-                return new ClassFile(new FileInputStream(ff));
+                if (file.isDirectory())
+                {
+                    indexDirectory(map, file);
+                }
+                else
+                {
+                    if (file.exists())
+                    {
+                        indexJar(map, file);
+                    }
+                }
             }
-            else
+            index = map;
+        }
+        return index;
+    }
+
+    private void indexDirectory(final Map<String,Location> map, final File dir) throws IOException
+    {
+        final Path root = dir.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
             {
-                return null;
+                String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (name.endsWith(CLASS) && !map.containsKey(name))
+                {
+                    map.put(name, new FileLocation(dir, file.toFile()));
+                }
+                return FileVisitResult.CONTINUE;
             }
-        }
-        else
+        });
+    }
+
+    private void indexJar(Map<String,Location> map, File file) throws IOException
+    {
+        JarFile jar = new JarFile(file);
+        jars.add(jar);
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements())
         {
-            JarFile jar = new JarFile(file);
-            JarEntry entry = jar.getJarEntry(name);
-            if (entry != null)
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (name.endsWith(CLASS) && !map.containsKey(name))
             {
-                return new ClassFile(jar.getInputStream(entry));
+                map.put(name, new JarLocation(file, jar, entry));
             }
-            else
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int size) throws IOException
+    {
+        try (InputStream in = is)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size > 0 ? size : 4096);
+            byte[] buf = new byte[4096];
+            int rc = in.read(buf);
+            while (rc != -1)
             {
-                return null;
+                out.write(buf, 0, rc);
+                rc = in.read(buf);
             }
+            return out.toByteArray();
+        }
+    }
+
+    private static abstract class Location
+    {
+        private final File element;
+
+        public Location(File element)
+        {
+            this.element = element;
+        }
+
+        public File getElement()
+        {
+            return element;
+        }
+
+        public abstract ClassFile read() throws IOException;
+
+        public abstract ByteBuffer bytes() throws IOException;
+    }
+
+    private static class FileLocation extends Location
+    {
+        private final File file;
+
+        public FileLocation(File element, File file)
+        {
+            super(element);
+            this.file = file;
         }
+
+        @Override
+        public ClassFile read() throws IOException
+        {
+            return ClassFile.map(file);
+        }
+
+        @Override
+        public ByteBuffer bytes() throws IOException
+        {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        }
+
+    }
+
+    private static class JarLocation extends Location
+    {
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        public JarLocation(File element, JarFile jar, JarEntry entry)
+        {
+            super(element);
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        @Override
+        public ClassFile read() throws IOException
+        {
+            return new ClassFile(bytes());
+        }
+
+        @Override
+        public ByteBuffer bytes() throws IOException
+        {
+            return ByteBuffer.wrap(readFully(jar.getInputStream(entry), (int) entry.getSize()));
+        }
+
     }
 }
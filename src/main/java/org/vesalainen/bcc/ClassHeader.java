@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.vesalainen.bcc.AccessFlags.ClassFlags;
+import static org.vesalainen.bcc.ConstantInfo.*;
+
+/**
+ * Class names read from class file header. Constant pool is scanned
+ * skipping everything but Class entries and the Utf8 entries they name.
+ * Reading stops after interfaces. No constant, member or attribute objects
+ * are created.
+ *
+ * <p>Names are internal names like java/lang/String.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ClassFile#getReferencedClassnames()
+ */
+public final class ClassHeader
+{
+    private final int accessFlags;
+    private final String classname;
+    private final String superclass;
+    private final String[] interfaces;
+    private final SortedSet<String> referencedClassnames;
+    /**
+     * Reads header of class file starting at buffer position. Buffer
+     * position is not changed.
+     * @param buffer
+     */
+    public ClassHeader(ByteBuffer buffer)
+    {
+        ByteBuffer bb = buffer.slice();
+        if (bb.getInt(0) != 0xcafebabe)
+        {
+            throw new ClassFormatError();
+        }
+        int constant_pool_count = bb.getChar(8);
+        int[] utf8 = new int[constant_pool_count];
+        int[] classes = new int[constant_pool_count];
+        int classCount = 0;
+        int pos = 10;
+        int index = 1;
+        while (index < constant_pool_count)
+        {
+            int tag = bb.get(pos) & 0xff;
+            switch (tag)
+            {
+                case CONSTANT_Class:
+                    classes[index] = bb.getChar(pos+1);
+                    classCount++;
+                    pos += 3;
+                    break;
+                case CONSTANT_String:
+                case CONSTANT_MethodType:
+                case CONSTANT_Module:
+                case CONSTANT_Package:
+                    pos += 3;
+                    break;
+                case CONSTANT_MethodHandle:
+                    pos += 4;
+                    break;
+                case CONSTANT_Fieldref:
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref:
+                case CONSTANT_NameAndType:
+                case CONSTANT_Dynamic:
+                case CONSTANT_InvokeDynamic:
+                case CONSTANT_Integer:
+                case CONSTANT_Float:
+                    pos += 5;
+                    break;
+                case CONSTANT_Long:
+                case CONSTANT_Double:
+                    pos += 9;
+                    index++;
+                    break;
+                case CONSTANT_Utf8:
+                    utf8[index] = pos;
+                    pos += 3 + bb.getChar(pos+1);
+                    break;
+                default:
+                    throw new ClassFormatError("Unknown constant tag "+tag+" at "+index);
+            }
+            index++;
+        }
+        accessFlags = bb.getChar(pos);
+        String[] names = new String[constant_pool_count];
+        referencedClassnames = new TreeSet<>();
+        for (index=1;index<constant_pool_count && classCount>0;index++)
+        {
+            if (classes[index] != 0)
+            {
+                String name = string(bb, utf8[classes[index]]);
+                names[index] = name;
+                String element = ReferenceIndex.elementClass(name);
+                if (element != null)
+                {
+                    referencedClassnames.add(element);
+                }
+                classCount--;
+            }
+        }
+        classname = names[bb.getChar(pos+2)];
+        superclass = names[bb.getChar(pos+4)];
+        interfaces = new String[bb.getChar(pos+6)];
+        pos += 8;
+        for (int ii=0;ii<interfaces.length;ii++)
+        {
+            interfaces[ii] = names[bb.getChar(pos)];
+            pos += 2;
+        }
+    }
+
+    private static String string(ByteBuffer bb, int pos)
+    {
+        int length = bb.getChar(pos+1);
+        if (bb.hasArray())
+        {
+            return Utf8.decode(bb.array(), bb.arrayOffset()+pos+3, length);
+        }
+        byte[] bytes = new byte[length];
+        for (int ii=0;ii<length;ii++)
+        {
+            bytes[ii] = bb.get(pos+3+ii);
+        }
+        return Utf8.decode(bytes, 0, length);
+    }
+
+    public int getAccessFlags()
+    {
+        return accessFlags;
+    }
+
+    public boolean isSynthetic()
+    {
+        return ClassFlags.isSynthetic(accessFlags);
+    }
+
+    public String getClassname()
+    {
+        return classname;
+    }
+    /**
+     * Returns super class name or null for java/lang/Object and module-info.
+     * @return
+     */
+    public String getSuperclass()
+    {
+        return superclass;
+    }
+
+    public String[] getInterfaces()
+    {
+        return interfaces.clone();
+    }
+    /**
+     * Returns names of classes in constant pool including this class. Array
+     * classes are returned as their element class. Primitive arrays are not
+     * included.
+     * @return
+     * @see ClassFile#getReferencedClassnames()
+     */
+    public SortedSet<String> getReferencedClassnames()
+    {
+        return Collections.unmodifiableSortedSet(referencedClassnames);
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single pass reader sending class file events to ClassVisitor. No
+ * FieldInfo, MethodInfo or attribute objects are created. Members and code
+ * the visitor is not interested in are skipped by length without decoding.
+ *
+ * <p>Reader can be used for any number of visits. Buffer content must not
+ * change while reader is in use.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ClassVisitor
+ */
+public class ClassReader implements OpCode
+{
+    private static final byte[] CODE = {'C', 'o', 'd', 'e'};
+    private final ByteBuffer buffer;
+    private final MappedConstantPool pool;
+    private int codeIndex = -1;
+    /**
+     * Creates reader of class file bytes starting at buffer position.
+     * @param buffer
+     */
+    public ClassReader(ByteBuffer buffer)
+    {
+        this.buffer = buffer.slice();
+        if (this.buffer.getInt(0) != 0xcafebabe)
+        {
+            throw new ClassFormatError();
+        }
+        this.pool = new MappedConstantPool(this.buffer, 8);
+    }
+
+    public ClassReader(byte[] bytes)
+    {
+        this(ByteBuffer.wrap(bytes));
+    }
+    /**
+     * Creates reader of memory-mapped file.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ClassReader map(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            FileChannel channel = raf.getChannel();
+            return new ClassReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public ConstantPool getConstantPool()
+    {
+        return pool;
+    }
+    /**
+     * Sends class file events to visitor.
+     * @param visitor
+     */
+    public void accept(ClassVisitor visitor)
+    {
+        visitor.visitVersion(u2(4), u2(6));
+        visitor.visitConstantPool(pool);
+        int size = pool.size();
+        for (int index=1;index<=size;index++)
+        {
+            int tag = pool.getTag(index);
+            if (tag != 0)
+            {
+                visitor.visitConstant(index, tag);
+            }
+        }
+        int pos = pool.getEnd();
+        int access_flags = u2(pos);
+        int this_class = u2(pos+2);
+        int super_class = u2(pos+4);
+        int[] interfaces = new int[u2(pos+6)];
+        pos += 8;
+        for (int ii=0;ii<interfaces.length;ii++)
+        {
+            interfaces[ii] = u2(pos);
+            pos += 2;
+        }
+        visitor.visitClass(access_flags, this_class, super_class, interfaces);
+        int fields_count = u2(pos);
+        pos += 2;
+        for (int ii=0;ii<fields_count;ii++)
+        {
+            if (visitor.visitField(u2(pos), u2(pos+2), u2(pos+4)))
+            {
+                pos = attributes(visitor, pos+6);
+            }
+            else
+            {
+                pos = skipAttributes(pos+6);
+            }
+        }
+        int methods_count = u2(pos);
+        pos += 2;
+        for (int ii=0;ii<methods_count;ii++)
+        {
+            if (visitor.visitMethod(u2(pos), u2(pos+2), u2(pos+4)))
+            {
+                pos = attributes(visitor, pos+6);
+            }
+            else
+            {
+                pos = skipAttributes(pos+6);
+            }
+        }
+        attributes(visitor, pos);
+        visitor.visitEnd();
+    }
+
+    private int attributes(ClassVisitor visitor, int pos)
+    {
+        int attributes_count = u2(pos);
+        pos += 2;
+        for (int ii=0;ii<attributes_count;ii++)
+        {
+            int name_index = u2(pos);
+            int length = buffer.getInt(pos+2);
+            pos += 6;
+            if (isCode(name_index))
+            {
+                code(visitor, pos);
+            }
+            else
+            {
+                visitor.visitAttribute(name_index, buffer, pos, length);
+            }
+            pos += length;
+        }
+        return pos;
+    }
+
+    private int skipAttributes(int pos)
+    {
+        int attributes_count = u2(pos);
+        pos += 2;
+        for (int ii=0;ii<attributes_count;ii++)
+        {
+            pos += 6 + buffer.getInt(pos+2);
+        }
+        return pos;
+    }
+
+    private boolean isCode(int nameIndex)
+    {
+        if (codeIndex == -1 && pool.utf8Equals(nameIndex, CODE))
+        {
+            codeIndex = nameIndex;
+        }
+        return nameIndex == codeIndex;
+    }
+
+    private void code(ClassVisitor visitor, int pos)
+    {
+        int code_length = buffer.getInt(pos+4);
+        if (!visitor.visitCode(u2(pos), u2(pos+2), code_length))
+        {
+            return;
+        }
+        int start = pos+8;
+        instructions(visitor, start, code_length);
+        pos = start + code_length;
+        int exception_table_length = u2(pos);
+        pos += 2;
+        for (int ii=0;ii<exception_table_length;ii++)
+        {
+            visitor.visitExceptionHandler(u2(pos), u2(pos+2), u2(pos+4), u2(pos+6));
+            pos += 8;
+        }
+        attributes(visitor, pos);
+    }
+
+    private void instructions(ClassVisitor visitor, int start, int code_length)
+    {
+        int pc = 0;
+        while (pc < code_length)
+        {
+            int p = start + pc;
+            int op = u1(p);
+            switch (op)
+            {
+                case BIPUSH:
+                    visitor.visitInstruction(pc, op, buffer.get(p+1), 0);
+                    pc += 2;
+                    break;
+                case LDC:
+                case RET:
+                case NEWARRAY:
+                    visitor.visitInstruction(pc, op, u1(p+1), 0);
+                    pc += 2;
+                    break;
+                case SIPUSH:
+                    visitor.visitInstruction(pc, op, buffer.getShort(p+1), 0);
+                    pc += 3;
+                    break;
+                case IINC:
+                    visitor.visitInstruction(pc, op, u1(p+1), buffer.get(p+2));
+                    pc += 3;
+                    break;
+                case LDC_W:
+                case LDC2_W:
+                case GETSTATIC:
+                case PUTSTATIC:
+                case GETFIELD:
+                case PUTFIELD:
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case NEW:
+                case ANEWARRAY:
+                case CHECKCAST:
+                case INSTANCEOF:
+                    visitor.visitInstruction(pc, op, u2(p+1), 0);
+                    pc += 3;
+                    break;
+                case MULTIANEWARRAY:
+                    visitor.visitInstruction(pc, op, u2(p+1), u1(p+3));
+                    pc += 4;
+                    break;
+                case INVOKEINTERFACE:
+                    visitor.visitInstruction(pc, op, u2(p+1), u1(p+3));
+                    pc += 5;
+                    break;
+                case INVOKEDYNAMIC:
+                    visitor.visitInstruction(pc, op, u2(p+1), 0);
+                    pc += 5;
+                    break;
+                case WIDE:
+                    int wop = u1(p+1);
+                    if (wop == IINC)
+                    {
+                        visitor.visitInstruction(pc, wop, u2(p+2), buffer.getShort(p+4));
+                        pc += 6;
+                    }
+                    else
+                    {
+                        visitor.visitInstruction(pc, wop, u2(p+2), 0);
+                        pc += 4;
+                    }
+                    break;
+                case TABLESWITCH:
+                {
+                    int base = p + 1 + (3 - (pc & 3));
+                    int low = buffer.getInt(base+4);
+                    int high = buffer.getInt(base+8);
+                    int[] keys = new int[high-low+1];
+                    int[] targets = new int[keys.length];
+                    for (int ii=0;ii<keys.length;ii++)
+                    {
+                        keys[ii] = low+ii;
+                        targets[ii] = pc + buffer.getInt(base+12+4*ii);
+                    }
+                    visitor.visitSwitch(pc, op, pc + buffer.getInt(base), keys, targets);
+                    pc = base - start + 12 + 4*keys.length;
+                }
+                    break;
+                case LOOKUPSWITCH:
+                {
+                    int base = p + 1 + (3 - (pc & 3));
+                    int npairs = buffer.getInt(base+4);
+                    int[] keys = new int[npairs];
+                    int[] targets = new int[npairs];
+                    for (int ii=0;ii<npairs;ii++)
+                    {
+                        keys[ii] = buffer.getInt(base+8+8*ii);
+                        targets[ii] = pc + buffer.getInt(base+12+8*ii);
+                    }
+                    visitor.visitSwitch(pc, op, pc + buffer.getInt(base), keys, targets);
+                    pc = base - start + 8 + 8*npairs;
+                }
+                    break;
+                case GOTO_W:
+                case JSR_W:
+                    visitor.visitInstruction(pc, op, pc + buffer.getInt(p+1), 0);
+                    pc += 5;
+                    break;
+                default:
+                    if ((op >= IFEQ && op <= JSR) || op == IFNULL || op == IFNONNULL)
+                    {
+                        visitor.visitInstruction(pc, op, pc + buffer.getShort(p+1), 0);
+                        pc += 3;
+                    }
+                    else
+                    {
+                        if (
+                                (op >= ILOAD && op <= ALOAD) ||
+                                (op >= ISTORE && op <= ASTORE)
+                                )
+                        {
+                            visitor.visitInstruction(pc, op, u1(p+1), 0);
+                            pc += 2;
+                        }
+                        else
+                        {
+                            if (op > JSR_W)
+                            {
+                                throw new ClassFormatError("unknown opcode "+op+" at "+pc);
+                            }
+                            visitor.visitInstruction(pc, op, 0, 0);
+                            pc++;
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    private int u1(int pos)
+    {
+        return buffer.get(pos) & 0xff;
+    }
+
+    private int u2(int pos)
+    {
+        return buffer.getChar(pos);
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of class file events from ClassReader. All methods do nothing by
+ * default. Names, descriptors and other constants are passed as constant pool
+ * indexes which can be resolved from the pool given in visitConstantPool.
+ *
+ * <p>Events are sent in class file order:
+ * <pre>
+ * visitVersion
+ * visitConstantPool visitConstant*
+ * visitClass
+ * (visitField visitAttribute*)*
+ * (visitMethod (visitCode (visitInstruction | visitSwitch)* visitExceptionHandler* visitAttribute*)? visitAttribute*)*
+ * visitAttribute*
+ * visitEnd
+ * </pre>
+ * Attributes of Code attribute are sent after its exception handlers and
+ * before the other method attributes.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ClassReader
+ */
+public abstract class ClassVisitor
+{
+
+    public void visitVersion(int minorVersion, int majorVersion)
+    {
+    }
+    /**
+     * Called before constants are visited. Pool stays usable after the visit.
+     * @param pool
+     */
+    public void visitConstantPool(ConstantPool pool)
+    {
+    }
+    /**
+     * Called for each constant. Unusable slot after long or double is not
+     * visited.
+     * @param index
+     * @param tag
+     */
+    public void visitConstant(int index, int tag)
+    {
+    }
+    /**
+     * @param accessFlags
+     * @param thisClass Class constant index
+     * @param superClass Class constant index or 0 for java.lang.Object
+     * @param interfaces Class constant indexes
+     */
+    public void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces)
+    {
+    }
+    /**
+     * @param accessFlags
+     * @param nameIndex
+     * @param descriptorIndex
+     * @return If false field attributes are skipped.
+     */
+    public boolean visitField(int accessFlags, int nameIndex, int descriptorIndex)
+    {
+        return false;
+    }
+    /**
+     * @param accessFlags
+     * @param nameIndex
+     * @param descriptorIndex
+     * @return If false method attributes including code are skipped.
+     */
+    public boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex)
+    {
+        return false;
+    }
+    /**
+     * Called for Code attribute of visited method.
+     * @param maxStack
+     * @param maxLocals
+     * @param codeLength
+     * @return If false instructions, exception handlers and code attributes
+     * are skipped.
+     */
+    public boolean visitCode(int maxStack, int maxLocals, int codeLength)
+    {
+        return false;
+    }
+    /**
+     * Called for each instruction except tableswitch and lookupswitch. Wide
+     * instructions are reported with the widened opcode.
+     * <p>Operand is:
+     * <ul>
+     * <li>constant pool index for instructions referencing constant pool</li>
+     * <li>local variable index for load, store, ret and iinc</li>
+     * <li>absolute target address for branches</li>
+     * <li>value for bipush and sipush and type for newarray</li>
+     * <li>0 otherwise</li>
+     * </ul>
+     * Operand2 is increment for iinc, count for invokeinterface and dimensions
+     * for multianewarray. Otherwise 0.
+     * @param pc
+     * @param opcode
+     * @param operand
+     * @param operand2
+     */
+    public void visitInstruction(int pc, int opcode, int operand, int operand2)
+    {
+    }
+    /**
+     * Called for tableswitch and lookupswitch.
+     * @param pc
+     * @param opcode
+     * @param defaultTarget Absolute target address
+     * @param keys Match values in ascending order
+     * @param targets Absolute target addresses
+     */
+    public void visitSwitch(int pc, int opcode, int defaultTarget, int[] keys, int[] targets)
+    {
+    }
+    /**
+     * @param startPc
+     * @param endPc
+     * @param handlerPc
+     * @param catchType Class constant index or 0 for any
+     */
+    public void visitExceptionHandler(int startPc, int endPc, int handlerPc, int catchType)
+    {
+    }
+    /**
+     * Called for class, field, method and code attributes except Code.
+     * Attribute info is in buffer between offset and offset+length. Buffer
+     * is shared and must not be modified.
+     * @param nameIndex
+     * @param buffer
+     * @param offset
+     * @param length
+     */
+    public void visitAttribute(int nameIndex, ByteBuffer buffer, int offset, int length)
+    {
+    }
+
+    public void visitEnd()
+    {
+    }
+}
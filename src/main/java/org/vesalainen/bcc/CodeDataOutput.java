@@ -17,53 +17,163 @@
 package org.vesalainen.bcc;
 
 import org.vesalainen.bcc.Label.Branch;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
 
 /**
+ * Code writer over growable byte array. Values are written big-endian
+ * directly to the array. Position is the number of written bytes.
  *
+ * <p>getCode returns the internal array trimmed to position. Array is
+ * copied only if it is longer than position, so labels are fixed in place
+ * and the same array is handed to CodeAttribute. Writing after getCode
+ * doesn't change the returned array. Reusable output used in arena mode
+ * always returns a copy.
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
 public class CodeDataOutput implements DataOutput
 {
     private Assembler asm;
-    private ByteArrayOutputStream baos;
-    private DataOutput out;
+    private byte[] buf;
+    private int count;
     private int lastOpCode;
+    private final boolean reusable;
 
     public CodeDataOutput(Assembler asm)
+    {
+        this(asm, false);
+    }
+    /**
+     * @param asm
+     * @param reusable If true, getCode always returns a copy and buffer can
+     * be reused after reset.
+     */
+    CodeDataOutput(Assembler asm, boolean reusable)
     {
         this.asm = asm;
-        baos = new ByteArrayOutputStream();
-        this.out = new DataOutputStream(baos);
+        this.reusable = reusable;
+        buf = new byte[256];
     }
 
     public byte[] getCode()
     {
-        return baos.toByteArray();
+        if (reusable)
+        {
+            return Arrays.copyOf(buf, count);
+        }
+        if (buf.length != count)
+        {
+            buf = Arrays.copyOf(buf, count);
+        }
+        return buf;
+    }
+    /**
+     * Discards written code keeping the buffer.
+     */
+    void reset()
+    {
+        count = 0;
+        lastOpCode = 0;
     }
 
     public int position() throws IOException
     {
-        baos.flush();
-        return baos.size();
+        return count;
     }
 
     public int getLastOpCode()
     {
         return lastOpCode;
     }
+    /**
+     * Overwrites 2 bytes at position.
+     * @param position
+     * @param v
+     */
+    public void putShort(int position, int v)
+    {
+        if (position < 0 || position + 2 > count)
+        {
+            throw new IndexOutOfBoundsException(String.valueOf(position));
+        }
+        buf[position] = (byte) (v >> 8);
+        buf[position+1] = (byte) v;
+    }
+    /**
+     * Overwrites 4 bytes at position.
+     * @param position
+     * @param v
+     */
+    public void putInt(int position, int v)
+    {
+        if (position < 0 || position + 4 > count)
+        {
+            throw new IndexOutOfBoundsException(String.valueOf(position));
+        }
+        buf[position] = (byte) (v >> 24);
+        buf[position+1] = (byte) (v >> 16);
+        buf[position+2] = (byte) (v >> 8);
+        buf[position+3] = (byte) v;
+    }
+
+    private void ensure(int length)
+    {
+        if (count + length > buf.length)
+        {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + length));
+        }
+    }
 
     public void writeUTF(String s) throws IOException
     {
-        out.writeUTF(s);
+        int length = 0;
+        for (int ii=0;ii<s.length();ii++)
+        {
+            char c = s.charAt(ii);
+            if (c >= 0x0001 && c <= 0x007f)
+            {
+                length++;
+            }
+            else
+            {
+                length += c > 0x07ff ? 3 : 2;
+            }
+        }
+        if (length > 0xffff)
+        {
+            throw new UTFDataFormatException("encoded string too long: " + length + " bytes");
+        }
+        ensure(2 + length);
+        putShort(length);
+        for (int ii=0;ii<s.length();ii++)
+        {
+            char c = s.charAt(ii);
+            if (c >= 0x0001 && c <= 0x007f)
+            {
+                buf[count++] = (byte) c;
+            }
+            else
+            {
+                if (c > 0x07ff)
+                {
+                    buf[count++] = (byte) (0xe0 | ((c >> 12) & 0x0f));
+                    buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                }
+                else
+                {
+                    buf[count++] = (byte) (0xc0 | ((c >> 6) & 0x1f));
+                    buf[count++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
     }
 
     public void writeShort(Branch branch) throws IOException
     {
-        branch.setReference(position());
+        branch.setReference(count);
         writeShort(0);
     }
 
@@ -73,39 +183,61 @@ public class CodeDataOutput implements DataOutput
         {
             throw new IllegalArgumentException(String.valueOf(v));
         }
-        out.writeShort(v);
+        ensure(2);
+        putShort(v);
+    }
+
+    private void putShort(int v)
+    {
+        buf[count++] = (byte) (v >> 8);
+        buf[count++] = (byte) v;
     }
 
     public void writeLong(long v) throws IOException
     {
-        out.writeLong(v);
+        ensure(8);
+        putInt((int) (v >> 32));
+        putInt((int) v);
     }
 
     public void writeInt(Branch branch) throws IOException
     {
-        branch.setReference(position());
+        branch.setReference(count);
         branch.setWide(true);
-        out.writeInt(0);
+        writeInt(0);
     }
 
     public void writeInt(int v) throws IOException
     {
-        out.writeInt(v);
+        ensure(4);
+        putInt(v);
+    }
+
+    private void putInt(int v)
+    {
+        buf[count++] = (byte) (v >> 24);
+        buf[count++] = (byte) (v >> 16);
+        buf[count++] = (byte) (v >> 8);
+        buf[count++] = (byte) v;
     }
 
     public void writeFloat(float v) throws IOException
     {
-        out.writeFloat(v);
+        writeInt(Float.floatToIntBits(v));
     }
 
     public void writeDouble(double v) throws IOException
     {
-        out.writeDouble(v);
+        writeLong(Double.doubleToLongBits(v));
     }
 
     public void writeChars(String s) throws IOException
     {
-        out.writeChars(s);
+        ensure(2*s.length());
+        for (int ii=0;ii<s.length();ii++)
+        {
+            putShort(s.charAt(ii));
+        }
     }
 
     public void writeChar(int v) throws IOException
@@ -114,12 +246,17 @@ public class CodeDataOutput implements DataOutput
         {
             throw new IllegalArgumentException(String.valueOf(v));
         }
-        out.writeChar(v);
+        ensure(2);
+        putShort(v);
     }
 
     public void writeBytes(String s) throws IOException
     {
-        out.writeBytes(s);
+        ensure(s.length());
+        for (int ii=0;ii<s.length();ii++)
+        {
+            buf[count++] = (byte) s.charAt(ii);
+        }
     }
 
     public void writeOpCode(int opCode) throws IOException
@@ -134,26 +271,32 @@ public class CodeDataOutput implements DataOutput
         {
             throw new IllegalArgumentException(String.valueOf(v));
         }
-        out.writeByte(v);
+        write(v);
     }
 
     public void writeBoolean(boolean v) throws IOException
     {
-        out.writeBoolean(v);
+        write(v ? 1 : 0);
     }
 
     public void write(byte[] b, int off, int len) throws IOException
     {
-        out.write(b, off, len);
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
     }
 
     public void write(byte[] b) throws IOException
     {
-        out.write(b);
+        write(b, 0, b.length);
     }
 
     public void write(int b) throws IOException
     {
-        out.write(b);
+        if (count == buf.length)
+        {
+            ensure(1);
+        }
+        buf[count++] = (byte) b;
     }
 }
@@ -0,0 +1,543 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.ConstantDouble;
+import org.vesalainen.bcc.ConstantInfo.ConstantDynamic;
+import org.vesalainen.bcc.ConstantInfo.ConstantFloat;
+import org.vesalainen.bcc.ConstantInfo.ConstantIndex;
+import org.vesalainen.bcc.ConstantInfo.ConstantInteger;
+import org.vesalainen.bcc.ConstantInfo.ConstantLong;
+import org.vesalainen.bcc.ConstantInfo.ConstantMethodHandle;
+import org.vesalainen.bcc.ConstantInfo.ConstantString;
+import org.vesalainen.bcc.ConstantInfo.Fieldref;
+import org.vesalainen.bcc.ConstantInfo.Filler;
+import org.vesalainen.bcc.ConstantInfo.InterfaceMethodref;
+import org.vesalainen.bcc.ConstantInfo.Methodref;
+import org.vesalainen.bcc.ConstantInfo.NameAndType;
+import org.vesalainen.bcc.ConstantInfo.Ref;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+import static org.vesalainen.bcc.ConstantInfo.*;
+
+/**
+ * Constant pool stored in parallel primitive arrays. Each slot has a tag and
+ * a long operand. Utf8 operand is offset and length in a shared byte arena.
+ * Lookup is done with open addressing hash table of indexes.
+ *
+ * <p>ConstantInfo objects are created on demand and are not retained. Access
+ * is synchronized, so this pool suits single threaded bulk generation and
+ * reading. Use ConcurrentConstantPool when many threads resolve constants
+ * into the same class.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+public class CompactConstantPool extends ConstantPool
+{
+    private byte[] tags;
+    private long[] operands;
+    private int[] hashes;
+    private int size;
+    private byte[] arena;
+    private int arenaSize;
+    private int[] table;
+    private int count;
+
+    public CompactConstantPool()
+    {
+        this(64, 1024);
+    }
+
+    private CompactConstantPool(int slots, int arenaCapacity)
+    {
+        tags = new byte[slots+1];
+        operands = new long[slots+1];
+        hashes = new int[slots+1];
+        arena = new byte[arenaCapacity];
+        table = new int[Integer.highestOneBit(Math.max(slots, 1))*4];
+    }
+    /**
+     * Reads constant_pool_count and constant_pool from class file.
+     * @param in
+     * @throws IOException
+     */
+    public CompactConstantPool(DataInput in) throws IOException
+    {
+        this(in.readUnsignedShort()-1, 4096);
+        int constant_pool_count = tags.length;
+        while (size+1 < constant_pool_count)
+        {
+            read(in);
+        }
+    }
+
+    private void read(DataInput in) throws IOException
+    {
+        int tag = in.readUnsignedByte();
+        switch (tag)
+        {
+            case CONSTANT_Class:
+            case CONSTANT_String:
+            case CONSTANT_MethodType:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
+                append(tag, in.readUnsignedShort(), false);
+                break;
+            case CONSTANT_MethodHandle:
+                append(tag, ((long)in.readUnsignedByte()<<16) | in.readUnsignedShort(), false);
+                break;
+            case CONSTANT_Fieldref:
+            case CONSTANT_Methodref:
+            case CONSTANT_InterfaceMethodref:
+            case CONSTANT_NameAndType:
+            case CONSTANT_Dynamic:
+            case CONSTANT_InvokeDynamic:
+                append(tag, ((long)in.readUnsignedShort()<<16) | in.readUnsignedShort(), false);
+                break;
+            case CONSTANT_Integer:
+            case CONSTANT_Float:
+                append(tag, in.readInt() & 0xffffffffL, false);
+                break;
+            case CONSTANT_Long:
+            case CONSTANT_Double:
+                append(tag, in.readLong(), false);
+                break;
+            case CONSTANT_Utf8:
+                int length = in.readUnsignedShort();
+                ensureArena(length);
+                in.readFully(arena, arenaSize, length);
+                append(tag, ((long)arenaSize<<16) | length, false);
+                arenaSize += length;
+                break;
+            default:
+                throw new ClassFormatError("Unknown constant tag "+tag);
+        }
+    }
+
+    @Override
+    synchronized int indexOf(ConstantInfo ci)
+    {
+        if (ci.getTag() == CONSTANT_Utf8)
+        {
+            byte[] bytes = ((Utf8)ci).getBytes();
+            return findUtf8(bytes, hash(CONSTANT_Utf8, bytes, 0, bytes.length));
+        }
+        int tag = ci.getTag();
+        long operand = operand(ci);
+        return find(tag, operand, hash(tag, operand));
+    }
+
+    @Override
+    synchronized int resolve(ConstantInfo ci)
+    {
+        int index = indexOf(ci);
+        if (index != -1)
+        {
+            return index;
+        }
+        return add(ci);
+    }
+
+    @Override
+    synchronized int add(ConstantInfo ci)
+    {
+        int tag = ci.getTag();
+        if (tag == CONSTANT_Utf8)
+        {
+            byte[] bytes = ((Utf8)ci).getBytes();
+            ensureArena(bytes.length);
+            System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+            int index = append(tag, ((long)arenaSize<<16) | bytes.length, true);
+            arenaSize += bytes.length;
+            return index;
+        }
+        return append(tag, operand(ci), true);
+    }
+
+    private int append(int tag, long operand, boolean checkSize)
+    {
+        int slots = tag == CONSTANT_Long || tag == CONSTANT_Double ? 2 : 1;
+        if (checkSize && size + slots > MAX_SIZE)
+        {
+            throw new IllegalStateException("constant pool size exceeds "+MAX_SIZE);
+        }
+        ensureSlots(slots);
+        int index = size + 1;
+        tags[index] = (byte) tag;
+        operands[index] = operand;
+        int hash;
+        if (tag == CONSTANT_Utf8)
+        {
+            hash = hash(tag, arena, (int)(operand>>16), (int)(operand & 0xffff));
+        }
+        else
+        {
+            hash = hash(tag, operand);
+        }
+        hashes[index] = hash;
+        size += slots;
+        if (tag == CONSTANT_Utf8)
+        {
+            if (findUtf8(arena, (int)(operand>>16), (int)(operand & 0xffff), hash) == -1)
+            {
+                insert(index, hash);
+            }
+        }
+        else
+        {
+            if (find(tag, operand, hash) == -1)
+            {
+                insert(index, hash);
+            }
+        }
+        return index;
+    }
+
+    private int find(int tag, long operand, int hash)
+    {
+        int mask = table.length-1;
+        int slot = hash & mask;
+        while (true)
+        {
+            int index = table[slot];
+            if (index == 0)
+            {
+                return -1;
+            }
+            if (hashes[index] == hash && tags[index] == tag && operands[index] == operand)
+            {
+                return index;
+            }
+            slot = (slot+1) & mask;
+        }
+    }
+
+    private int findUtf8(byte[] bytes, int hash)
+    {
+        return findUtf8(bytes, 0, bytes.length, hash);
+    }
+
+    private int findUtf8(byte[] bytes, int offset, int length, int hash)
+    {
+        int mask = table.length-1;
+        int slot = hash & mask;
+        while (true)
+        {
+            int index = table[slot];
+            if (index == 0)
+            {
+                return -1;
+            }
+            if (hashes[index] == hash && tags[index] == CONSTANT_Utf8)
+            {
+                long operand = operands[index];
+                int off = (int)(operand>>16);
+                int len = (int)(operand & 0xffff);
+                if (len == length && rangeEquals(arena, off, bytes, offset, length))
+                {
+                    return index;
+                }
+            }
+            slot = (slot+1) & mask;
+        }
+    }
+
+    private void insert(int index, int hash)
+    {
+        if (++count*2 > table.length)
+        {
+            int[] old = table;
+            table = new int[old.length*2];
+            for (int ii : old)
+            {
+                if (ii != 0)
+                {
+                    put(ii, hashes[ii]);
+                }
+            }
+        }
+        put(index, hash);
+    }
+
+    private void put(int index, int hash)
+    {
+        int mask = table.length-1;
+        int slot = hash & mask;
+        while (table[slot] != 0)
+        {
+            slot = (slot+1) & mask;
+        }
+        table[slot] = index;
+    }
+
+    private void ensureSlots(int slots)
+    {
+        int need = size + slots + 1;
+        if (need > tags.length)
+        {
+            int capacity = Math.max(need, tags.length*2);
+            tags = Arrays.copyOf(tags, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+    }
+
+    private void ensureArena(int length)
+    {
+        if (arenaSize + length > arena.length)
+        {
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + length, arena.length*2));
+        }
+    }
+
+    @Override
+    public synchronized ConstantInfo getConstantInfo(int index)
+    {
+        checkIndex(index);
+        long operand = operands[index];
+        switch (tags[index])
+        {
+            case 0:
+                return new Filler();
+            case CONSTANT_Class:
+                return new Clazz((int)operand);
+            case CONSTANT_String:
+                return new ConstantString((int)operand);
+            case CONSTANT_Fieldref:
+                return new Fieldref((int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_Methodref:
+                return new Methodref((int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_InterfaceMethodref:
+                return new InterfaceMethodref((int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_NameAndType:
+                return new NameAndType((int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_MethodHandle:
+                return new ConstantMethodHandle((int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_MethodType:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
+                return new ConstantIndex(tags[index], (int)operand);
+            case CONSTANT_Dynamic:
+            case CONSTANT_InvokeDynamic:
+                return new ConstantDynamic(tags[index], (int)(operand>>16), (int)(operand & 0xffff));
+            case CONSTANT_Integer:
+                return new ConstantInteger((int)operand);
+            case CONSTANT_Float:
+                return new ConstantFloat((int)operand);
+            case CONSTANT_Long:
+                return new ConstantLong(operand);
+            case CONSTANT_Double:
+                return new ConstantDouble((int)(operand>>32), (int)operand);
+            case CONSTANT_Utf8:
+                int off = (int)(operand>>16);
+                return new Utf8(Arrays.copyOfRange(arena, off, off+(int)(operand & 0xffff)));
+            default:
+                throw new IllegalArgumentException("unknown tag "+tags[index]);
+        }
+    }
+
+    @Override
+    public synchronized int getTag(int index)
+    {
+        checkIndex(index);
+        return tags[index];
+    }
+
+    @Override
+    public synchronized String getString(int index)
+    {
+        checkIndex(index);
+        if (tags[index] != CONSTANT_Utf8)
+        {
+            throw new ClassCastException("constant at "+index+" is not Utf8");
+        }
+        long operand = operands[index];
+        return Utf8.decode(arena, (int)(operand>>16), (int)(operand & 0xffff));
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    @Override
+    public synchronized int getByteSize()
+    {
+        int bytes = 2;
+        for (int index=1;index<=size;index++)
+        {
+            switch (tags[index])
+            {
+                case 0:
+                    break;
+                case CONSTANT_Class:
+                case CONSTANT_String:
+                case CONSTANT_MethodType:
+                case CONSTANT_Module:
+                case CONSTANT_Package:
+                    bytes += 3;
+                    break;
+                case CONSTANT_MethodHandle:
+                    bytes += 4;
+                    break;
+                case CONSTANT_Long:
+                case CONSTANT_Double:
+                    bytes += 9;
+                    break;
+                case CONSTANT_Utf8:
+                    bytes += 3 + (int)(operands[index] & 0xffff);
+                    break;
+                default:
+                    bytes += 5;
+                    break;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void write(DataOutput out) throws IOException
+    {
+        out.writeShort(size+1);
+        for (int index=1;index<=size;index++)
+        {
+            int tag = tags[index];
+            if (tag == 0)
+            {
+                continue;
+            }
+            long operand = operands[index];
+            out.writeByte(tag);
+            switch (tag)
+            {
+                case CONSTANT_Class:
+                case CONSTANT_String:
+                case CONSTANT_MethodType:
+                case CONSTANT_Module:
+                case CONSTANT_Package:
+                    out.writeShort((int)operand);
+                    break;
+                case CONSTANT_MethodHandle:
+                    out.writeByte((int)(operand>>16));
+                    out.writeShort((int)(operand & 0xffff));
+                    break;
+                case CONSTANT_Fieldref:
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref:
+                case CONSTANT_NameAndType:
+                case CONSTANT_Dynamic:
+                case CONSTANT_InvokeDynamic:
+                    out.writeShort((int)(operand>>16));
+                    out.writeShort((int)(operand & 0xffff));
+                    break;
+                case CONSTANT_Integer:
+                case CONSTANT_Float:
+                    out.writeInt((int)operand);
+                    break;
+                case CONSTANT_Long:
+                case CONSTANT_Double:
+                    out.writeLong(operand);
+                    break;
+                case CONSTANT_Utf8:
+                    int length = (int)(operand & 0xffff);
+                    out.writeShort(length);
+                    out.write(arena, (int)(operand>>16), length);
+                    break;
+            }
+        }
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 1 || index > size)
+        {
+            throw new IndexOutOfBoundsException("index "+index+" size "+size);
+        }
+    }
+
+    private static long operand(ConstantInfo ci)
+    {
+        switch (ci.getTag())
+        {
+            case CONSTANT_Class:
+                return ((Clazz)ci).getName_index();
+            case CONSTANT_String:
+                return ((ConstantString)ci).getString_index();
+            case CONSTANT_Fieldref:
+            case CONSTANT_Methodref:
+            case CONSTANT_InterfaceMethodref:
+                Ref ref = (Ref) ci;
+                return ((long)ref.getClass_index()<<16) | ref.getName_and_type_index();
+            case CONSTANT_NameAndType:
+                NameAndType nat = (NameAndType) ci;
+                return ((long)nat.getName_index()<<16) | nat.getDescriptor_index();
+            case CONSTANT_Integer:
+                return ((ConstantInteger)ci).getConstant() & 0xffffffffL;
+            case CONSTANT_Float:
+                return Float.floatToRawIntBits(((ConstantFloat)ci).getConstant()) & 0xffffffffL;
+            case CONSTANT_Long:
+                return ((ConstantLong)ci).getConstant();
+            case CONSTANT_Double:
+                return Double.doubleToRawLongBits(((ConstantDouble)ci).getConstant());
+            case CONSTANT_MethodHandle:
+                ConstantMethodHandle mh = (ConstantMethodHandle) ci;
+                return ((long)mh.getReference_kind()<<16) | mh.getReference_index();
+            case CONSTANT_MethodType:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
+                return ((ConstantIndex)ci).getIndex();
+            case CONSTANT_Dynamic:
+            case CONSTANT_InvokeDynamic:
+                ConstantDynamic dyn = (ConstantDynamic) ci;
+                return ((long)dyn.getBootstrap_method_attr_index()<<16) | dyn.getName_and_type_index();
+            default:
+                throw new IllegalArgumentException(ci+" not supported");
+        }
+    }
+
+    private static int hash(int tag, long operand)
+    {
+        int h = 31*tag + (int)(operand ^ (operand >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(int tag, byte[] bytes, int offset, int length)
+    {
+        int h = tag;
+        for (int ii=0;ii<length;ii++)
+        {
+            h = 31*h + bytes[offset+ii];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean rangeEquals(byte[] b1, int o1, byte[] b2, int o2, int length)
+    {
+        for (int ii=0;ii<length;ii++)
+        {
+            if (b1[o1+ii] != b2[o2+ii])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
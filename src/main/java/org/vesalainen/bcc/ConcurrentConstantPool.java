@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import org.vesalainen.bcc.ConstantInfo.Filler;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+
+/**
+ * Constant pool which can be resolved and read concurrently without locking.
+ *
+ * <p>Slots are reserved atomically and stored in lazily allocated chunks.
+ * Index assignment is done in ConcurrentHashMap.computeIfAbsent so that equal
+ * constants resolved concurrently get the same index.
+ *
+ * <p>Entries are visible to other threads after the index returned by
+ * resolve is published to them. Reading a slot which is reserved but not yet
+ * stored waits until appending thread stores it. Writing is safe only after
+ * all additions are complete.
+ *
+ * <p>Pool can start from a PrototypeConstantPool. Prototype entries keep
+ * their indexes and are shared, not copied. New entries are appended after
+ * them.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+public class ConcurrentConstantPool extends ConstantPool
+{
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<ConstantInfo>> chunks = new AtomicReferenceArray<>((MAX_SIZE >> CHUNK_BITS) + 1);
+    private final AtomicInteger size;
+    private final ConcurrentMap<ConstantInfo,Integer> indexMap = new ConcurrentHashMap<>();
+    private final PrototypeConstantPool prototype;
+    private final int prototypeSize;
+    private final Function<ConstantInfo,Integer> appender = new Function<ConstantInfo,Integer>()
+    {
+        @Override
+        public Integer apply(ConstantInfo ci)
+        {
+            return append(ci);
+        }
+    };
+
+
+    public ConcurrentConstantPool()
+    {
+        this(null);
+    }
+    /**
+     * Creates pool which starts with prototype entries.
+     * @param prototype 
+     */
+    public ConcurrentConstantPool(PrototypeConstantPool prototype)
+    {
+        this.prototype = prototype;
+        this.prototypeSize = prototype != null ? prototype.size() : 0;
+        this.size = new AtomicInteger(prototypeSize);
+    }
+
+    @Override
+    int indexOf(ConstantInfo ci)
+    {
+        if (prototype != null)
+        {
+            int index = prototype.indexOf(ci);
+            if (index != -1)
+            {
+                return index;
+            }
+        }
+        Integer index = indexMap.get(ci);
+        if (index == null)
+        {
+            return -1;
+        }
+        return index;
+    }
+
+    @Override
+    int resolve(ConstantInfo ci)
+    {
+        if (prototype != null)
+        {
+            int index = prototype.indexOf(ci);
+            if (index != -1)
+            {
+                return index;
+            }
+        }
+        Integer index = indexMap.get(ci);
+        if (index != null)
+        {
+            return index;
+        }
+        return indexMap.computeIfAbsent(ci, appender);
+    }
+
+    @Override
+    int add(ConstantInfo ci)
+    {
+        int index = append(ci);
+        if (prototype == null || prototype.indexOf(ci) == -1)
+        {
+            indexMap.putIfAbsent(ci, index);
+        }
+        return index;
+    }
+    /**
+     * Reserves slots for constant and stores it. Slots are not reserved if
+     * pool would exceed MAX_SIZE.
+     * @param ci
+     * @return Constant pool index (1 based)
+     * @throws IllegalStateException If pool is full.
+     */
+    private int append(ConstantInfo ci)
+    {
+        int slots = slots(ci);
+        int pos;
+        do
+        {
+            pos = size.get();
+            if (pos + slots > MAX_SIZE)
+            {
+                throw new IllegalStateException("constant pool size exceeds "+MAX_SIZE);
+            }
+        } while (!size.compareAndSet(pos, pos + slots));
+        chunk(pos).set(pos & CHUNK_MASK, ci);
+        if (slots == 2)
+        {
+            chunk(pos+1).set((pos+1) & CHUNK_MASK, new Filler());
+        }
+        return pos + 1;
+    }
+
+    @Override
+    public ConstantInfo getConstantInfo(int index)
+    {
+        int pos = index - 1;
+        if (pos < 0 || pos >= size.get())
+        {
+            throw new IndexOutOfBoundsException("index "+index+" size "+size.get());
+        }
+        if (index <= prototypeSize)
+        {
+            return prototype.getConstantInfo(index);
+        }
+        while (true)
+        {
+            AtomicReferenceArray<ConstantInfo> chunk = chunks.get(pos >> CHUNK_BITS);
+            if (chunk != null)
+            {
+                ConstantInfo ci = chunk.get(pos & CHUNK_MASK);
+                if (ci != null)
+                {
+                    return ci;
+                }
+            }
+            // slot is reserved but appending thread has not stored it yet
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public int getTag(int index)
+    {
+        ConstantInfo ci = getConstantInfo(index);
+        if (ci instanceof Filler)
+        {
+            return 0;
+        }
+        return ci.getTag();
+    }
+
+    @Override
+    public String getString(int index)
+    {
+        Utf8 utf8 = (Utf8) getConstantInfo(index);
+        return utf8.getString();
+    }
+
+    @Override
+    public int size()
+    {
+        return size.get();
+    }
+
+    private AtomicReferenceArray<ConstantInfo> chunk(int pos)
+    {
+        int ci = pos >> CHUNK_BITS;
+        AtomicReferenceArray<ConstantInfo> chunk = chunks.get(ci);
+        if (chunk == null)
+        {
+            chunks.compareAndSet(ci, null, new AtomicReferenceArray<ConstantInfo>(CHUNK_SIZE));
+            chunk = chunks.get(ci);
+        }
+        return chunk;
+    }
+}
@@ -19,6 +19,8 @@ package org.vesalainen.bcc;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  *
@@ -37,6 +39,12 @@ public abstract class ConstantInfo implements Writable
     public static final int CONSTANT_Double=6;
     public static final int CONSTANT_NameAndType=12;
     public static final int CONSTANT_Utf8=1;
+    public static final int CONSTANT_MethodHandle=15;
+    public static final int CONSTANT_MethodType=16;
+    public static final int CONSTANT_Dynamic=17;
+    public static final int CONSTANT_InvokeDynamic=18;
+    public static final int CONSTANT_Module=19;
+    public static final int CONSTANT_Package=20;
 
     private int tag;
 
@@ -67,6 +75,18 @@ public abstract class ConstantInfo implements Writable
                 return new NameAndType(in);
             case CONSTANT_Utf8:
                 return new Utf8(in);
+            case CONSTANT_MethodHandle:
+                return new ConstantMethodHandle(in);
+            case CONSTANT_MethodType:
+                return new ConstantIndex(CONSTANT_MethodType, in);
+            case CONSTANT_Dynamic:
+                return new ConstantDynamic(CONSTANT_Dynamic, in);
+            case CONSTANT_InvokeDynamic:
+                return new ConstantDynamic(CONSTANT_InvokeDynamic, in);
+            case CONSTANT_Module:
+                return new ConstantIndex(CONSTANT_Module, in);
+            case CONSTANT_Package:
+                return new ConstantIndex(CONSTANT_Package, in);
             default:
                 throw new ClassFormatError("Unknown constant tag "+tag);
         }
@@ -87,6 +107,12 @@ public abstract class ConstantInfo implements Writable
             case CONSTANT_Double:
             case CONSTANT_NameAndType:
             case CONSTANT_Utf8:
+            case CONSTANT_MethodHandle:
+            case CONSTANT_MethodType:
+            case CONSTANT_Dynamic:
+            case CONSTANT_InvokeDynamic:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
                 this.tag = tag;
                 break;
             default:
@@ -111,6 +137,11 @@ public abstract class ConstantInfo implements Writable
     {
         return tag;
     }
+    /**
+     * Returns the number of bytes this entry takes in class file.
+     * @return 
+     */
+    public abstract int getSize();
 
     public static class Clazz extends ConstantInfo
     {
@@ -139,6 +170,12 @@ public abstract class ConstantInfo implements Writable
             out.writeShort(name_index);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 3;
+        }
+
         public int getName_index()
         {
             return name_index;
@@ -208,6 +245,12 @@ public abstract class ConstantInfo implements Writable
             out.writeShort(name_and_type_index);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 5;
+        }
+
         public int getClass_index()
         {
             return class_index;
@@ -225,7 +268,7 @@ public abstract class ConstantInfo implements Writable
             {
                 return false;
             }
-            if (!(obj instanceof Ref))
+            if (getClass() != obj.getClass())
             {
                 return false;
             }
@@ -335,6 +378,12 @@ public abstract class ConstantInfo implements Writable
             out.writeShort(string_index);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 3;
+        }
+
         public int getString_index()
         {
             return string_index;
@@ -401,6 +450,12 @@ public abstract class ConstantInfo implements Writable
             out.writeInt(constant);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 5;
+        }
+
         public int getConstant()
         {
             return constant;
@@ -467,6 +522,12 @@ public abstract class ConstantInfo implements Writable
             out.writeInt(constant);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 5;
+        }
+
         public float getConstant()
         {
             return Float.intBitsToFloat(constant);
@@ -538,9 +599,15 @@ public abstract class ConstantInfo implements Writable
             out.writeInt(low_bytes);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 9;
+        }
+
         public long getConstant()
         {
-            return ((long) high_bytes << 32) + low_bytes;
+            return ((long) high_bytes << 32) | (low_bytes & 0xffffffffL);
         }
 
         @Override
@@ -616,9 +683,15 @@ public abstract class ConstantInfo implements Writable
             out.writeInt(low_bytes);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 9;
+        }
+
         public double getConstant()
         {
-            return Double.longBitsToDouble(((long) high_bytes << 32) + low_bytes);
+            return Double.longBitsToDouble(((long) high_bytes << 32) | (low_bytes & 0xffffffffL));
         }
 
         @Override
@@ -685,6 +758,12 @@ public abstract class ConstantInfo implements Writable
             out.writeShort(descriptor_index);
         }
 
+        @Override
+        public int getSize()
+        {
+            return 5;
+        }
+
         public int getDescriptor_index()
         {
             return descriptor_index;
@@ -736,12 +815,26 @@ public abstract class ConstantInfo implements Writable
     }
     public static class Utf8 extends ConstantInfo
     {
-    	private CharSequence string;
+    	private java.lang.String string;
+        private byte[] bytes;
+        private int hash;
 
         public Utf8(CharSequence string)
         {
             super(CONSTANT_Utf8);
-            this.string = string;
+            this.string = string.toString();
+            this.bytes = encode(this.string);
+            this.hash = Arrays.hashCode(bytes);
+        }
+        /**
+         * Creates Utf8 from modified UTF-8 bytes. Bytes are not copied.
+         * @param bytes
+         */
+        Utf8(byte[] bytes)
+        {
+            super(CONSTANT_Utf8);
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
         }
 
         public Utf8(DataInput in) throws IOException
@@ -752,25 +845,48 @@ public abstract class ConstantInfo implements Writable
         @Override
         protected void initialize(DataInput in) throws IOException
         {
-            string = in.readUTF();
+            bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            hash = Arrays.hashCode(bytes);
         }
 
         @Override
         public void write(DataOutput out) throws IOException
         {
             super.write(out);
-            out.writeUTF(string.toString());
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public int getSize()
+        {
+            return 3 + bytes.length;
+        }
+        /**
+         * Returns modified UTF-8 bytes. Returned array must not be modified.
+         * @return 
+         */
+        public byte[] getBytes()
+        {
+            return bytes;
         }
 
         public java.lang.String getString()
         {
-            return string.toString();
+            java.lang.String s = string;
+            if (s == null)
+            {
+                s = decode(bytes);
+                string = s;
+            }
+            return s;
         }
 
         @Override
         public java.lang.String toString()
         {
-            return "Utf8{" + "string=" + string + '}';
+            return "Utf8{" + "string=" + getString() + '}';
         }
 
         @Override
@@ -785,7 +901,384 @@ public abstract class ConstantInfo implements Writable
                 return false;
             }
             final Utf8 other = (Utf8) obj;
-            if ((this.string == null) ? (other.string != null) : !this.string.equals(other.string))
+            if (this.hash != other.hash)
+            {
+                return false;
+            }
+            return Arrays.equals(this.bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+        /**
+         * Encodes string in modified UTF-8 as in DataOutput.writeUTF without
+         * the length prefix.
+         * @param str
+         * @return 
+         */
+        static byte[] encode(java.lang.String str)
+        {
+            int len = str.length();
+            int utflen = 0;
+            for (int ii=0;ii<len;ii++)
+            {
+                char cc = str.charAt(ii);
+                if (cc >= 0x0001 && cc <= 0x007f)
+                {
+                    utflen++;
+                }
+                else
+                {
+                    if (cc > 0x07ff)
+                    {
+                        utflen += 3;
+                    }
+                    else
+                    {
+                        utflen += 2;
+                    }
+                }
+            }
+            if (utflen > 0xffff)
+            {
+                throw new IllegalArgumentException("encoded string too long: " + utflen + " bytes");
+            }
+            byte[] bb = new byte[utflen];
+            int pos = 0;
+            for (int ii=0;ii<len;ii++)
+            {
+                char cc = str.charAt(ii);
+                if (cc >= 0x0001 && cc <= 0x007f)
+                {
+                    bb[pos++] = (byte) cc;
+                }
+                else
+                {
+                    if (cc > 0x07ff)
+                    {
+                        bb[pos++] = (byte) (0xe0 | ((cc >> 12) & 0x0f));
+                        bb[pos++] = (byte) (0x80 | ((cc >> 6) & 0x3f));
+                        bb[pos++] = (byte) (0x80 | (cc & 0x3f));
+                    }
+                    else
+                    {
+                        bb[pos++] = (byte) (0xc0 | ((cc >> 6) & 0x1f));
+                        bb[pos++] = (byte) (0x80 | (cc & 0x3f));
+                    }
+                }
+            }
+            return bb;
+        }
+        /**
+         * Decodes modified UTF-8 as in DataInput.readUTF
+         * @param bb
+         * @return 
+         */
+        static java.lang.String decode(byte[] bb)
+        {
+            return decode(bb, 0, bb.length);
+        }
+        static java.lang.String decode(byte[] bb, int offset, int length)
+        {
+            int end = offset + length;
+            int ascii = offset;
+            while (ascii < end && bb[ascii] > 0)
+            {
+                ascii++;
+            }
+            if (ascii == end)
+            {
+                return new java.lang.String(bb, offset, length, StandardCharsets.ISO_8859_1);
+            }
+            char[] ca = new char[length];
+            int count = 0;
+            int pos = offset;
+            while (pos < end)
+            {
+                int c = bb[pos] & 0xff;
+                switch (c >> 4)
+                {
+                    case 0: case 1: case 2: case 3: case 4: case 5: case 6: case 7:
+                        pos++;
+                        ca[count++] = (char) c;
+                        break;
+                    case 12: case 13:
+                        if (pos + 2 > end)
+                        {
+                            throw new ClassFormatError("malformed input: partial character at end");
+                        }
+                        ca[count++] = (char) (((c & 0x1f) << 6) | (bb[pos + 1] & 0x3f));
+                        pos += 2;
+                        break;
+                    case 14:
+                        if (pos + 3 > end)
+                        {
+                            throw new ClassFormatError("malformed input: partial character at end");
+                        }
+                        ca[count++] = (char) (((c & 0x0f) << 12) | ((bb[pos + 1] & 0x3f) << 6) | (bb[pos + 2] & 0x3f));
+                        pos += 3;
+                        break;
+                    default:
+                        throw new ClassFormatError("malformed input around byte " + (pos - offset));
+                }
+            }
+            return new java.lang.String(ca, 0, count);
+        }
+    }
+    /**
+     * CONSTANT_MethodHandle
+     */
+    public static class ConstantMethodHandle extends ConstantInfo
+    {
+        private int reference_kind;
+        private int reference_index;
+
+        public ConstantMethodHandle(int reference_kind, int reference_index)
+        {
+            super(CONSTANT_MethodHandle);
+            this.reference_kind = reference_kind;
+            this.reference_index = reference_index;
+        }
+
+        public ConstantMethodHandle(DataInput in) throws IOException
+        {
+            super(CONSTANT_MethodHandle, in);
+        }
+
+        @Override
+        protected void initialize(DataInput in) throws IOException
+        {
+            reference_kind = in.readUnsignedByte();
+            reference_index = in.readUnsignedShort();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException
+        {
+            super.write(out);
+            out.writeByte(reference_kind);
+            out.writeShort(reference_index);
+        }
+
+        @Override
+        public int getSize()
+        {
+            return 4;
+        }
+
+        public int getReference_kind()
+        {
+            return reference_kind;
+        }
+
+        public int getReference_index()
+        {
+            return reference_index;
+        }
+
+        @Override
+        public java.lang.String toString()
+        {
+            return "MethodHandle{" + "reference_kind=" + reference_kind + ", reference_index=" + reference_index + '}';
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == null)
+            {
+                return false;
+            }
+            if (getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final ConstantMethodHandle other = (ConstantMethodHandle) obj;
+            if (this.reference_kind != other.reference_kind)
+            {
+                return false;
+            }
+            if (this.reference_index != other.reference_index)
+            {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 5;
+            hash = 29 * hash + this.reference_kind;
+            hash = 29 * hash + this.reference_index;
+            return hash;
+        }
+
+    }
+    /**
+     * CONSTANT_MethodType, CONSTANT_Module and CONSTANT_Package which all
+     * consist of single constant pool index. Index is descriptor_index for
+     * MethodType and name_index for others.
+     */
+    public static class ConstantIndex extends ConstantInfo
+    {
+        private int index;
+
+        public ConstantIndex(int tag, int index)
+        {
+            super(tag);
+            this.index = index;
+        }
+
+        public ConstantIndex(int tag, DataInput in) throws IOException
+        {
+            super(tag, in);
+        }
+
+        @Override
+        protected void initialize(DataInput in) throws IOException
+        {
+            index = in.readUnsignedShort();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException
+        {
+            super.write(out);
+            out.writeShort(index);
+        }
+
+        @Override
+        public int getSize()
+        {
+            return 3;
+        }
+
+        public int getIndex()
+        {
+            return index;
+        }
+
+        @Override
+        public java.lang.String toString()
+        {
+            return "ConstantIndex{" + "tag=" + getTag() + ", index=" + index + '}';
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == null)
+            {
+                return false;
+            }
+            if (getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final ConstantIndex other = (ConstantIndex) obj;
+            if (this.getTag() != other.getTag())
+            {
+                return false;
+            }
+            if (this.index != other.index)
+            {
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 3;
+            hash = 59 * hash + getTag();
+            hash = 59 * hash + this.index;
+            return hash;
+        }
+
+    }
+    /**
+     * CONSTANT_Dynamic and CONSTANT_InvokeDynamic
+     */
+    public static class ConstantDynamic extends ConstantInfo
+    {
+        private int bootstrap_method_attr_index;
+        private int name_and_type_index;
+
+        public ConstantDynamic(int tag, int bootstrap_method_attr_index, int name_and_type_index)
+        {
+            super(tag);
+            this.bootstrap_method_attr_index = bootstrap_method_attr_index;
+            this.name_and_type_index = name_and_type_index;
+        }
+
+        public ConstantDynamic(int tag, DataInput in) throws IOException
+        {
+            super(tag, in);
+        }
+
+        @Override
+        protected void initialize(DataInput in) throws IOException
+        {
+            bootstrap_method_attr_index = in.readUnsignedShort();
+            name_and_type_index = in.readUnsignedShort();
+        }
+
+        @Override
+        public void write(DataOutput out) throws IOException
+        {
+            super.write(out);
+            out.writeShort(bootstrap_method_attr_index);
+            out.writeShort(name_and_type_index);
+        }
+
+        @Override
+        public int getSize()
+        {
+            return 5;
+        }
+
+        public int getBootstrap_method_attr_index()
+        {
+            return bootstrap_method_attr_index;
+        }
+
+        public int getName_and_type_index()
+        {
+            return name_and_type_index;
+        }
+
+        @Override
+        public java.lang.String toString()
+        {
+            return "Dynamic{" + "tag=" + getTag() + ", bootstrap_method_attr_index=" + bootstrap_method_attr_index + ", name_and_type_index=" + name_and_type_index + '}';
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == null)
+            {
+                return false;
+            }
+            if (getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final ConstantDynamic other = (ConstantDynamic) obj;
+            if (this.getTag() != other.getTag())
+            {
+                return false;
+            }
+            if (this.bootstrap_method_attr_index != other.bootstrap_method_attr_index)
+            {
+                return false;
+            }
+            if (this.name_and_type_index != other.name_and_type_index)
             {
                 return false;
             }
@@ -796,7 +1289,9 @@ public abstract class ConstantInfo implements Writable
         public int hashCode()
         {
             int hash = 7;
-            hash = 41 * hash + (this.string != null ? this.string.hashCode() : 0);
+            hash = 53 * hash + getTag();
+            hash = 53 * hash + this.bootstrap_method_attr_index;
+            hash = 53 * hash + this.name_and_type_index;
             return hash;
         }
 
@@ -814,6 +1309,12 @@ public abstract class ConstantInfo implements Writable
         {
         }
 
+        @Override
+        public int getSize()
+        {
+            return 0;
+        }
+
         @Override
         public void write(DataOutput out) throws IOException
         {
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Constant pool storage. Indexes are constant pool indexes starting from 1.
+ * Long and double constants take two slots.
+ *
+ * <p>Entries are looked up and added using ConstantInfo keys which are
+ * compared structurally. Implementations may store entries in some other form
+ * and create ConstantInfo objects on demand.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ConcurrentConstantPool
+ * @see CompactConstantPool
+ */
+public abstract class ConstantPool implements Writable
+{
+    /**
+     * constant_pool_count is u2 and one greater than the number of slots.
+     */
+    public static final int MAX_SIZE = 0xfffe;
+    /**
+     * Returns the number of slots in pool.
+     * @return
+     */
+    public abstract int size();
+    /**
+     * Returns constant at index.
+     * @param index
+     * @return
+     */
+    public abstract ConstantInfo getConstantInfo(int index);
+    /**
+     * Returns the tag of constant at index. Unusable slot after long or double
+     * returns 0.
+     * @param index
+     * @return
+     */
+    public abstract int getTag(int index);
+    /**
+     * Returns the string of Utf8 constant at index.
+     * @param index
+     * @return
+     */
+    public abstract String getString(int index);
+    /**
+     * Returns index of structurally equal constant or -1.
+     * @param ci
+     * @return
+     */
+    abstract int indexOf(ConstantInfo ci);
+    /**
+     * Returns index of structurally equal constant. If entry doesn't exist it
+     * is added.
+     * @param ci
+     * @return
+     */
+    abstract int resolve(ConstantInfo ci);
+    /**
+     * Appends constant even if equal constant exists. Used when reading class
+     * files which may contain duplicates. indexOf returns the first one.
+     * @param ci
+     * @return
+     */
+    abstract int add(ConstantInfo ci);
+    /**
+     * Returns the number of bytes pool takes in class file including
+     * constant_pool_count.
+     * @return
+     */
+    public int getByteSize()
+    {
+        int size = 2;
+        int count = size();
+        for (int index=1;index<=count;index++)
+        {
+            size += getConstantInfo(index).getSize();
+        }
+        return size;
+    }
+    /**
+     * Writes constant_pool_count and constant_pool
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void write(DataOutput out) throws IOException
+    {
+        int count = size();
+        out.writeShort(count+1);
+        for (int index=1;index<=count;index++)
+        {
+            getConstantInfo(index).write(out);
+        }
+    }
+
+    static int slots(ConstantInfo ci)
+    {
+        switch (ci.getTag())
+        {
+            case ConstantInfo.CONSTANT_Long:
+            case ConstantInfo.CONSTANT_Double:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+}
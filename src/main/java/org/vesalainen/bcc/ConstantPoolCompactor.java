@@ -0,0 +1,954 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.ConstantString;
+import org.vesalainen.bcc.ConstantInfo.Fieldref;
+import org.vesalainen.bcc.ConstantInfo.InterfaceMethodref;
+import org.vesalainen.bcc.ConstantInfo.Methodref;
+import org.vesalainen.bcc.ConstantInfo.NameAndType;
+import org.vesalainen.bcc.ConstantInfo.Ref;
+import static org.vesalainen.bcc.ConstantInfo.*;
+
+/**
+ * Drops constant pool entries which are not referenced from class body.
+ *
+ * <p>Class body is the part of class file following the constant pool. It is
+ * scanned for constant pool indexes including code bytes and known
+ * attributes. Used entries keep their relative order, so indexes only
+ * decrease and ldc operands still fit in one byte. Body is then copied with
+ * renumbered indexes.
+ *
+ * <p>In ldc layout constants loaded with ldc or ldc_w are placed first in
+ * the order of use count. Each ldc is then coded in the short form if the
+ * new index allows it and code is relocated. If relocation overflows a
+ * branch offset the plain layout is used.
+ *
+ * <p>Indexes can be redirected to other entries before renumbering. This is
+ * used to move method calls to companion classes.
+ *
+ * <p>If body contains an attribute or instruction which is not understood,
+ * pool and body are written unchanged.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+class ConstantPoolCompactor implements OpCode
+{
+    private final ConstantPool pool;
+    private final byte[] body;
+    private final boolean[] used;
+    private final int[] ldcCount;
+    private final int[] redirect;
+    private int pos;
+    private DataOutputStream out;
+    private int[] map;
+    private int[] order;
+    private int newSize;
+    private boolean relocate;
+    private int[] pcMap;
+    /**
+     *
+     * @param pool
+     * @param body Class file bytes after constant pool
+     * @param redirect Index redirections or null
+     */
+    ConstantPoolCompactor(ConstantPool pool, byte[] body, int[] redirect)
+    {
+        this.pool = pool;
+        this.body = body;
+        this.redirect = redirect;
+        this.used = new boolean[pool.size()+1];
+        this.ldcCount = new int[pool.size()+1];
+    }
+    /**
+     * Writes constant_pool_count, constant_pool and class body.
+     * @param out
+     * @param ldcLayout If true, ldc constants are placed first.
+     * @throws IOException
+     */
+    void write(DataOutput out, boolean ldcLayout) throws IOException
+    {
+        pos = 0;
+        if (!body())
+        {
+            if (redirect != null)
+            {
+                throw new IllegalStateException("cannot redirect indexes in unknown class body");
+            }
+            pool.write(out);
+            out.write(body);
+            return;
+        }
+        byte[] newBody = null;
+        if (ldcLayout)
+        {
+            layout(true);
+            newBody = copy();
+        }
+        if (newBody == null)
+        {
+            layout(false);
+            if (newSize == pool.size() && redirect == null)
+            {
+                pool.write(out);
+                out.write(body);
+                return;
+            }
+            newBody = copy();
+        }
+        out.writeShort(newSize+1);
+        for (int index : order)
+        {
+            renumber(pool.getConstantInfo(index)).write(out);
+        }
+        out.write(newBody);
+    }
+    /**
+     * Creates index map of used entries.
+     * @param ldcFirst
+     */
+    private void layout(boolean ldcFirst)
+    {
+        List<Integer> list = new ArrayList<>();
+        for (int index=1;index<used.length;index++)
+        {
+            if (used[index])
+            {
+                list.add(index);
+            }
+        }
+        if (ldcFirst)
+        {
+            Collections.sort(list, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer o1, Integer o2)
+                {
+                    int c = ldcCount[o2] - ldcCount[o1];
+                    if (c != 0)
+                    {
+                        return c;
+                    }
+                    return o1 - o2;
+                }
+            });
+        }
+        map = new int[used.length];
+        order = new int[list.size()];
+        int next = 1;
+        int ii = 0;
+        for (int index : list)
+        {
+            order[ii++] = index;
+            map[index] = next;
+            next += ConstantPool.slots(pool.getConstantInfo(index));
+        }
+        newSize = next-1;
+        relocate = ldcFirst;
+    }
+    /**
+     * Copies body with renumbered indexes.
+     * @return New body or null if code relocation failed.
+     * @throws IOException
+     */
+    private byte[] copy() throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(body.length);
+        out = new DataOutputStream(buf);
+        pos = 0;
+        try
+        {
+            body();
+        }
+        catch (BranchException ex)
+        {
+            return null;
+        }
+        finally
+        {
+            out = null;
+        }
+        return buf.toByteArray();
+    }
+
+    private ConstantInfo renumber(ConstantInfo ci)
+    {
+        switch (ci.getTag())
+        {
+            case CONSTANT_Class:
+                return new Clazz(map[((Clazz)ci).getName_index()]);
+            case CONSTANT_String:
+                return new ConstantString(map[((ConstantString)ci).getString_index()]);
+            case CONSTANT_Fieldref:
+                Ref fr = (Ref) ci;
+                return new Fieldref(map[fr.getClass_index()], map[fr.getName_and_type_index()]);
+            case CONSTANT_Methodref:
+                Ref mr = (Ref) ci;
+                return new Methodref(map[mr.getClass_index()], map[mr.getName_and_type_index()]);
+            case CONSTANT_InterfaceMethodref:
+                Ref imr = (Ref) ci;
+                return new InterfaceMethodref(map[imr.getClass_index()], map[imr.getName_and_type_index()]);
+            case CONSTANT_NameAndType:
+                NameAndType nat = (NameAndType) ci;
+                return new NameAndType(map[nat.getName_index()], map[nat.getDescriptor_index()]);
+            default:
+                return ci;
+        }
+    }
+    /**
+     * Scans body marking used entries or, if out is set, copies it.
+     * @return false if body contains something not understood.
+     * @throws IOException
+     */
+    private boolean body() throws IOException
+    {
+        for (int index=1;index<=pool.size();index++)
+        {
+            if (pool.getTag(index) >= CONSTANT_MethodHandle)
+            {
+                return false;   // references from bootstrap methods not tracked
+            }
+        }
+        copy(2);    // access_flags
+        ref();      // this_class
+        ref();      // super_class
+        int interfaces_count = u2();
+        for (int ii=0;ii<interfaces_count;ii++)
+        {
+            ref();
+        }
+        for (int jj=0;jj<2;jj++)    // fields and methods
+        {
+            int count = u2();
+            for (int ii=0;ii<count;ii++)
+            {
+                copy(2);    // access_flags
+                ref();      // name_index
+                ref();      // descriptor_index
+                if (!attributes())
+                {
+                    return false;
+                }
+            }
+        }
+        return attributes() && pos == body.length;
+    }
+
+    private boolean attributes() throws IOException
+    {
+        int attributes_count = u2();
+        for (int ii=0;ii<attributes_count;ii++)
+        {
+            if (!attribute())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean attribute() throws IOException
+    {
+        String name = pool.getString(ref());
+        int attribute_length = s4(pos);
+        pos += 4;
+        int end = pos + attribute_length;
+        DataOutputStream parent = out;
+        ByteArrayOutputStream buf = null;
+        if (parent != null)
+        {
+            buf = new ByteArrayOutputStream(attribute_length);
+            out = new DataOutputStream(buf);
+        }
+        switch (name)
+        {
+            case "Code":
+                copy(4);   // max_stack, max_locals
+                int code_length = s4(pos);
+                pos += 4;
+                if (!code(pos, code_length))
+                {
+                    return false;
+                }
+                pos += code_length;
+                int exception_table_length = u2();
+                for (int ii=0;ii<exception_table_length;ii++)
+                {
+                    pc();       // start_pc
+                    pc();       // end_pc
+                    pc();       // handler_pc
+                    refOrZero();
+                }
+                if (!attributes())
+                {
+                    return false;
+                }
+                pcMap = null;
+                break;
+            case "ConstantValue":
+            case "Signature":
+            case "SourceFile":
+                ref();
+                break;
+            case "Exceptions":
+                int number_of_exceptions = u2();
+                for (int ii=0;ii<number_of_exceptions;ii++)
+                {
+                    ref();
+                }
+                break;
+            case "LineNumberTable":
+                int line_number_table_length = u2();
+                for (int ii=0;ii<line_number_table_length;ii++)
+                {
+                    pc();       // start_pc
+                    copy(2);    // line_number
+                }
+                break;
+            case "LocalVariableTable":
+            case "LocalVariableTypeTable":
+                int length = u2();
+                for (int ii=0;ii<length;ii++)
+                {
+                    pcRange();  // start_pc, length
+                    ref();      // name_index
+                    ref();      // descriptor_index or signature_index
+                    copy(2);    // index
+                }
+                break;
+            case "InnerClasses":
+                int number_of_classes = u2();
+                for (int ii=0;ii<number_of_classes;ii++)
+                {
+                    refOrZero();
+                    refOrZero();
+                    refOrZero();
+                    copy(2);    // inner_class_access_flags
+                }
+                break;
+            case "EnclosingMethod":
+                ref();
+                refOrZero();
+                break;
+            case "RuntimeVisibleAnnotations":
+            case "RuntimeInvisibleAnnotations":
+                annotations();
+                break;
+            case "RuntimeVisibleParameterAnnotations":
+            case "RuntimeInvisibleParameterAnnotations":
+                int num_parameters = u1();
+                for (int ii=0;ii<num_parameters;ii++)
+                {
+                    annotations();
+                }
+                break;
+            case "AnnotationDefault":
+                elementValue();
+                break;
+            case "StackMapTable":
+                if (pcMap != null)
+                {
+                    throw new BranchException("StackMapTable cannot be relocated");
+                }
+                int number_of_entries = u2();
+                for (int ii=0;ii<number_of_entries;ii++)
+                {
+                    stackMapFrame();
+                }
+                break;
+            case "Synthetic":
+            case "Deprecated":
+                break;
+            default:
+                return false;
+        }
+        if (pos != end)
+        {
+            throw new ClassFormatError(name+" attribute length mismatch");
+        }
+        if (parent != null)
+        {
+            out = parent;
+            out.writeInt(buf.size());
+            buf.writeTo(out);
+        }
+        return true;
+    }
+
+    private void stackMapFrame() throws IOException
+    {
+        int frame_type = u1();
+        if (frame_type < 64)
+        {
+            return; // same_frame
+        }
+        if (frame_type < 128)
+        {
+            verificationTypeInfo(); // same_locals_1_stack_item_frame
+            return;
+        }
+        if (frame_type < 247)
+        {
+            throw new ClassFormatError("reserved frame_type "+frame_type);
+        }
+        copy(2);    // offset_delta
+        switch (frame_type)
+        {
+            case 247:   // same_locals_1_stack_item_frame_extended
+                verificationTypeInfo();
+                break;
+            case 252:   // append_frame
+            case 253:
+            case 254:
+                for (int ii=251;ii<frame_type;ii++)
+                {
+                    verificationTypeInfo();
+                }
+                break;
+            case 255:   // full_frame
+                int number_of_locals = u2();
+                for (int ii=0;ii<number_of_locals;ii++)
+                {
+                    verificationTypeInfo();
+                }
+                int number_of_stack_items = u2();
+                for (int ii=0;ii<number_of_stack_items;ii++)
+                {
+                    verificationTypeInfo();
+                }
+                break;
+            default:    // chop_frame and same_frame_extended
+                break;
+        }
+    }
+
+    private void verificationTypeInfo() throws IOException
+    {
+        int tag = u1();
+        switch (tag)
+        {
+            case 7: // Object_variable_info
+                ref();
+                break;
+            case 8: // Uninitialized_variable_info
+                copy(2);
+                break;
+            default:
+                if (tag > 8)
+                {
+                    throw new ClassFormatError("unknown verification_type_info tag "+tag);
+                }
+                break;
+        }
+    }
+
+    private void annotations() throws IOException
+    {
+        int num_annotations = u2();
+        for (int ii=0;ii<num_annotations;ii++)
+        {
+            annotation();
+        }
+    }
+
+    private void annotation() throws IOException
+    {
+        ref();  // type_index
+        int num_element_value_pairs = u2();
+        for (int ii=0;ii<num_element_value_pairs;ii++)
+        {
+            ref();  // element_name_index
+            elementValue();
+        }
+    }
+
+    private void elementValue() throws IOException
+    {
+        int tag = u1();
+        switch (tag)
+        {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                ref();
+                break;
+            case 'e':
+                ref();
+                ref();
+                break;
+            case '@':
+                annotation();
+                break;
+            case '[':
+                int num_values = u2();
+                for (int ii=0;ii<num_values;ii++)
+                {
+                    elementValue();
+                }
+                break;
+            default:
+                throw new ClassFormatError("unknown element_value tag "+tag);
+        }
+    }
+    /**
+     * Scans or copies code.
+     * @param start
+     * @param code_length
+     * @return
+     * @throws IOException
+     */
+    private boolean code(int start, int code_length) throws IOException
+    {
+        if (out == null)
+        {
+            return scanCode(start, code_length);
+        }
+        else
+        {
+            copyCode(start, code_length);
+            return true;
+        }
+    }
+
+    private boolean scanCode(int start, int code_length)
+    {
+        int pc = 0;
+        while (pc < code_length)
+        {
+            int p = start + pc;
+            int op = body[p] & 0xff;
+            int length = length(start, pc);
+            if (length < 0)
+            {
+                return false;
+            }
+            if (isRef(op))
+            {
+                int index = redirect(op == LDC ? body[p+1] & 0xff : s2(p+1) & 0xffff);
+                mark(index);
+                if (op == LDC || op == LDC_W)
+                {
+                    ldcCount[index]++;
+                }
+            }
+            pc += length;
+        }
+        return pc == code_length;
+    }
+
+    private void copyCode(int start, int code_length) throws IOException
+    {
+        pcMap = null;
+        if (relocate)
+        {
+            pcMap = new int[code_length+1];
+            int pc = 0;
+            int npc = 0;
+            while (pc < code_length)
+            {
+                pcMap[pc] = npc;
+                int length = length(start, pc);
+                npc += newLength(start, pc, npc, length);
+                pc += length;
+            }
+            pcMap[code_length] = npc;
+            if (npc > 0xffff)
+            {
+                throw new BranchException("code length "+npc+" after relocation");
+            }
+            out.writeInt(npc);
+        }
+        else
+        {
+            out.writeInt(code_length);
+        }
+        int pc = 0;
+        while (pc < code_length)
+        {
+            int p = start + pc;
+            int op = body[p] & 0xff;
+            int length = length(start, pc);
+            int npc = pcMap != null ? pcMap[pc] : pc;
+            switch (op)
+            {
+                case LDC:
+                case LDC_W:
+                    int index = map[redirect(op == LDC ? body[p+1] & 0xff : s2(p+1) & 0xffff)];
+                    if (relocate ? index < 256 : op == LDC)
+                    {
+                        out.writeByte(LDC);
+                        out.writeByte(index);
+                    }
+                    else
+                    {
+                        out.writeByte(LDC_W);
+                        out.writeShort(index);
+                    }
+                    break;
+                case GOTO_W:
+                case JSR_W:
+                    out.writeByte(op);
+                    out.writeInt(target(pc, s4(p+1)) - npc);
+                    break;
+                case TABLESWITCH:
+                case LOOKUPSWITCH:
+                    out.writeByte(op);
+                    for (int ii=0;ii<(3 - (npc & 3));ii++)
+                    {
+                        out.writeByte(0);
+                    }
+                    int base = p + 1 + (3 - (pc & 3));
+                    out.writeInt(target(pc, s4(base)) - npc);   // default
+                    if (op == TABLESWITCH)
+                    {
+                        int low = s4(base+4);
+                        int high = s4(base+8);
+                        out.writeInt(low);
+                        out.writeInt(high);
+                        for (int ii=0;ii<high-low+1;ii++)
+                        {
+                            out.writeInt(target(pc, s4(base+12+4*ii)) - npc);
+                        }
+                    }
+                    else
+                    {
+                        int npairs = s4(base+4);
+                        out.writeInt(npairs);
+                        for (int ii=0;ii<npairs;ii++)
+                        {
+                            out.writeInt(s4(base+8+8*ii));
+                            out.writeInt(target(pc, s4(base+12+8*ii)) - npc);
+                        }
+                    }
+                    break;
+                default:
+                    if (isBranch(op))
+                    {
+                        int offset = target(pc, s2(p+1)) - npc;
+                        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        {
+                            throw new BranchException("branch offset "+offset+" after relocation");
+                        }
+                        out.writeByte(op);
+                        out.writeShort(offset);
+                    }
+                    else
+                    {
+                        if (isRef(op))
+                        {
+                            out.writeByte(op);
+                            out.writeShort(map[redirect(s2(p+1) & 0xffff)]);
+                            out.write(body, p+3, length-3);
+                        }
+                        else
+                        {
+                            out.write(body, p, length);
+                        }
+                    }
+                    break;
+            }
+            pc += length;
+        }
+    }
+
+    private int target(int pc, int offset)
+    {
+        if (pcMap == null)
+        {
+            return pc + offset;
+        }
+        return pcMap[pc + offset];
+    }
+
+    private int newLength(int start, int pc, int npc, int length)
+    {
+        int op = body[start+pc] & 0xff;
+        switch (op)
+        {
+            case LDC:
+            case LDC_W:
+                int index = map[redirect(op == LDC ? body[start+pc+1] & 0xff : s2(start+pc+1) & 0xffff)];
+                return index < 256 ? 2 : 3;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                return length - (3 - (pc & 3)) + (3 - (npc & 3));
+            default:
+                return length;
+        }
+    }
+    /**
+     * Returns instruction length
+     * @param start Code start in body
+     * @param pc
+     * @return Length or -1 if instruction is not known.
+     */
+    private int length(int start, int pc)
+    {
+        int p = start + pc;
+        int op = body[p] & 0xff;
+        switch (op)
+        {
+            case BIPUSH:
+            case LDC:
+            case RET:
+            case NEWARRAY:
+                return 2;
+            case SIPUSH:
+            case IINC:
+            case LDC_W:
+            case LDC2_W:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case INSTANCEOF:
+                return 3;
+            case MULTIANEWARRAY:
+                return 4;
+            case INVOKEINTERFACE:
+                return 5;
+            case INVOKEDYNAMIC:
+                return -1;   // needs BootstrapMethods which is not tracked
+            case WIDE:
+                return (body[p+1] & 0xff) == IINC ? 6 : 4;
+            case TABLESWITCH:
+            {
+                int base = p + 1 + (3 - (pc & 3));
+                int low = s4(base+4);
+                int high = s4(base+8);
+                return base - p + 12 + 4*(high-low+1);
+            }
+            case LOOKUPSWITCH:
+            {
+                int base = p + 1 + (3 - (pc & 3));
+                int npairs = s4(base+4);
+                return base - p + 8 + 8*npairs;
+            }
+            default:
+                if (isBranch(op))
+                {
+                    return op == GOTO_W || op == JSR_W ? 5 : 3;
+                }
+                if (
+                        (op >= ILOAD && op <= ALOAD) ||
+                        (op >= ISTORE && op <= ASTORE)
+                        )
+                {
+                    return 2;
+                }
+                if (op > JSR_W)
+                {
+                    return -1;   // unknown
+                }
+                return 1;
+        }
+    }
+
+    private static boolean isBranch(int op)
+    {
+        return (op >= IFEQ && op <= JSR) || op == IFNULL || op == IFNONNULL || op == GOTO_W || op == JSR_W;
+    }
+
+    private static boolean isRef(int op)
+    {
+        switch (op)
+        {
+            case LDC:
+            case LDC_W:
+            case LDC2_W:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case INVOKEINTERFACE:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case INSTANCEOF:
+            case MULTIANEWARRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void copy(int length) throws IOException
+    {
+        if (out != null)
+        {
+            out.write(body, pos, length);
+        }
+        pos += length;
+    }
+
+    private int u1() throws IOException
+    {
+        int v = body[pos] & 0xff;
+        copy(1);
+        return v;
+    }
+
+    private int u2() throws IOException
+    {
+        int v = s2(pos) & 0xffff;
+        copy(2);
+        return v;
+    }
+
+    private int s2(int p)
+    {
+        return (short) (((body[p] & 0xff)<<8) | (body[p+1] & 0xff));
+    }
+
+    private int s4(int p)
+    {
+        return ((body[p] & 0xff)<<24) | ((body[p+1] & 0xff)<<16) | ((body[p+2] & 0xff)<<8) | (body[p+3] & 0xff);
+    }
+    /**
+     * Marks or copies renumbered index.
+     * @return Original index
+     * @throws IOException
+     */
+    private int ref() throws IOException
+    {
+        int index = redirect(s2(pos) & 0xffff);
+        pos += 2;
+        if (out == null)
+        {
+            mark(index);
+        }
+        else
+        {
+            out.writeShort(map[index]);
+        }
+        return index;
+    }
+
+    private void refOrZero() throws IOException
+    {
+        if (body[pos] != 0 || body[pos+1] != 0)
+        {
+            ref();
+        }
+        else
+        {
+            copy(2);
+        }
+    }
+    /**
+     * Copies relocated code address.
+     * @throws IOException
+     */
+    private void pc() throws IOException
+    {
+        if (out != null && pcMap != null)
+        {
+            out.writeShort(pcMap[s2(pos) & 0xffff]);
+            pos += 2;
+        }
+        else
+        {
+            copy(2);
+        }
+    }
+    /**
+     * Copies relocated start_pc and length.
+     * @throws IOException
+     */
+    private void pcRange() throws IOException
+    {
+        if (out != null && pcMap != null)
+        {
+            int start_pc = s2(pos) & 0xffff;
+            int length = s2(pos+2) & 0xffff;
+            out.writeShort(pcMap[start_pc]);
+            out.writeShort(pcMap[start_pc+length] - pcMap[start_pc]);
+            pos += 4;
+        }
+        else
+        {
+            copy(4);
+        }
+    }
+
+    private int redirect(int index)
+    {
+        if (redirect != null && index < redirect.length)
+        {
+            return redirect[index];
+        }
+        return index;
+    }
+
+    private void mark(int index)
+    {
+        if (index < 1 || index >= used.length || pool.getTag(index) == 0)
+        {
+            throw new ClassFormatError("illegal constant pool index "+index);
+        }
+        if (used[index])
+        {
+            return;
+        }
+        used[index] = true;
+        switch (pool.getTag(index))
+        {
+            case CONSTANT_Class:
+                mark(((Clazz)pool.getConstantInfo(index)).getName_index());
+                break;
+            case CONSTANT_String:
+                mark(((ConstantString)pool.getConstantInfo(index)).getString_index());
+                break;
+            case CONSTANT_Fieldref:
+            case CONSTANT_Methodref:
+            case CONSTANT_InterfaceMethodref:
+                Ref ref = (Ref) pool.getConstantInfo(index);
+                mark(ref.getClass_index());
+                mark(ref.getName_and_type_index());
+                break;
+            case CONSTANT_NameAndType:
+                NameAndType nat = (NameAndType) pool.getConstantInfo(index);
+                mark(nat.getName_index());
+                mark(nat.getDescriptor_index());
+                break;
+        }
+    }
+}
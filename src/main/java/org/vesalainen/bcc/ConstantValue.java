@@ -28,31 +28,31 @@ public class ConstantValue extends AttributeInfo
     public ConstantValue(SubClass cf, long constant)
     {
         super(cf, "ConstantValue");
-        this.constantvalue_index = cf.getConstantIndex(constant);
+        this.constantvalue_index = cf.resolveConstantIndex(constant);
     }
     
     public ConstantValue(SubClass cf, float constant)
     {
         super(cf, "ConstantValue");
-        this.constantvalue_index = cf.getConstantIndex(constant);
+        this.constantvalue_index = cf.resolveConstantIndex(constant);
     }
     
     public ConstantValue(SubClass cf, double constant)
     {
         super(cf, "ConstantValue");
-        this.constantvalue_index = cf.getConstantIndex(constant);
+        this.constantvalue_index = cf.resolveConstantIndex(constant);
     }
     
     public ConstantValue(SubClass cf, int constant)
     {
         super(cf, "ConstantValue");
-        this.constantvalue_index = cf.getConstantIndex(constant);
+        this.constantvalue_index = cf.resolveConstantIndex(constant);
     }
     
     public ConstantValue(SubClass cf, String constant)
     {
         super(cf, "ConstantValue");
-        this.constantvalue_index = cf.getConstantIndex(constant);
+        this.constantvalue_index = cf.resolveConstantIndex(constant);
     }
     
     @Override
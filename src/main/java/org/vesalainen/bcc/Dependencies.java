@@ -16,28 +16,55 @@
  */
 package org.vesalainen.bcc;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.vesalainen.bcc.DependencyCache.Node;
 
 /**
+ * Finds dependencies of classes from class path. Jar files of class path
+ * stay open until close is called.
  *
+ * <p>With cache, class references are stored on disk and classes are parsed
+ * only if not cached or if their class path element has changed. Cache is
+ * written at close.
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
-public class Dependencies
+public class Dependencies implements Closeable
 {
     private ClassFinder finder;
     private String include;
+    private File[] classPath;
+    private DependencyCache cache;
 
     public Dependencies(String include, File... classPath)
     {
         this.include = include.replace('.', '/');
+        this.classPath = classPath;
         finder = new ClassFinder(classPath);
     }
+    /**
+     * Sets file for dependency cache. Cache is loaded from file if it exists.
+     * Invalid or unreadable cache file is ignored.
+     * @param file
+     * @throws IOException 
+     */
+    public void setCache(File file) throws IOException
+    {
+        cache = new DependencyCache(file, classPath);
+    }
 
     public SortedMap<String,Boolean> dependenciesFor(Class<?>... classes) throws IOException
     {
@@ -65,9 +92,9 @@ public class Dependencies
         while (!deque.isEmpty())
         {
             String classname = deque.removeFirst();
-            ClassFile cf = finder.find(classname);
-            map.put(classname, cf.isSynthetic());
-            for (String rn : cf.getReferencedClassnames())
+            Node node = node(classname);
+            map.put(classname, node.synthetic);
+            for (String rn : node.references)
             {
                 if (rn.startsWith(include))
                 {
@@ -80,16 +107,154 @@ public class Dependencies
         }
         return map;
     }
+
+    /**
+     * Same as dependenciesFor but classes are read and parsed in common
+     * ForkJoinPool.
+     * @param classNames
+     * @return
+     * @throws IOException 
+     * @see java.util.concurrent.ForkJoinPool#commonPool() 
+     */
+    public SortedMap<String,Boolean> parallelDependenciesFor(String... classNames) throws IOException
+    {
+        return parallelDependenciesFor(ForkJoinPool.commonPool(), classNames);
+    }
+    /**
+     * Same as dependenciesFor but classes are read and parsed in given pool.
+     * Result is the same as in sequential version.
+     * @param pool
+     * @param classNames
+     * @return
+     * @throws IOException 
+     */
+    public SortedMap<String,Boolean> parallelDependenciesFor(ForkJoinPool pool, String... classNames) throws IOException
+    {
+        Map<String,Boolean> map = new ConcurrentHashMap<>();
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        List<Visit> roots = new ArrayList<>();
+        for (String cn : classNames)
+        {
+            cn = cn.trim();
+            if (!cn.isEmpty())
+            {
+                cn = cn.replace('.', '/');
+                if (visited.add(cn))
+                {
+                    roots.add(new Visit(cn, map, visited));
+                }
+            }
+        }
+        try
+        {
+            pool.invoke(new RecursiveAction()
+            {
+                @Override
+                protected void compute()
+                {
+                    invokeAll(roots);
+                }
+            });
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+        return new TreeMap<>(map);
+    }
+
+    private class Visit extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final String classname;
+        private final Map<String,Boolean> map;
+        private final Set<String> visited;
+
+        public Visit(String classname, Map<String, Boolean> map, Set<String> visited)
+        {
+            this.classname = classname;
+            this.map = map;
+            this.visited = visited;
+        }
+
+        @Override
+        protected void compute()
+        {
+            Node node;
+            try
+            {
+                node = node(classname);
+            }
+            catch (IOException ex)
+            {
+                throw new UncheckedIOException(ex);
+            }
+            map.put(classname, node.synthetic);
+            List<Visit> tasks = new ArrayList<>();
+            for (String rn : node.references)
+            {
+                if (rn.startsWith(include) && visited.add(rn))
+                {
+                    tasks.add(new Visit(rn, map, visited));
+                }
+            }
+            invokeAll(tasks);
+        }
+
+    }
+
+    private Node node(String classname) throws IOException
+    {
+        File element = null;
+        if (cache != null)
+        {
+            element = finder.locate(classname);
+            if (element != null)
+            {
+                Node node = cache.get(element, classname);
+                if (node != null)
+                {
+                    return node;
+                }
+            }
+        }
+        ClassHeader header = finder.findHeader(classname);
+        Set<String> references = header.getReferencedClassnames();
+        Node node = new Node(header.isSynthetic(), references.toArray(new String[references.size()]));
+        if (element != null)
+        {
+            cache.put(element, classname, node);
+        }
+        return node;
+    }
+    /**
+     * Writes cache if set and closes class path.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (cache != null)
+            {
+                cache.save();
+            }
+        }
+        finally
+        {
+            finder.close();
+        }
+    }
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args)
     {
-        try
+        File p2 = new File("C:\\Users\\tkv\\Documents\\NetBeansProjects\\LPG\\dist\\LPG.jar");
+        File p3 = new File("C:\\Users\\tkv\\Documents\\NetBeansProjects\\ByteCodeCompiler\\dist\\ByteCodeCompiler.jar");
+        try (Dependencies d = new Dependencies("org.vesalainen", p2, p3))
         {
-            File p2 = new File("C:\\Users\\tkv\\Documents\\NetBeansProjects\\LPG\\dist\\LPG.jar");
-            File p3 = new File("C:\\Users\\tkv\\Documents\\NetBeansProjects\\ByteCodeCompiler\\dist\\ByteCodeCompiler.jar");
-            Dependencies d = new Dependencies("org.vesalainen", p2, p3);
             Map<String,Boolean> s = d.dependenciesFor("org.vesalainen.regex.Regex");
             System.err.println(s);
         }
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of class references per class path element. Element is
+ * stamped with size, last modified time and content hash. Entries of an
+ * element whose stamp has changed are dropped when cache is loaded.
+ *
+ * <p>For directories size and last modified are the total size and latest
+ * modification of class files and hash is computed from class file names,
+ * sizes and modification times. For jars hash is CRC32 of the file. Hash is
+ * computed only if size or last modified time has changed.
+ *
+ * <p>Entries are added lazily as classes are parsed. Cache is thread-safe.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see Dependencies#setCache(java.io.File) 
+ */
+final class DependencyCache
+{
+    private static final int MAGIC = 0x42434344;
+    private static final int VERSION = 1;
+    private final File file;
+    private final Map<String,Element> elements = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+    /**
+     * Loads cache from file if it exists and is valid.
+     * @param file
+     * @param classPath
+     * @throws IOException 
+     */
+    DependencyCache(File file, File... classPath) throws IOException
+    {
+        this.file = file;
+        Map<String,Element> loaded = new HashMap<>();
+        if (file.exists())
+        {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+            {
+                load(in, loaded);
+            }
+            catch (IOException ex)
+            {
+                loaded.clear();
+            }
+        }
+        for (File cp : classPath)
+        {
+            String path = cp.getAbsolutePath();
+            Element old = loaded.remove(path);
+            Element element = new Element(cp);
+            if (old != null && element.sameAs(old))
+            {
+                if (element.lastModified != old.lastModified)
+                {
+                    changed = true;
+                }
+                element.adopt(old);
+            }
+            else
+            {
+                changed = true;
+            }
+            elements.put(path, element);
+        }
+        if (!loaded.isEmpty())
+        {
+            changed = true;
+        }
+    }
+    /**
+     * Returns cached references of class or null.
+     * @param element Class path element of class
+     * @param classname
+     * @return 
+     */
+    Node get(File element, String classname)
+    {
+        Element e = elements.get(element.getAbsolutePath());
+        if (e == null)
+        {
+            return null;
+        }
+        return e.nodes.get(classname);
+    }
+
+    void put(File element, String classname, Node node)
+    {
+        Element e = elements.get(element.getAbsolutePath());
+        if (e != null)
+        {
+            e.nodes.put(classname, node);
+            changed = true;
+        }
+    }
+    /**
+     * Writes cache file if changed. File is replaced atomically.
+     * @throws IOException 
+     */
+    void save() throws IOException
+    {
+        if (!changed)
+        {
+            return;
+        }
+        Map<String,Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        for (Element e : elements.values())
+        {
+            for (Map.Entry<String,Node> entry : e.nodes.entrySet())
+            {
+                intern(strings, table, entry.getKey());
+                for (String ref : entry.getValue().references)
+                {
+                    intern(strings, table, ref);
+                }
+            }
+        }
+        File tmp = new File(file.getPath()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(table.size());
+            for (String s : table)
+            {
+                out.writeUTF(s);
+            }
+            out.writeInt(elements.size());
+            for (Map.Entry<String,Element> ee : elements.entrySet())
+            {
+                Element e = ee.getValue();
+                out.writeUTF(ee.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.lastModified);
+                out.writeLong(e.getHash());
+                out.writeInt(e.nodes.size());
+                for (Map.Entry<String,Node> entry : e.nodes.entrySet())
+                {
+                    Node node = entry.getValue();
+                    out.writeInt(strings.get(entry.getKey()));
+                    out.writeBoolean(node.synthetic);
+                    out.writeInt(node.references.length);
+                    for (String ref : node.references)
+                    {
+                        out.writeInt(strings.get(ref));
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        changed = false;
+    }
+
+    private static void intern(Map<String,Integer> strings, List<String> table, String s)
+    {
+        if (!strings.containsKey(s))
+        {
+            strings.put(s, table.size());
+            table.add(s);
+        }
+    }
+
+    private static void load(DataInputStream in, Map<String,Element> map) throws IOException
+    {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        {
+            return;
+        }
+        String[] table = new String[in.readInt()];
+        for (int ii=0;ii<table.length;ii++)
+        {
+            table[ii] = in.readUTF();
+        }
+        int elementCount = in.readInt();
+        for (int ii=0;ii<elementCount;ii++)
+        {
+            String path = in.readUTF();
+            Element e = new Element(in.readLong(), in.readLong(), in.readLong());
+            int nodeCount = in.readInt();
+            for (int jj=0;jj<nodeCount;jj++)
+            {
+                String classname = table[in.readInt()];
+                boolean synthetic = in.readBoolean();
+                String[] references = new String[in.readInt()];
+                for (int kk=0;kk<references.length;kk++)
+                {
+                    references[kk] = table[in.readInt()];
+                }
+                e.nodes.put(classname, new Node(synthetic, references));
+            }
+            map.put(path, e);
+        }
+    }
+    /**
+     * Cached references of a class.
+     */
+    static final class Node
+    {
+        final boolean synthetic;
+        final String[] references;
+
+        Node(boolean synthetic, String[] references)
+        {
+            this.synthetic = synthetic;
+            this.references = references;
+        }
+
+    }
+
+    private static final class Element
+    {
+        private File file;
+        private long size;
+        private long lastModified;
+        private long hash = -1;
+        private final Map<String,Node> nodes = new ConcurrentHashMap<>();
+
+        private Element(long size, long lastModified, long hash)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        private Element(File file) throws IOException
+        {
+            this.file = file;
+            if (file.isDirectory())
+            {
+                final CRC32 crc = new CRC32();
+                final Path root = file.toPath();
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) throws IOException
+                    {
+                        String name = root.relativize(p).toString();
+                        if (name.endsWith(".class"))
+                        {
+                            long modified = attrs.lastModifiedTime().toMillis();
+                            size += attrs.size();
+                            lastModified = Math.max(lastModified, modified);
+                            crc.update((name+':'+attrs.size()+':'+modified+'\n').getBytes("UTF-8"));
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                hash = crc.getValue();
+            }
+            else
+            {
+                size = file.length();
+                lastModified = file.lastModified();
+            }
+        }
+
+        private boolean sameAs(Element old)
+        {
+            if (size != old.size)
+            {
+                return false;
+            }
+            if (hash == -1 && lastModified == old.lastModified)
+            {
+                return true;
+            }
+            try
+            {
+                return getHash() == old.hash;
+            }
+            catch (IOException ex)
+            {
+                return false;
+            }
+        }
+
+        private void adopt(Element old)
+        {
+            if (hash == -1)
+            {
+                hash = old.hash;
+            }
+            nodes.putAll(old.nodes);
+        }
+
+        private long getHash() throws IOException
+        {
+            if (hash == -1)
+            {
+                CRC32 crc = new CRC32();
+                if (file.exists())
+                {
+                    try (InputStream in = new FileInputStream(file))
+                    {
+                        byte[] buf = new byte[8192];
+                        int rc = in.read(buf);
+                        while (rc != -1)
+                        {
+                            crc.update(buf, 0, rc);
+                            rc = in.read(buf);
+                        }
+                    }
+                }
+                hash = crc.getValue();
+            }
+            return hash;
+        }
+    }
+}
@@ -37,7 +37,27 @@ import org.vesalainen.bcc.model.Typ;
  */
 public class Descriptor 
 {
+    /**
+     * Returns descriptor of element. Descriptors of fields, methods, 
+     * constructors and classes are cached.
+     * @param element
+     * @return 
+     * @see DescriptorCache
+     */
     public static String getDesriptor(Element element)
+    {
+        switch (element.getKind())
+        {
+            case CLASS:
+            case FIELD:
+            case CONSTRUCTOR:
+            case METHOD:
+                return DescriptorCache.getDescriptor(element).getString();
+            default:
+                return createDesriptor(element);
+        }
+    }
+    static String createDesriptor(Element element)
     {
         try
         {
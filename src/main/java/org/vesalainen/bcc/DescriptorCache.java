@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+import org.vesalainen.bcc.model.El;
+
+/**
+ * Process wide cache of descriptors, signatures and internal names of
+ * elements. Descriptors and internal names are kept as Utf8 constants which
+ * are immutable and shared by all constant pools.
+ *
+ * <p>Elements are compared by identity and held weakly. Descriptor of an
+ * element must not change after it is first requested.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+final class DescriptorCache
+{
+    private static final ReferenceQueue<Element> queue = new ReferenceQueue<>();
+    private static final ConcurrentMap<Object,Entry> map = new ConcurrentHashMap<>();
+    /**
+     * Returns descriptor of field, method or constructor.
+     * @param element
+     * @return
+     */
+    static Utf8 getDescriptor(Element element)
+    {
+        Entry entry = entry(element);
+        Utf8 descriptor = entry.descriptor;
+        if (descriptor == null)
+        {
+            descriptor = new Utf8(Descriptor.createDesriptor(element));
+            entry.descriptor = descriptor;
+        }
+        return descriptor;
+    }
+    /**
+     * Returns the internal form of class name.
+     * @param element
+     * @return
+     */
+    static Utf8 getInternalName(TypeElement element)
+    {
+        Entry entry = entry(element);
+        Utf8 internalName = entry.internalName;
+        if (internalName == null)
+        {
+            internalName = new Utf8(El.getInternalForm(element));
+            entry.internalName = internalName;
+        }
+        return internalName;
+    }
+    /**
+     * Returns signature of field, method or constructor.
+     * @param element
+     * @return
+     */
+    static String getSignature(Element element)
+    {
+        Entry entry = entry(element);
+        String signature = entry.signature;
+        if (signature == null)
+        {
+            signature = Signature.createSignature(element);
+            entry.signature = signature;
+        }
+        return signature;
+    }
+
+    private static Entry entry(Element element)
+    {
+        Entry entry = map.get(new Lookup(element));
+        if (entry == null)
+        {
+            expunge();
+            Entry newEntry = new Entry();
+            entry = map.putIfAbsent(new Key(element, queue), newEntry);
+            if (entry == null)
+            {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    private static void expunge()
+    {
+        Reference<? extends Element> ref = queue.poll();
+        while (ref != null)
+        {
+            map.remove(ref);
+            ref = queue.poll();
+        }
+    }
+
+    private static class Entry
+    {
+        private volatile Utf8 descriptor;
+        private volatile Utf8 internalName;
+        private volatile String signature;
+    }
+
+    private static class Key extends WeakReference<Element>
+    {
+        private final int hash;
+
+        public Key(Element element, ReferenceQueue<Element> queue)
+        {
+            super(element, queue);
+            this.hash = System.identityHashCode(element);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj instanceof Key)
+            {
+                Element element = get();
+                return element != null && element == ((Key)obj).get();
+            }
+            return false;
+        }
+    }
+    /**
+     * Lookup key which doesn't create a weak reference.
+     */
+    private static class Lookup
+    {
+        private final Element element;
+
+        public Lookup(Element element)
+        {
+            this.element = element;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(element);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof Key)
+            {
+                return element == ((Key)obj).get();
+            }
+            return false;
+        }
+    }
+}
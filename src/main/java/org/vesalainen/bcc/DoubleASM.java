@@ -23,7 +23,7 @@ import java.util.Map;
  *
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
-public class DoubleASM extends Assembler implements TypeASM
+public class DoubleASM extends Assembler implements LabelTypeASM
 {
 
     DoubleASM(CodeDataOutput out, Map<String, Label> labels)
@@ -262,29 +262,59 @@ public class DoubleASM extends Assembler implements TypeASM
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpeq(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmpne(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpne(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmplt(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmplt(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmpge(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpge(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmpgt(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpgt(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmple(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmple(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
 }
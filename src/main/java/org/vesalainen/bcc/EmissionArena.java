@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.type.TypeKind;
+
+/**
+ * Code buffer, label map, type helpers and verifier reused by method
+ * compilers of the same thread. Arena is acquired when method compilation
+ * starts and released when it ends, also when it fails. Nested compilations
+ * use different arenas.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see MethodCompiler#setUseArena(boolean) 
+ */
+final class EmissionArena
+{
+    private static final ThreadLocal<Deque<EmissionArena>> free = new ThreadLocal<Deque<EmissionArena>>()
+    {
+        @Override
+        protected Deque<EmissionArena> initialValue()
+        {
+            return new ArrayDeque<>();
+        }
+    };
+    private final CodeDataOutput out = new CodeDataOutput(null, true);
+    private final Map<String,Label> labels = new HashMap<>();
+    private final List<Label> handles = new ArrayList<>();
+    private final Deque<TypeASM> asmStack = new ArrayDeque<>();
+    private final Map<TypeKind,TypeASM> types = createTypes(out, labels);
+    private final ByteCodeVerifier verifier = new ByteCodeVerifier();
+
+    private EmissionArena()
+    {
+    }
+
+    static EmissionArena acquire()
+    {
+        EmissionArena arena = free.get().poll();
+        if (arena == null)
+        {
+            arena = new EmissionArena();
+        }
+        return arena;
+    }
+    /**
+     * Clears arena and returns it to thread's free list. Arena must not be
+     * used after this.
+     */
+    void release()
+    {
+        out.reset();
+        labels.clear();
+        handles.clear();
+        asmStack.clear();
+        for (TypeASM t : types.values())
+        {
+            ((Assembler)t).setWideIndex(false);
+        }
+        free.get().push(this);
+    }
+    /**
+     * Creates type helpers writing to out and sharing labels.
+     * @param out
+     * @param labels
+     * @return 
+     */
+    static Map<TypeKind,TypeASM> createTypes(CodeDataOutput out, Map<String,Label> labels)
+    {
+        Map<TypeKind,TypeASM> types = new EnumMap<>(TypeKind.class);
+        ReferenceASM a = new ReferenceASM(out, labels);
+        types.put(TypeKind.BOOLEAN, new BooleanASM(out, labels));
+        types.put(TypeKind.BYTE, new ByteASM(out, labels));
+        types.put(TypeKind.CHAR, new CharASM(out, labels));
+        types.put(TypeKind.SHORT, new ShortASM(out, labels));
+        types.put(TypeKind.INT, new IntASM(out, labels));
+        types.put(TypeKind.LONG, new LongASM(out, labels));
+        types.put(TypeKind.FLOAT, new FloatASM(out, labels));
+        types.put(TypeKind.DOUBLE, new DoubleASM(out, labels));
+        types.put(TypeKind.ARRAY, a);
+        types.put(TypeKind.DECLARED, a);
+        types.put(TypeKind.TYPEVAR, a);
+        types.put(TypeKind.VOID, new VoidASM(out, labels));
+        return types;
+    }
+
+    CodeDataOutput getOut()
+    {
+        return out;
+    }
+
+    Map<String, Label> getLabels()
+    {
+        return labels;
+    }
+
+    List<Label> getHandles()
+    {
+        return handles;
+    }
+
+    Deque<TypeASM> getAsmStack()
+    {
+        return asmStack;
+    }
+
+    Map<TypeKind, TypeASM> getTypes()
+    {
+        return types;
+    }
+
+    ByteCodeVerifier getVerifier()
+    {
+        return verifier;
+    }
+
+}
@@ -63,6 +63,11 @@ public class ExceptionTable implements Writable
         out.writeShort(catch_type);
     }
 
+    Block getBlock()
+    {
+        return block;
+    }
+
     int getHandler()
     {
         return label.getAddress();
@@ -0,0 +1,713 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.vesalainen.bcc.Label.Branch;
+
+/**
+ * Method code as a list of instructions. Each instruction is stored as
+ * opcode and two operands in an int array.
+ *
+ * <p>Instructions are in normalized form. Branch operand is a symbolic label
+ * instead of offset, and wide branches are stored as their short form. Local
+ * variable instructions store the index as operand, so iload_1 is stored as
+ * iload 1. Wide prefix is removed. Ldc and ldc_w are both stored as ldc with
+ * pool index. When code is written, the shortest form is selected for each
+ * instruction. Branches which don't fit are grown later in
+ * Assembler.fixLabels.
+ *
+ * <p>Switch operand is an index to a separate table containing default
+ * label, low and high or npairs, followed by labels or key label pairs.
+ *
+ * <p>Instructions can be removed. Labels of removed instruction move to the
+ * following instruction.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see MethodCompiler#setInstructionList(boolean)
+ */
+public final class InstructionList implements OpCode
+{
+    private static final int STRIDE = 3;
+    private static final int REMOVED = -1;
+
+    private final Assembler asm;
+    private final int codeLength;
+    private final List<Label> labels;
+    private int[] labelIndex;       // label id -> instruction index
+    private int[] data;
+    private int[] pcs;              // original address
+    private int count;
+    private int[] switches;
+    private int switchLength;
+    private int[] positions;
+    /**
+     * Creates instruction list from code. Branches of code must not be
+     * fixed yet.
+     * @param code
+     * @param asm
+     */
+    InstructionList(byte[] code, Assembler asm)
+    {
+        this.asm = asm;
+        this.codeLength = code.length;
+        this.labels = asm.liveLabels();
+        int[] idAtReference = new int[codeLength+1];
+        boolean[] bound = new boolean[codeLength+1];
+        int[] labelPc = new int[labels.size()+16];
+        for (int id=0;id<labels.size();id++)
+        {
+            Label label = labels.get(id);
+            for (Branch branch : label.getBranches())
+            {
+                idAtReference[branch.getReference()] = id+1;
+            }
+            int address = label.getAddress();
+            labelPc[id] = address;
+            if (address != -1)
+            {
+                bound[address] = true;
+            }
+        }
+        data = new int[STRIDE*64];
+        pcs = new int[64];
+        switches = new int[16];
+        int[] pcToIndex = new int[codeLength+1];
+        Arrays.fill(pcToIndex, -1);
+        int pc = 0;
+        while (pc < codeLength)
+        {
+            pcToIndex[pc] = count;
+            int op = code[pc] & 0xff;
+            switch (op)
+            {
+                case BIPUSH:
+                    add(pc, op, code[pc+1], 0);
+                    pc += 2;
+                    break;
+                case NEWARRAY:
+                case ILOAD:
+                case LLOAD:
+                case FLOAD:
+                case DLOAD:
+                case ALOAD:
+                case ISTORE:
+                case LSTORE:
+                case FSTORE:
+                case DSTORE:
+                case ASTORE:
+                case RET:
+                    add(pc, op, code[pc+1] & 0xff, 0);
+                    pc += 2;
+                    break;
+                case LDC:
+                    add(pc, LDC, code[pc+1] & 0xff, 0);
+                    pc += 2;
+                    break;
+                case LDC_W:
+                    add(pc, LDC, u2(code, pc+1), 0);
+                    pc += 3;
+                    break;
+                case SIPUSH:
+                    add(pc, op, (short)u2(code, pc+1), 0);
+                    pc += 3;
+                    break;
+                case IINC:
+                    add(pc, op, code[pc+1] & 0xff, code[pc+2]);
+                    pc += 3;
+                    break;
+                case LDC2_W:
+                case GETSTATIC:
+                case PUTSTATIC:
+                case GETFIELD:
+                case PUTFIELD:
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case NEW:
+                case ANEWARRAY:
+                case CHECKCAST:
+                case INSTANCEOF:
+                    add(pc, op, u2(code, pc+1), 0);
+                    pc += 3;
+                    break;
+                case MULTIANEWARRAY:
+                    add(pc, op, u2(code, pc+1), code[pc+3] & 0xff);
+                    pc += 4;
+                    break;
+                case INVOKEINTERFACE:
+                    add(pc, op, u2(code, pc+1), code[pc+3] & 0xff);
+                    pc += 5;
+                    break;
+                case INVOKEDYNAMIC:
+                    add(pc, op, u2(code, pc+1), 0);
+                    pc += 5;
+                    break;
+                case WIDE:
+                    int wop = code[pc+1] & 0xff;
+                    if (wop == IINC)
+                    {
+                        add(pc, wop, u2(code, pc+2), (short)u2(code, pc+4));
+                        pc += 6;
+                    }
+                    else
+                    {
+                        add(pc, wop, u2(code, pc+2), 0);
+                        pc += 4;
+                    }
+                    break;
+                case GOTO_W:
+                case JSR_W:
+                    labelPc = target(idAtReference, labelPc, pc+1, pc+s4(code, pc+1));
+                    add(pc, op == GOTO_W ? GOTO : JSR, idAtReference[pc+1]-1, 0);
+                    pc += 5;
+                    break;
+                case TABLESWITCH:
+                case LOOKUPSWITCH:
+                {
+                    int base = pc + 1 + (3 - (pc & 3));
+                    int n = op == TABLESWITCH ? s4(code, base+8) - s4(code, base+4) + 1 : s4(code, base+4);
+                    int length = op == TABLESWITCH ? 3+n : 2+2*n;
+                    int index = switchLength;
+                    ensureSwitches(length);
+                    labelPc = target(idAtReference, labelPc, base, pc+s4(code, base));
+                    switches[switchLength++] = idAtReference[base]-1;
+                    switches[switchLength++] = s4(code, base+4);
+                    int p = base+8;
+                    if (op == TABLESWITCH)
+                    {
+                        switches[switchLength++] = s4(code, p);
+                        p += 4;
+                    }
+                    for (int ii=0;ii<n;ii++)
+                    {
+                        if (op == LOOKUPSWITCH)
+                        {
+                            switches[switchLength++] = s4(code, p);
+                            p += 4;
+                        }
+                        labelPc = target(idAtReference, labelPc, p, pc+s4(code, p));
+                        switches[switchLength++] = idAtReference[p]-1;
+                        p += 4;
+                    }
+                    add(pc, op, index, 0);
+                    pc = p;
+                }
+                    break;
+                default:
+                    if (op >= ILOAD_0 && op <= ALOAD_3)
+                    {
+                        add(pc, ILOAD + (op - ILOAD_0) / 4, (op - ILOAD_0) % 4, 0);
+                        pc++;
+                    }
+                    else
+                    {
+                        if (op >= ISTORE_0 && op <= ASTORE_3)
+                        {
+                            add(pc, ISTORE + (op - ISTORE_0) / 4, (op - ISTORE_0) % 4, 0);
+                            pc++;
+                        }
+                        else
+                        {
+                            if (isBranch(op))
+                            {
+                                int offset = (short)u2(code, pc+1);
+                                if (
+                                        op != GOTO &&
+                                        op != JSR &&
+                                        idAtReference[pc+1] == 0 &&
+                                        offset == Assembler.WIDEFIXOFFSET &&
+                                        (code[pc+3] & 0xff) == GOTO_W &&
+                                        idAtReference[pc+4] != 0 &&
+                                        !bound[pc+3]
+                                        )
+                                {
+                                    // inverted branch over goto_w
+                                    add(pc, BranchRelaxer.invert(op), idAtReference[pc+4]-1, 0);
+                                    pc += 8;
+                                }
+                                else
+                                {
+                                    labelPc = target(idAtReference, labelPc, pc+1, pc+offset);
+                                    add(pc, op, idAtReference[pc+1]-1, 0);
+                                    pc += 3;
+                                }
+                            }
+                            else
+                            {
+                                if (op > JSR_W)
+                                {
+                                    throw new ClassFormatError("unknown opcode "+op+" at "+pc);
+                                }
+                                add(pc, op, 0, 0);
+                                pc++;
+                            }
+                        }
+                    }
+                    break;
+            }
+        }
+        pcToIndex[codeLength] = count;
+        labelIndex = new int[labels.size()];
+        for (int id=0;id<labelIndex.length;id++)
+        {
+            int address = labelPc[id];
+            if (address != -1)
+            {
+                int index = pcToIndex[address];
+                if (index == -1)
+                {
+                    throw new BranchException(labels.get(id)+" address "+address+" is not an instruction");
+                }
+                labelIndex[id] = index;
+            }
+            else
+            {
+                labelIndex[id] = -1;
+            }
+        }
+    }
+    /**
+     * Returns number of instructions including removed ones.
+     * @return
+     */
+    public int size()
+    {
+        return count;
+    }
+    /**
+     * Returns normalized opcode or -1 if instruction is removed.
+     * @param index
+     * @return
+     */
+    public int getOpCode(int index)
+    {
+        check(index);
+        return data[STRIDE*index];
+    }
+    /**
+     * Returns first operand. Pool index, local variable index or constant
+     * value depending on opcode. For branches this is label id.
+     * @param index
+     * @return
+     */
+    public int getOperand(int index)
+    {
+        check(index);
+        return data[STRIDE*index+1];
+    }
+    /**
+     * Returns second operand. Iinc constant, invokeinterface count or
+     * multianewarray dimensions.
+     * @param index
+     * @return
+     */
+    public int getOperand2(int index)
+    {
+        check(index);
+        return data[STRIDE*index+2];
+    }
+    /**
+     * Returns index of instruction branch jumps to or -1 if not branch.
+     * Switches return -1.
+     * @param index
+     * @return
+     */
+    public int getTargetIndex(int index)
+    {
+        if (!isBranch(getOpCode(index)))
+        {
+            return -1;
+        }
+        return instructionOf(data[STRIDE*index+1]);
+    }
+    /**
+     * Removes instruction. Labels of removed instruction move to the next
+     * instruction.
+     * @param index
+     */
+    public void remove(int index)
+    {
+        check(index);
+        data[STRIDE*index] = REMOVED;
+    }
+    /**
+     * Changes branches and switch targets which jump to goto to jump to the
+     * goto target. Jsr is not changed.
+     */
+    public void threadJumps()
+    {
+        for (int ii=0;ii<count;ii++)
+        {
+            int op = data[STRIDE*ii];
+            if (op == TABLESWITCH || op == LOOKUPSWITCH)
+            {
+                int p = data[STRIDE*ii+1];
+                int n = switches[p+1];
+                switches[p] = thread(switches[p]);
+                if (op == TABLESWITCH)
+                {
+                    n = switches[p+2] - n + 1;
+                    for (int jj=0;jj<n;jj++)
+                    {
+                        switches[p+3+jj] = thread(switches[p+3+jj]);
+                    }
+                }
+                else
+                {
+                    for (int jj=0;jj<n;jj++)
+                    {
+                        switches[p+3+2*jj] = thread(switches[p+3+2*jj]);
+                    }
+                }
+            }
+            else
+            {
+                if (op != JSR && isBranch(op))
+                {
+                    data[STRIDE*ii+1] = thread(data[STRIDE*ii+1]);
+                }
+            }
+        }
+    }
+
+    private int thread(int id)
+    {
+        for (int hops=0;hops<count;hops++)
+        {
+            int index = instructionOf(id);
+            if (index == -1 || index == count || data[STRIDE*index] != GOTO)
+            {
+                return id;
+            }
+            int next = data[STRIDE*index+1];
+            if (next == id)
+            {
+                return id;
+            }
+            id = next;
+        }
+        return id;
+    }
+    /**
+     * Returns first not removed instruction at or after label or -1 if label
+     * is not fixed. Returns size if label is at the end.
+     */
+    private int instructionOf(int id)
+    {
+        int index = labelIndex[id];
+        if (index == -1)
+        {
+            return -1;
+        }
+        while (index < count && data[STRIDE*index] == REMOVED)
+        {
+            index++;
+        }
+        return index;
+    }
+    /**
+     * Writes instructions. Labels are fixed to new addresses and branches
+     * are created for them.
+     * @return New code with branches not fixed.
+     * @throws IOException
+     * @see Assembler#fixLabels(byte[])
+     */
+    byte[] getCode() throws IOException
+    {
+        for (Label label : labels)
+        {
+            label.reset();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(codeLength+16);
+        DataOutputStream out = new DataOutputStream(baos);
+        int[] newPc = new int[count+1];
+        for (int ii=0;ii<count;ii++)
+        {
+            newPc[ii] = out.size();
+            write(out, ii);
+        }
+        newPc[count] = out.size();
+        for (int id=0;id<labelIndex.length;id++)
+        {
+            int index = labelIndex[id];
+            if (index != -1)
+            {
+                labels.get(id).relocate(newPc[index]);
+            }
+        }
+        positions = new int[codeLength+1];
+        for (int ii=0;ii<count;ii++)
+        {
+            positions[pcs[ii]] = newPc[ii];
+        }
+        positions[codeLength] = newPc[count];
+        return baos.toByteArray();
+    }
+    /**
+     * Returns new addresses indexed by old address after getCode.
+     * @return
+     */
+    int[] getPositions()
+    {
+        return positions;
+    }
+
+    private void write(DataOutputStream out, int index) throws IOException
+    {
+        int op = data[STRIDE*index];
+        int a = data[STRIDE*index+1];
+        int b = data[STRIDE*index+2];
+        switch (op)
+        {
+            case REMOVED:
+                break;
+            case ILOAD:
+            case LLOAD:
+            case FLOAD:
+            case DLOAD:
+            case ALOAD:
+                local(out, op, a, ILOAD_0 + (op - ILOAD) * 4);
+                break;
+            case ISTORE:
+            case LSTORE:
+            case FSTORE:
+            case DSTORE:
+            case ASTORE:
+                local(out, op, a, ISTORE_0 + (op - ISTORE) * 4);
+                break;
+            case RET:
+                local(out, op, a, -1);
+                break;
+            case IINC:
+                if (a < 256 && b >= Byte.MIN_VALUE && b <= Byte.MAX_VALUE)
+                {
+                    out.writeByte(op);
+                    out.writeByte(a);
+                    out.writeByte(b);
+                }
+                else
+                {
+                    out.writeByte(WIDE);
+                    out.writeByte(op);
+                    out.writeShort(a);
+                    out.writeShort(b);
+                }
+                break;
+            case BIPUSH:
+            case NEWARRAY:
+                out.writeByte(op);
+                out.writeByte(a);
+                break;
+            case SIPUSH:
+                out.writeByte(op);
+                out.writeShort(a);
+                break;
+            case LDC:
+                if (a < 256)
+                {
+                    out.writeByte(LDC);
+                    out.writeByte(a);
+                }
+                else
+                {
+                    out.writeByte(LDC_W);
+                    out.writeShort(a);
+                }
+                break;
+            case LDC2_W:
+            case GETSTATIC:
+            case PUTSTATIC:
+            case GETFIELD:
+            case PUTFIELD:
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case NEW:
+            case ANEWARRAY:
+            case CHECKCAST:
+            case INSTANCEOF:
+                out.writeByte(op);
+                out.writeShort(a);
+                break;
+            case MULTIANEWARRAY:
+                out.writeByte(op);
+                out.writeShort(a);
+                out.writeByte(b);
+                break;
+            case INVOKEINTERFACE:
+                out.writeByte(op);
+                out.writeShort(a);
+                out.writeByte(b);
+                out.writeByte(0);
+                break;
+            case INVOKEDYNAMIC:
+                out.writeByte(op);
+                out.writeShort(a);
+                out.writeShort(0);
+                break;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+            {
+                int pc = out.size();
+                out.writeByte(op);
+                while ((out.size() % 4) != 0)
+                {
+                    out.writeByte(0);
+                }
+                branch(out, pc, switches[a], true);
+                out.writeInt(switches[a+1]);
+                int n = switches[a+1];
+                int p = a+2;
+                if (op == TABLESWITCH)
+                {
+                    out.writeInt(switches[p]);
+                    n = switches[p] - n + 1;
+                    p++;
+                }
+                for (int ii=0;ii<n;ii++)
+                {
+                    if (op == LOOKUPSWITCH)
+                    {
+                        out.writeInt(switches[p++]);
+                    }
+                    branch(out, pc, switches[p++], true);
+                }
+            }
+                break;
+            default:
+                if (isBranch(op))
+                {
+                    int pc = out.size();
+                    out.writeByte(op);
+                    branch(out, pc, a, false);
+                }
+                else
+                {
+                    out.writeByte(op);
+                }
+                break;
+        }
+    }
+
+    private void local(DataOutputStream out, int op, int index, int shortOp) throws IOException
+    {
+        if (shortOp != -1 && index <= 3)
+        {
+            out.writeByte(shortOp + index);
+        }
+        else
+        {
+            if (index < 256)
+            {
+                out.writeByte(op);
+                out.writeByte(index);
+            }
+            else
+            {
+                out.writeByte(WIDE);
+                out.writeByte(op);
+                out.writeShort(index);
+            }
+        }
+    }
+
+    private void branch(DataOutputStream out, int pc, int id, boolean wide) throws IOException
+    {
+        Branch branch = labels.get(id).createBranch(pc);
+        branch.setReference(out.size());
+        if (wide)
+        {
+            branch.setWide(true);
+            out.writeInt(0);
+        }
+        else
+        {
+            out.writeShort(0);
+        }
+    }
+    /**
+     * Returns labelPc with new synthetic label if there is no branch at
+     * reference.
+     */
+    private int[] target(int[] idAtReference, int[] labelPc, int reference, int address)
+    {
+        if (idAtReference[reference] == 0)
+        {
+            Label label = asm.newLabel();
+            int id = labels.size();
+            labels.add(label);
+            if (id >= labelPc.length)
+            {
+                labelPc = Arrays.copyOf(labelPc, 2*labelPc.length);
+            }
+            labelPc[id] = address;
+            idAtReference[reference] = id+1;
+        }
+        return labelPc;
+    }
+
+    private void add(int pc, int op, int a, int b)
+    {
+        if (count == pcs.length)
+        {
+            pcs = Arrays.copyOf(pcs, 2*count);
+            data = Arrays.copyOf(data, STRIDE*2*count);
+        }
+        pcs[count] = pc;
+        int p = STRIDE*count;
+        data[p] = op;
+        data[p+1] = a;
+        data[p+2] = b;
+        count++;
+    }
+
+    private void ensureSwitches(int length)
+    {
+        if (switchLength + length > switches.length)
+        {
+            switches = Arrays.copyOf(switches, Math.max(2*switches.length, switchLength + length));
+        }
+    }
+
+    private void check(int index)
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException(index+" size "+count);
+        }
+    }
+
+    private static boolean isBranch(int op)
+    {
+        return (op >= IFEQ && op <= JSR) || op == IFNULL || op == IFNONNULL;
+    }
+
+    private static int u2(byte[] code, int p)
+    {
+        return ((code[p] & 0xff) << 8) | (code[p+1] & 0xff);
+    }
+
+    private static int s4(byte[] code, int p)
+    {
+        return ((code[p] & 0xff) << 24) | ((code[p+1] & 0xff) << 16) | ((code[p+2] & 0xff) << 8) | (code[p+3] & 0xff);
+    }
+
+}
@@ -24,7 +24,7 @@ import java.util.Map;
  *
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
-public class IntASM extends Assembler implements TypeASM
+public class IntASM extends Assembler implements LabelTypeASM
 {
 
     IntASM(CodeDataOutput out, Map<String, Label> labels)
@@ -202,7 +202,7 @@ public class IntASM extends Assembler implements TypeASM
     {
         out.writeByte(IXOR);
     }
-    public void if_tcmpeq(String target) throws IOException
+    public void if_tcmpeq(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -219,7 +219,11 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmpne(String target) throws IOException
+    public void if_tcmpeq(String target) throws IOException
+    {
+        if_tcmpeq(getLabel(target));
+    }
+    public void if_tcmpne(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -236,7 +240,11 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmplt(String target) throws IOException
+    public void if_tcmpne(String target) throws IOException
+    {
+        if_tcmpne(getLabel(target));
+    }
+    public void if_tcmplt(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -253,7 +261,11 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmpge(String target) throws IOException
+    public void if_tcmplt(String target) throws IOException
+    {
+        if_tcmplt(getLabel(target));
+    }
+    public void if_tcmpge(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -270,7 +282,11 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmpgt(String target) throws IOException
+    public void if_tcmpge(String target) throws IOException
+    {
+        if_tcmpge(getLabel(target));
+    }
+    public void if_tcmpgt(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -287,7 +303,11 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmple(String target) throws IOException
+    public void if_tcmpgt(String target) throws IOException
+    {
+        if_tcmpgt(getLabel(target));
+    }
+    public void if_tcmple(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -304,6 +324,10 @@ public class IntASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
+    public void if_tcmple(String target) throws IOException
+    {
+        if_tcmple(getLabel(target));
+    }
 
     public void tipush(int b) throws IOException
     {
@@ -20,45 +20,110 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Branch target. Label can be created by name or as a nameless handle by
+ * Assembler.newLabel. Branching to a handle doesn't need name lookup.
  *
+ * <p>Label can be merged into another label. After that all operations are
+ * delegated to the label it was merged into.
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see Assembler#newLabel()
  */
 public class Label
 {
     private List<String> names = new ArrayList<>();
     private int address = -1;
     private List<Branch> branches = new ArrayList<>();
+    private Label alias;
+    /**
+     * Creates nameless label
+     */
+    public Label()
+    {
+    }
 
     public Label(String label)
     {
         names.add(label);
     }
-
+    /**
+     * Creates label which has the names and branches of l1 and l2.
+     * @param l1
+     * @param l2
+     * @deprecated l1 and l2 are merged into created label. Use mergeTo.
+     * @see #mergeTo(org.vesalainen.bcc.Label) 
+     */
+    @Deprecated
     public Label(Label l1, Label l2)
     {
-        names.addAll(l1.names);
-        names.addAll(l2.names);
-        branches.addAll(l1.branches);
-        branches.addAll(l2.branches);
+        l1.mergeTo(this);
+        if (l2.resolve() != this)
+        {
+            l2.mergeTo(this);
+        }
     }
 
     public void addName(String name)
     {
-        names.add(name);
+        resolve().names.add(name);
     }
     
     public List<String> getNames()
     {
-        return names;
+        return resolve().names;
+    }
+    /**
+     * Returns the label this label is merged into or this.
+     * @return 
+     */
+    public Label resolve()
+    {
+        Label label = this;
+        while (label.alias != null)
+        {
+            label = label.alias;
+        }
+        return label;
+    }
+    /**
+     * Returns true if this label is merged into another label.
+     * @return 
+     */
+    public boolean isMerged()
+    {
+        return alias != null;
+    }
+    /**
+     * Merges this label into target. Names and branches are moved to target
+     * and address of this label is reset.
+     * @param target 
+     */
+    public void mergeTo(Label target)
+    {
+        Label label = resolve();
+        target = target.resolve();
+        if (label == target)
+        {
+            throw new IllegalArgumentException(this+" merged to itself");
+        }
+        target.names.addAll(label.names);
+        target.branches.addAll(label.branches);
+        label.branches.clear();
+        label.address = -1;
+        label.alias = target;
     }
 
     public int getAddress()
     {
-        return address;
+        return resolve().address;
     }
 
     public void setAddress(int address)
     {
+        if (alias != null)
+        {
+            resolve().setAddress(address);
+            return;
+        }
         if (this.address != -1)
         {
             throw new IllegalArgumentException(names+" address has already been fixed");
@@ -68,9 +133,37 @@ public class Label
 
     public void resetAddress()
     {
-        this.address = -1;
+        resolve().address = -1;
+    }
+    /**
+     * Moves fixed address when code is relocated.
+     * @param address 
+     */
+    void relocate(int address)
+    {
+        this.address = address;
+    }
+
+    /**
+     * Clears address and branches before code is rewritten.
+     */
+    void reset()
+    {
+        address = -1;
+        branches.clear();
     }
 
+    List<Branch> getBranches()
+    {
+        return branches;
+    }
+
+    /**
+     * Labels are equal if they have the same names. Nameless labels are equal
+     * only if they are merged into the same label.
+     * @param obj
+     * @return 
+     */
     @Override
     public boolean equals(Object obj)
     {
@@ -83,31 +176,43 @@ public class Label
             return false;
         }
         final Label other = (Label) obj;
-        if (this.names != other.names && (this.names == null || !this.names.equals(other.names)))
+        List<String> n = getNames();
+        if (n.isEmpty())
         {
-            return false;
+            return resolve() == other.resolve();
         }
-        return true;
+        return n.equals(other.getNames());
     }
 
     @Override
     public int hashCode()
     {
+        List<String> n = getNames();
+        if (n.isEmpty())
+        {
+            return System.identityHashCode(resolve());
+        }
         int hash = 5;
-        hash = 53 * hash + (this.names != null ? this.names.hashCode() : 0);
+        hash = 53 * hash + n.hashCode();
         return hash;
     }
 
     @Override
     public String toString()
     {
-        return names.toString();
+        Label label = resolve();
+        if (label.names.isEmpty())
+        {
+            return "L"+Integer.toHexString(System.identityHashCode(label));
+        }
+        return label.names.toString();
     }
 
     public Branch createBranch(int offset)
     {
-        Branch branch = new Branch(this, offset);
-        branches.add(branch);
+        Label label = resolve();
+        Branch branch = label.new Branch(label, offset);
+        label.branches.add(branch);
         return branch;
     }
 
@@ -168,6 +273,16 @@ public class Label
         {
             this.reference = reference;
         }
+        /**
+         * Moves branch when code is relocated.
+         * @param offset Instruction address
+         * @param reference Address of branch offset
+         */
+        void relocate(int offset, int reference)
+        {
+            this.offset = offset;
+            this.reference = reference;
+        }
 
         private void fixCode(byte[] code, int address)
         {
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+
+/**
+ * Type specific compare branches to label. These are not in TypeASM so that
+ * its implementations outside this package are not broken.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+interface LabelTypeASM extends TypeASM
+{
+    void if_tcmpeq(Label target) throws IOException;
+    void if_tcmpne(Label target) throws IOException;
+    void if_tcmplt(Label target) throws IOException;
+    void if_tcmpge(Label target) throws IOException;
+    void if_tcmpgt(Label target) throws IOException;
+    void if_tcmple(Label target) throws IOException;
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.ConstantDouble;
+import org.vesalainen.bcc.ConstantInfo.ConstantDynamic;
+import org.vesalainen.bcc.ConstantInfo.ConstantFloat;
+import org.vesalainen.bcc.ConstantInfo.ConstantIndex;
+import org.vesalainen.bcc.ConstantInfo.ConstantInteger;
+import org.vesalainen.bcc.ConstantInfo.ConstantLong;
+import org.vesalainen.bcc.ConstantInfo.ConstantMethodHandle;
+import org.vesalainen.bcc.ConstantInfo.ConstantString;
+import org.vesalainen.bcc.ConstantInfo.Fieldref;
+import org.vesalainen.bcc.ConstantInfo.Filler;
+import org.vesalainen.bcc.ConstantInfo.InterfaceMethodref;
+import org.vesalainen.bcc.ConstantInfo.Methodref;
+import org.vesalainen.bcc.ConstantInfo.NameAndType;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+import static org.vesalainen.bcc.ConstantInfo.*;
+
+/**
+ * Read-only constant pool over class file bytes. Construction only scans the
+ * pool for entry offsets. Entries are decoded from the buffer when accessed
+ * and are not retained.
+ *
+ * <p>Buffer is accessed with absolute gets only, so concurrent reads are
+ * safe. Buffer content must not change while the pool is in use.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ClassFile#ClassFile(java.nio.ByteBuffer)
+ */
+public class MappedConstantPool extends ConstantPool
+{
+    private final ByteBuffer buffer;
+    private final int[] offsets;
+    private final int start;
+    private final int end;
+    private Map<ConstantInfo,Integer> indexMap;
+    /**
+     * Creates pool of constant_pool_count and constant_pool starting at
+     * offset.
+     * @param buffer
+     * @param offset
+     */
+    public MappedConstantPool(ByteBuffer buffer, int offset)
+    {
+        this.buffer = buffer;
+        this.start = offset;
+        int constant_pool_count = buffer.getChar(offset);
+        offsets = new int[constant_pool_count];
+        int pos = offset + 2;
+        int index = 1;
+        while (index < constant_pool_count)
+        {
+            offsets[index] = pos;
+            int tag = buffer.get(pos) & 0xff;
+            switch (tag)
+            {
+                case CONSTANT_Class:
+                case CONSTANT_String:
+                case CONSTANT_MethodType:
+                case CONSTANT_Module:
+                case CONSTANT_Package:
+                    pos += 3;
+                    break;
+                case CONSTANT_MethodHandle:
+                    pos += 4;
+                    break;
+                case CONSTANT_Fieldref:
+                case CONSTANT_Methodref:
+                case CONSTANT_InterfaceMethodref:
+                case CONSTANT_NameAndType:
+                case CONSTANT_Dynamic:
+                case CONSTANT_InvokeDynamic:
+                case CONSTANT_Integer:
+                case CONSTANT_Float:
+                    pos += 5;
+                    break;
+                case CONSTANT_Long:
+                case CONSTANT_Double:
+                    pos += 9;
+                    index++;
+                    offsets[index] = -1;
+                    break;
+                case CONSTANT_Utf8:
+                    pos += 3 + buffer.getChar(pos+1);
+                    break;
+                default:
+                    throw new ClassFormatError("Unknown constant tag "+tag+" at "+index);
+            }
+            index++;
+        }
+        this.end = pos;
+    }
+    /**
+     * Returns the buffer offset just after the constant pool.
+     * @return
+     */
+    public int getEnd()
+    {
+        return end;
+    }
+
+    @Override
+    synchronized int indexOf(ConstantInfo ci)
+    {
+        if (indexMap == null)
+        {
+            indexMap = new HashMap<>(offsets.length*2);
+            for (int index=1;index<offsets.length;index++)
+            {
+                if (offsets[index] != -1)
+                {
+                    ConstantInfo c = getConstantInfo(index);
+                    if (!indexMap.containsKey(c))
+                    {
+                        indexMap.put(c, index);
+                    }
+                }
+            }
+        }
+        Integer index = indexMap.get(ci);
+        if (index == null)
+        {
+            return -1;
+        }
+        return index;
+    }
+
+    @Override
+    int resolve(ConstantInfo ci)
+    {
+        int index = indexOf(ci);
+        if (index == -1)
+        {
+            throw new UnsupportedOperationException("mapped constant pool is read-only");
+        }
+        return index;
+    }
+
+    @Override
+    int add(ConstantInfo ci)
+    {
+        throw new UnsupportedOperationException("mapped constant pool is read-only");
+    }
+
+    @Override
+    public ConstantInfo getConstantInfo(int index)
+    {
+        int pos = offset(index);
+        if (pos == -1)
+        {
+            return new Filler();
+        }
+        int tag = buffer.get(pos) & 0xff;
+        switch (tag)
+        {
+            case CONSTANT_Class:
+                return new Clazz(buffer.getChar(pos+1));
+            case CONSTANT_String:
+                return new ConstantString(buffer.getChar(pos+1));
+            case CONSTANT_Fieldref:
+                return new Fieldref(buffer.getChar(pos+1), buffer.getChar(pos+3));
+            case CONSTANT_Methodref:
+                return new Methodref(buffer.getChar(pos+1), buffer.getChar(pos+3));
+            case CONSTANT_InterfaceMethodref:
+                return new InterfaceMethodref(buffer.getChar(pos+1), buffer.getChar(pos+3));
+            case CONSTANT_NameAndType:
+                return new NameAndType(buffer.getChar(pos+1), buffer.getChar(pos+3));
+            case CONSTANT_MethodHandle:
+                return new ConstantMethodHandle(buffer.get(pos+1) & 0xff, buffer.getChar(pos+2));
+            case CONSTANT_MethodType:
+            case CONSTANT_Module:
+            case CONSTANT_Package:
+                return new ConstantIndex(tag, buffer.getChar(pos+1));
+            case CONSTANT_Dynamic:
+            case CONSTANT_InvokeDynamic:
+                return new ConstantDynamic(tag, buffer.getChar(pos+1), buffer.getChar(pos+3));
+            case CONSTANT_Integer:
+                return new ConstantInteger(buffer.getInt(pos+1));
+            case CONSTANT_Float:
+                return new ConstantFloat(buffer.getInt(pos+1));
+            case CONSTANT_Long:
+                return new ConstantLong(buffer.getLong(pos+1));
+            case CONSTANT_Double:
+                return new ConstantDouble(buffer.getInt(pos+1), buffer.getInt(pos+5));
+            case CONSTANT_Utf8:
+                return new Utf8(utf8Bytes(pos));
+            default:
+                throw new IllegalArgumentException("unknown tag "+tag);
+        }
+    }
+
+    @Override
+    public int getTag(int index)
+    {
+        int pos = offset(index);
+        if (pos == -1)
+        {
+            return 0;
+        }
+        return buffer.get(pos) & 0xff;
+    }
+
+    @Override
+    public String getString(int index)
+    {
+        int pos = offset(index);
+        if (pos == -1 || (buffer.get(pos) & 0xff) != CONSTANT_Utf8)
+        {
+            throw new ClassCastException("constant at "+index+" is not Utf8");
+        }
+        byte[] bytes = utf8Bytes(pos);
+        return Utf8.decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns true if constant at index is Utf8 with given modified UTF-8
+     * bytes. Nothing is decoded.
+     * @param index
+     * @param bytes
+     * @return 
+     */
+    boolean utf8Equals(int index, byte[] bytes)
+    {
+        int pos = offset(index);
+        if (pos == -1 || (buffer.get(pos) & 0xff) != CONSTANT_Utf8 || buffer.getChar(pos+1) != bytes.length)
+        {
+            return false;
+        }
+        for (int ii=0;ii<bytes.length;ii++)
+        {
+            if (buffer.get(pos+3+ii) != bytes[ii])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] utf8Bytes(int pos)
+    {
+        int length = buffer.getChar(pos+1);
+        byte[] bytes = new byte[length];
+        for (int ii=0;ii<length;ii++)
+        {
+            bytes[ii] = buffer.get(pos+3+ii);
+        }
+        return bytes;
+    }
+
+    private int offset(int index)
+    {
+        if (index < 1 || index >= offsets.length)
+        {
+            throw new IllegalArgumentException("constant pool index "+index+" out of range");
+        }
+        return offsets[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return offsets.length-1;
+    }
+
+    @Override
+    public int getByteSize()
+    {
+        return end-start;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.List;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import org.vesalainen.bcc.model.Typ;
+
+/**
+ * Field or method resolved into constant pool of a SubClass. Handle can be
+ * used in MethodCompiler get/put/invoke methods any number of times without
+ * repeating element lookup or constant pool search.
+ *
+ * <p>Handle is valid only for methods of the class that created it.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see SubClass#getMemberHandle(javax.lang.model.element.VariableElement)
+ * @see SubClass#getMemberHandle(javax.lang.model.element.ExecutableElement)
+ */
+public final class MemberHandle implements OpCode
+{
+    private final SubClass owner;
+    private final Element member;
+    private final int index;
+    private final int opcode;
+    private final boolean isStatic;
+    private final int argumentSize;
+    private final int valueSize;
+
+    MemberHandle(SubClass owner, VariableElement field, int index)
+    {
+        this.owner = owner;
+        this.member = field;
+        this.index = index;
+        this.isStatic = field.getModifiers().contains(Modifier.STATIC);
+        this.opcode = isStatic ? GETSTATIC : GETFIELD;
+        this.argumentSize = 0;
+        this.valueSize = size(field.asType());
+    }
+
+    MemberHandle(SubClass owner, ExecutableElement method, int index, int opcode)
+    {
+        this.owner = owner;
+        this.member = method;
+        this.index = index;
+        this.opcode = opcode;
+        this.isStatic = method.getModifiers().contains(Modifier.STATIC);
+        this.argumentSize = argumentSize(isStatic, method.getParameters());
+        this.valueSize = size(method.getReturnType());
+    }
+    /**
+     * Returns the class whose constant pool index this is.
+     * @return
+     */
+    public SubClass getOwner()
+    {
+        return owner;
+    }
+    /**
+     * Returns the field or method element.
+     * @return
+     */
+    public Element getMember()
+    {
+        return member;
+    }
+
+    public ElementKind getKind()
+    {
+        return member.getKind();
+    }
+    /**
+     * Returns the constant pool index of Fieldref, Methodref or
+     * InterfaceMethodref
+     * @return
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+    /**
+     * Returns the instruction used for method invocation or for getting the
+     * field value.
+     * @return
+     */
+    public int getOpCode()
+    {
+        return opcode;
+    }
+
+    public boolean isStatic()
+    {
+        return isStatic;
+    }
+
+    public String getDescriptor()
+    {
+        return DescriptorCache.getDescriptor(member).getString();
+    }
+    /**
+     * Returns number of stack slots taken by method arguments including
+     * objectref. For fields returns 0.
+     * @return
+     */
+    public int getArgumentSize()
+    {
+        return argumentSize;
+    }
+    /**
+     * Returns number of stack slots taken by field value or method return
+     * value.
+     * @return
+     */
+    public int getValueSize()
+    {
+        return valueSize;
+    }
+    /**
+     * Returns the change of operand stack depth for method invocation or for
+     * getting the field value.
+     * @return
+     */
+    public int getStackEffect()
+    {
+        if (member.getKind() == ElementKind.FIELD)
+        {
+            return isStatic ? valueSize : valueSize - 1;
+        }
+        return valueSize - argumentSize;
+    }
+
+    private static int argumentSize(boolean isStatic, List<? extends VariableElement> parameters)
+    {
+        int result = isStatic ? 0 : 1;
+        for (VariableElement parameter : parameters)
+        {
+            result += size(parameter.asType());
+        }
+        return result;
+    }
+
+    private static int size(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.VOID)
+        {
+            return 0;
+        }
+        return Typ.isCategory2(type) ? 2 : 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MemberHandle{" + member + " #" + index + '}';
+    }
+
+}
@@ -19,7 +19,10 @@ package org.vesalainen.bcc;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
@@ -49,7 +52,10 @@ public abstract class MethodCompiler extends Assembler
     private boolean compiled;
     private String subroutine;
     private boolean optimize = true;
+    private boolean instructionList;
+    private boolean useArena;
     private boolean dump;
+    private boolean stackMap;
     private final List<ExceptionTable> exceptionTableList = new ArrayList<>();
     private MethodInfo methodInfo;
     protected ExecutableElement executableElement;
@@ -57,6 +63,7 @@ public abstract class MethodCompiler extends Assembler
 
     protected MethodCompiler()
     {
+        super(false);
     }
 
     void startImplement(SubClass subClass, MethodInfo methodInfo) throws IOException
@@ -79,36 +86,87 @@ public abstract class MethodCompiler extends Assembler
             }
         }
         methodInfo.setMc(this);
-        implement();
-        assert !compiled;
-        compiled =true;
-        byte[] bb = getCode();
-        if (bb.length > 0xfffe)
-        {
-            throw new IllegalArgumentException("code size "+bb.length+" > 65534");
-        }
+        prepare(useArena);
         try
         {
-            fixLabels(bb);
+            implement();
+            assert !compiled;
+            compiled =true;
+            byte[] bb = getCode();
+            if (instructionList)
+            {
+                InstructionList list = new InstructionList(bb, this);
+                optimize(list);
+                bb = list.getCode();
+                relocate(list.getPositions());
+            }
+            if (bb.length > 0xfffe)
+            {
+                throw new IllegalArgumentException("code size "+bb.length+" > 65534");
+            }
+            try
+            {
+                bb = fixLabels(bb);
+            }
+            catch (BranchException ex)
+            {
+                ByteCodeDump bcd = new ByteCodeDump(bb, subClass);
+                bcd.print(this);
+                throw ex;
+            }
+            stackMap = !exceptionTableList.isEmpty();
+            for (Label label : liveLabels())
+            {
+                stackMap |= !label.getBranches().isEmpty();
+            }
+            if (dump)
+            {
+                ByteCodeDump bcd = new ByteCodeDump(bb, subClass);
+                bcd.print(this);
+            }
+            ExceptionTable[] exceptionTable = exceptionTableList.toArray(new ExceptionTable[exceptionTableList.size()]);
+            ByteCodeVerifier ver;
+            EmissionArena arena = getArena();
+            if (arena != null)
+            {
+                ver = arena.getVerifier();
+                ver.reset(bb, exceptionTable, subClass, this);
+            }
+            else
+            {
+                ver = new ByteCodeVerifier(bb, exceptionTable, subClass, this);
+            }
+            ver.verify();
+            code.setCode(bb, exceptionTable);
+            code.setMax_locals(localSize()+1);
+            code.setMax_stack(ver.getMaxStack());
+            code.addLocalVariables(localVariables);
         }
-        catch (BranchException ex)
+        finally
         {
-            ByteCodeDump bcd = new ByteCodeDump(bb, subClass);
-            bcd.print(this);
-            throw ex;
+            releaseArena();
         }
-        if (dump)
+    }
+    /**
+     * Moves exception table blocks after branches were grown.
+     * @param positions
+     */
+    @Override
+    protected void relocate(int[] positions)
+    {
+        Set<Block> blocks = Collections.newSetFromMap(new IdentityHashMap<Block,Boolean>());
+        for (ExceptionTable et : exceptionTableList)
         {
-            ByteCodeDump bcd = new ByteCodeDump(bb, subClass);
-            bcd.print(this);
+            Block block = et.getBlock();
+            if (blocks.add(block))
+            {
+                block.start = positions[block.start];
+                if (block.end != -1)
+                {
+                    block.end = positions[block.end];
+                }
+            }
         }
-        ExceptionTable[] exceptionTable = exceptionTableList.toArray(new ExceptionTable[exceptionTableList.size()]);
-        ByteCodeVerifier ver = new ByteCodeVerifier(bb, exceptionTable, subClass, this);
-        ver.verify();
-        code.setCode(bb, exceptionTable);
-        code.setMax_locals(localSize()+1);
-        code.setMax_stack(ver.getMaxStack());
-        code.addLocalVariables(localVariables);
     }
     public ExecutableElement getExecutableElement()
     {
@@ -133,6 +191,49 @@ public abstract class MethodCompiler extends Assembler
         this.optimize = optimize;
     }
 
+    /**
+     * Sets instruction list mode. In this mode code is converted to
+     * InstructionList after implement, optimized and written back before
+     * labels are fixed.
+     * @param instructionList
+     * @see #optimize(org.vesalainen.bcc.InstructionList) 
+     */
+    public void setInstructionList(boolean instructionList)
+    {
+        this.instructionList = instructionList;
+    }
+    /**
+     * Sets arena mode. In arena mode code buffer, labels, type helpers and
+     * verifier are taken from thread's free list when method compilation
+     * starts and returned when it ends. Compiler must not be used to emit
+     * code after its method is compiled.
+     * @param useArena
+     * @see EmissionArena
+     */
+    public void setUseArena(boolean useArena)
+    {
+        this.useArena = useArena;
+    }
+    /**
+     * Returns true if compiled code has branch targets or exception handlers.
+     * In class versions above 50 such code needs StackMapTable.
+     * @return 
+     */
+    boolean needsStackMap()
+    {
+        return stackMap;
+    }
+    /**
+     * Optimizes code in instruction list mode. Default implementation
+     * threads jumps to goto.
+     * @param list
+     * @throws IOException 
+     */
+    protected void optimize(InstructionList list) throws IOException
+    {
+        list.threadJumps();
+    }
+
     public String getMethodDescription()
     {
         return methodInfo.getSimpleName().toString()+methodInfo.getDescriptor();
@@ -680,19 +781,19 @@ public abstract class MethodCompiler extends Assembler
     }
     /**
      * Labels a current position
-     * @param name
+     * @param label
      * @throws IOException
      */
     @Override
-    public void fixAddress(String name) throws IOException
+    public void fixAddress(Label label) throws IOException
     {
-        super.fixAddress(name);
+        super.fixAddress(label);
         if (debugMethod != null)
         {
             int position = position();
             tload("this");
             ldc(position);
-            ldc(name);
+            ldc(label.toString());
             invokevirtual(debugMethod);
         }
     }
@@ -1163,6 +1264,134 @@ public abstract class MethodCompiler extends Assembler
         invokestatic(index);
     }
 
+    /**
+     * Returns a handle to field resolved in constant pool of this class.
+     * @param cls
+     * @param name
+     * @return 
+     * @see #getField(org.vesalainen.bcc.MemberHandle) 
+     * @see #putField(org.vesalainen.bcc.MemberHandle) 
+     */
+    public MemberHandle resolveField(Class<?> cls, String name)
+    {
+        return subClass.getMemberHandle(El.getField(cls, name));
+    }
+    /**
+     * Returns a handle to method resolved in constant pool of this class.
+     * @param cls
+     * @param name
+     * @param parameters
+     * @return 
+     * @see #invoke(org.vesalainen.bcc.MemberHandle) 
+     */
+    public MemberHandle resolveMethod(Class<?> cls, String name, Class<?>... parameters)
+    {
+        return subClass.getMemberHandle(El.getMethod(cls, name, parameters));
+    }
+    /**
+     * Returns a handle to constructor resolved in constant pool of this class.
+     * @param cls
+     * @param parameters
+     * @return 
+     * @see #invoke(org.vesalainen.bcc.MemberHandle) 
+     */
+    public MemberHandle resolveConstructor(Class<?> cls, Class<?>... parameters)
+    {
+        return subClass.getMemberHandle(El.getConstructor(cls, parameters));
+    }
+    /**
+     * Invoke resolved method or constructor. No lookups are made.
+     * <p>Stack: ..., [objectref], [arg1, [arg2 ...]] =&gt; ...
+     * @param method
+     * @throws IOException 
+     */
+    public void invoke(MemberHandle method) throws IOException
+    {
+        checkHandle(method);
+        switch (method.getOpCode())
+        {
+            case INVOKESPECIAL:
+                invokespecial(method.getIndex());
+                break;
+            case INVOKESTATIC:
+                invokestatic(method.getIndex());
+                break;
+            case INVOKEVIRTUAL:
+                invokevirtual(method.getIndex());
+                break;
+            case INVOKEINTERFACE:
+                invokeinterface(method.getIndex(), method.getArgumentSize());
+                break;
+            default:
+                throw new IllegalArgumentException(method+" is not a method");
+        }
+    }
+    /**
+     * Fetch resolved field from object. No lookups are made.
+     * <p>Stack: ..., objectref =&gt; ..., value
+     * @param field
+     * @throws IOException 
+     */
+    public void getField(MemberHandle field) throws IOException
+    {
+        checkField(field, false);
+        getfield(field.getIndex());
+    }
+    /**
+     * Fetch resolved static field from class. No lookups are made.
+     * <p>Stack: ..., =&gt; ..., value
+     * @param field
+     * @throws IOException 
+     */
+    public void getStaticField(MemberHandle field) throws IOException
+    {
+        checkField(field, true);
+        getstatic(field.getIndex());
+    }
+    /**
+     * Set resolved field in object. No lookups are made.
+     * <p>Stack: ..., objectref, value =&gt; ...
+     * @param field
+     * @throws IOException 
+     */
+    public void putField(MemberHandle field) throws IOException
+    {
+        checkField(field, false);
+        putfield(field.getIndex());
+    }
+    /**
+     * Set resolved static field in class. No lookups are made.
+     * <p>Stack: ..., value =&gt; ...
+     * @param field
+     * @throws IOException 
+     */
+    public void putStaticField(MemberHandle field) throws IOException
+    {
+        checkField(field, true);
+        putstatic(field.getIndex());
+    }
+
+    private void checkField(MemberHandle field, boolean isStatic)
+    {
+        checkHandle(field);
+        if (field.getKind() != ElementKind.FIELD)
+        {
+            throw new IllegalArgumentException(field+" is not a field");
+        }
+        if (field.isStatic() != isStatic)
+        {
+            throw new IllegalArgumentException(field+(isStatic ? " is not static" : " is static"));
+        }
+    }
+
+    private void checkHandle(MemberHandle handle)
+    {
+        if (handle.getOwner() != subClass)
+        {
+            throw new IllegalArgumentException(handle+" was resolved in "+handle.getOwner());
+        }
+    }
+
     private int argumentCount(List<? extends VariableElement> parameters)
     {
         int result = 1; // this
@@ -1294,7 +1523,7 @@ public abstract class MethodCompiler extends Assembler
      */
     public void optimizedSwitch(LookupList list) throws IOException
     {
-        String def = createBranch();
+        Label def = newLabel();
         optimizedSwitch(def, list);
         fixAddress(def);
         anew(SwitchException.class);
@@ -1311,6 +1540,18 @@ public abstract class MethodCompiler extends Assembler
      * @throws IOException
      */
     public void optimizedSwitch(String def, LookupList list) throws IOException
+    {
+        optimizedSwitch(getLabel(def), list);
+    }
+    /**
+     * Compiles a tableswitch, lookupswitch or if/goto depending on contents of
+     * LookupList.
+     * <p>Stack: ..., index =&gt; ...,
+     * @param def
+     * @param list
+     * @throws IOException
+     */
+    public void optimizedSwitch(Label def, LookupList list) throws IOException
     {
         if (list.isEmpty())
         {
@@ -1331,7 +1572,7 @@ public abstract class MethodCompiler extends Assembler
             {
                 for (LookupPair lp : list)
                 {
-                    String next = createBranch();
+                    Label next = newLabel();
                     dup();
                     iconst(lp.getMatch());
                     if_icmpne(next);
@@ -1346,13 +1587,13 @@ public abstract class MethodCompiler extends Assembler
             {
                 if (list.isContiguous())    // note! list is sorted at this point
                 {
-                    String[] symbols = new String[list.size()];
+                    Label[] targets = new Label[list.size()];
                     int index = 0;
                     for (LookupPair lp : list)
                     {
-                        symbols[index++] = lp.getTarget();
+                        targets[index++] = getLabel(lp.getTarget());
                     }
-                    tableswitch(def, list.get(0).getMatch(), list.get(list.size()-1).getMatch(), symbols);
+                    tableswitch(def, list.get(0).getMatch(), list.get(list.size()-1).getMatch(), targets);
                 }
                 else
                 {
@@ -1369,7 +1610,7 @@ public abstract class MethodCompiler extends Assembler
      */
     public void lookupswitch(LookupList list) throws IOException
     {
-        String def = createBranch();
+        Label def = newLabel();
         lookupswitch(def, list);
         fixAddress(def);
         anew(SwitchException.class);
@@ -1399,8 +1640,14 @@ public abstract class MethodCompiler extends Assembler
      */
     public void tableswitch(int low, int high, String... symbols) throws IOException
     {
-        String def = createBranch();
-        tableswitch(def, low, high, symbols);
+        Label def = newLabel();
+        Label[] targets = new Label[symbols.length];
+        int index = 0;
+        for (String symbol : symbols)
+        {
+            targets[index++] = getLabel(symbol);
+        }
+        tableswitch(def, low, high, targets);
         fixAddress(def);
         anew(SwitchException.class);
         dup();
@@ -1643,17 +1890,31 @@ public abstract class MethodCompiler extends Assembler
      */
     public void addExceptionHandler(Block block, String handler, Class<? extends Throwable>... catchTypes)
     {
-        Label label = getLabel(handler);
+        addExceptionHandler(block, getLabel(handler), catchTypes);
+    }
+
+    /**
+     * Adds an exception handler. If one of catchTypes is thrown inside block the
+     * execution continues at handler address. Thrown object is pushed in stack.
+     * 
+     * @param block 
+     * @param handler
+     * @param catchTypes Throwable objects which are caught. If none is present then 
+     * all throwables are caught. Note! This is not the same as finally!
+     */
+    @SafeVarargs
+    public final void addExceptionHandler(Block block, Label handler, Class<? extends Throwable>... catchTypes)
+    {
         if (catchTypes.length > 0)
         {
             for (Class<? extends Throwable> catchType : catchTypes)
             {
-                exceptionTableList.add(new ExceptionTable(block, label, subClass.resolveClassIndex(catchType)));
+                exceptionTableList.add(new ExceptionTable(block, handler, subClass.resolveClassIndex(catchType)));
             }
         }
         else
         {
-            exceptionTableList.add(new ExceptionTable(block, label, 0));
+            exceptionTableList.add(new ExceptionTable(block, handler, 0));
         }
     }
 
@@ -1668,17 +1929,30 @@ public abstract class MethodCompiler extends Assembler
      */
     public void addExceptionHandler(Block block, String handler, List<? extends TypeMirror> thrownTypes)
     {
-        Label label = getLabel(handler);
+        addExceptionHandler(block, getLabel(handler), thrownTypes);
+    }
+
+    /**
+     * Adds an exception handler. If one of catchTypes is thrown inside block the
+     * execution continues at handler address. Thrown object is pushed in stack.
+     * 
+     * @param block 
+     * @param handler
+     * @param thrownTypes Throwable objects which are caught. If none is present then 
+     * all throwables are caught. Note! This is not the same as finally!
+     */
+    public void addExceptionHandler(Block block, Label handler, List<? extends TypeMirror> thrownTypes)
+    {
         if (!thrownTypes.isEmpty())
         {
             for (TypeMirror thrownType : thrownTypes)
             {
-                exceptionTableList.add(new ExceptionTable(block, label, subClass.resolveClassIndex((TypeElement)Typ.asElement(thrownType))));
+                exceptionTableList.add(new ExceptionTable(block, handler, subClass.resolveClassIndex((TypeElement)Typ.asElement(thrownType))));
             }
         }
         else
         {
-            exceptionTableList.add(new ExceptionTable(block, label, 0));
+            exceptionTableList.add(new ExceptionTable(block, handler, 0));
         }
     }
 
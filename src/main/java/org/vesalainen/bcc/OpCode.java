@@ -221,6 +221,7 @@ public interface OpCode
     public static final int INVOKESPECIAL = 0xb7;
     public static final int INVOKESTATIC = 0xb8;
     public static final int INVOKEINTERFACE = 0xb9;
+    public static final int INVOKEDYNAMIC = 0xba;
     public static final int NEW = 0xbb;
     public static final int NEWARRAY = 0xbc;
     public static final int ANEWARRAY = 0xbd;
@@ -394,6 +394,8 @@ public class OpCodeUtil implements OpCode
                 return "invokestatic";
             case INVOKEINTERFACE:
                 return "invokeinterface";
+            case INVOKEDYNAMIC:
+                return "invokedynamic";
             case NEW:
                 return "new";
             case NEWARRAY:
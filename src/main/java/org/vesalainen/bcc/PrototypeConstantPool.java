@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.vesalainen.bcc.ConstantInfo.Filler;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+
+/**
+ * Immutable snapshot of constant pool. Used as a starting point for pools of
+ * similar classes.
+ *
+ * <p>Since nothing is changed after construction, prototype can be shared by
+ * any number of threads without locking.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ * @see ConcurrentConstantPool#ConcurrentConstantPool(org.vesalainen.bcc.PrototypeConstantPool)
+ */
+public final class PrototypeConstantPool extends ConstantPool
+{
+    private final ConstantInfo[] entries;
+    private final Map<ConstantInfo,Integer> indexMap;
+    /**
+     * Creates a snapshot of pool. Pool must not be changed during this call.
+     * @param pool
+     */
+    public PrototypeConstantPool(ConstantPool pool)
+    {
+        int size = pool.size();
+        entries = new ConstantInfo[size];
+        indexMap = new HashMap<>(size*2);
+        for (int index=1;index<=size;index++)
+        {
+            ConstantInfo ci = pool.getConstantInfo(index);
+            entries[index-1] = ci;
+            if (pool.getTag(index) != 0 && !indexMap.containsKey(ci))
+            {
+                indexMap.put(ci, index);
+            }
+        }
+    }
+
+    @Override
+    int indexOf(ConstantInfo ci)
+    {
+        Integer index = indexMap.get(ci);
+        if (index == null)
+        {
+            return -1;
+        }
+        return index;
+    }
+
+    @Override
+    int resolve(ConstantInfo ci)
+    {
+        int index = indexOf(ci);
+        if (index == -1)
+        {
+            throw new UnsupportedOperationException("prototype is immutable");
+        }
+        return index;
+    }
+
+    @Override
+    int add(ConstantInfo ci)
+    {
+        throw new UnsupportedOperationException("prototype is immutable");
+    }
+
+    @Override
+    public ConstantInfo getConstantInfo(int index)
+    {
+        return entries[index-1];
+    }
+
+    @Override
+    public int getTag(int index)
+    {
+        ConstantInfo ci = entries[index-1];
+        if (ci instanceof Filler)
+        {
+            return 0;
+        }
+        return ci.getTag();
+    }
+
+    @Override
+    public String getString(int index)
+    {
+        Utf8 utf8 = (Utf8) entries[index-1];
+        return utf8.getString();
+    }
+
+    @Override
+    public int size()
+    {
+        return entries.length;
+    }
+
+}
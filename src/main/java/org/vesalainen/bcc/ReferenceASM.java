@@ -24,7 +24,7 @@ import java.util.Map;
  *
  * @author Timo Vesalainen <timo.vesalainen@iki.fi>
  */
-public class ReferenceASM extends Assembler implements TypeASM
+public class ReferenceASM extends Assembler implements LabelTypeASM
 {
 
     ReferenceASM(CodeDataOutput out, Map<String, Label> labels)
@@ -109,7 +109,7 @@ public class ReferenceASM extends Assembler implements TypeASM
                 break;
         }
     }
-    public void if_tcmpeq(String target) throws IOException
+    public void if_tcmpeq(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -126,7 +126,11 @@ public class ReferenceASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
-    public void if_tcmpne(String target) throws IOException
+    public void if_tcmpeq(String target) throws IOException
+    {
+        if_tcmpeq(getLabel(target));
+    }
+    public void if_tcmpne(Label target) throws IOException
     {
         if (wideIndex)
         {
@@ -143,6 +147,10 @@ public class ReferenceASM extends Assembler implements TypeASM
             out.writeShort(branch);
         }
     }
+    public void if_tcmpne(String target) throws IOException
+    {
+        if_tcmpne(getLabel(target));
+    }
 
     public void tipush(int b) throws IOException
     {
@@ -259,19 +267,39 @@ public class ReferenceASM extends Assembler implements TypeASM
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmplt(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmpge(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpge(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmpgt(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmpgt(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     public void if_tcmple(String target) throws IOException
     {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    public void if_tcmple(Label target) throws IOException
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
 }
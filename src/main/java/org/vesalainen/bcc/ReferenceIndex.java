@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.NameAndType;
+import org.vesalainen.bcc.ConstantInfo.Ref;
+
+/**
+ * Index of class and member references of all classes in class path. Index
+ * is built in one pass reading only constant pools. Class references come
+ * from Class constants, member references from Fieldref, Methodref and
+ * InterfaceMethodref constants. Class referencing itself is not recorded as
+ * class reference. Member references within a class are recorded.
+ *
+ * <p>Class names are internal names like java/lang/String. Array classes
+ * are recorded as their element class.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+public class ReferenceIndex
+{
+    private final Map<String,Set<String>> referenced = new HashMap<>();
+    private final Map<String,Set<String>> referencing = new HashMap<>();
+    private final Map<Member,Set<String>> memberReferencing = new HashMap<>();
+    /**
+     * Builds index of all classes in class path.
+     * @param classPath
+     * @throws IOException 
+     */
+    public ReferenceIndex(File... classPath) throws IOException
+    {
+        try (ClassFinder finder = new ClassFinder(classPath))
+        {
+            build(finder);
+        }
+    }
+    /**
+     * Builds index of all classes found by finder.
+     * @param finder
+     * @throws IOException 
+     */
+    public ReferenceIndex(ClassFinder finder) throws IOException
+    {
+        build(finder);
+    }
+
+    private void build(ClassFinder finder) throws IOException
+    {
+        for (String classname : finder.getClassnames())
+        {
+            ClassFile cf = finder.find(classname);
+            add(classname, cf);
+        }
+    }
+
+    private void add(String classname, ClassFile cf)
+    {
+        ConstantPool cp = cf.constant_pool;
+        Set<String> classes = new HashSet<>();
+        int size = cp.size();
+        for (int index=1;index<=size;index++)
+        {
+            switch (cp.getTag(index))
+            {
+                case ConstantInfo.CONSTANT_Class:
+                    Clazz clazz = (Clazz) cp.getConstantInfo(index);
+                    String name = elementClass(cp.getString(clazz.getName_index()));
+                    if (name != null && !name.equals(classname))
+                    {
+                        classes.add(name);
+                    }
+                    break;
+                case ConstantInfo.CONSTANT_Fieldref:
+                case ConstantInfo.CONSTANT_Methodref:
+                case ConstantInfo.CONSTANT_InterfaceMethodref:
+                    Ref ref = (Ref) cp.getConstantInfo(index);
+                    Clazz owner = (Clazz) cp.getConstantInfo(ref.getClass_index());
+                    NameAndType nat = (NameAndType) cp.getConstantInfo(ref.getName_and_type_index());
+                    Member member = new Member(
+                            cp.getString(owner.getName_index()),
+                            cp.getString(nat.getName_index()),
+                            cp.getString(nat.getDescriptor_index())
+                            );
+                    put(memberReferencing, member, classname);
+                    break;
+            }
+        }
+        referenced.put(classname, Collections.unmodifiableSet(classes));
+        for (String name : classes)
+        {
+            put(referencing, name, classname);
+        }
+    }
+
+    private static <K> void put(Map<K,Set<String>> map, K key, String classname)
+    {
+        Set<String> set = map.get(key);
+        if (set == null)
+        {
+            set = new HashSet<>();
+            map.put(key, set);
+        }
+        set.add(classname);
+    }
+    /**
+     * Returns class name or element class name of array or null for
+     * primitive array.
+     */
+    static String elementClass(String name)
+    {
+        if (!name.startsWith("["))
+        {
+            return name;
+        }
+        int index = name.lastIndexOf('[')+1;
+        if (name.charAt(index) == 'L')
+        {
+            return name.substring(index+1, name.length()-1);
+        }
+        return null;
+    }
+    /**
+     * Returns names of indexed classes.
+     * @return 
+     */
+    public Set<String> getClassnames()
+    {
+        return Collections.unmodifiableSet(referenced.keySet());
+    }
+    /**
+     * Returns classes referenced by class. 
+     * @param classname
+     * @return Empty set if class is not indexed.
+     */
+    public Set<String> getReferencedClasses(String classname)
+    {
+        Set<String> set = referenced.get(classname.replace('.', '/'));
+        if (set == null)
+        {
+            return Collections.emptySet();
+        }
+        return set;
+    }
+    /**
+     * Returns classes referencing class.
+     * @param classname
+     * @return 
+     */
+    public Set<String> getReferencingClasses(String classname)
+    {
+        return unmodifiable(referencing.get(classname.replace('.', '/')));
+    }
+    /**
+     * Returns classes referencing member through given owner class. Owner
+     * is the class in Fieldref, Methodref or InterfaceMethodref, which can
+     * be a subclass of the declaring class.
+     * @param owner
+     * @param name
+     * @param descriptor
+     * @return 
+     */
+    public Set<String> getReferencingClasses(String owner, String name, String descriptor)
+    {
+        return unmodifiable(memberReferencing.get(new Member(owner.replace('.', '/'), name, descriptor)));
+    }
+    /**
+     * Returns true if member is referenced by any indexed class.
+     * @param owner
+     * @param name
+     * @param descriptor
+     * @return 
+     * @see #getReferencingClasses(java.lang.String, java.lang.String, java.lang.String) 
+     */
+    public boolean isUsed(String owner, String name, String descriptor)
+    {
+        return memberReferencing.containsKey(new Member(owner.replace('.', '/'), name, descriptor));
+    }
+
+    private static Set<String> unmodifiable(Set<String> set)
+    {
+        if (set == null)
+        {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static final class Member
+    {
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+
+        public Member(String owner, String name, String descriptor)
+        {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = 7;
+            hash = 29 * hash + owner.hashCode();
+            hash = 29 * hash + name.hashCode();
+            hash = 29 * hash + descriptor.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass())
+            {
+                return false;
+            }
+            final Member other = (Member) obj;
+            return Objects.equals(owner, other.owner) && 
+                    Objects.equals(name, other.name) && 
+                    Objects.equals(descriptor, other.descriptor);
+        }
+
+    }
+}
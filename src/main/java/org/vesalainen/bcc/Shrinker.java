@@ -0,0 +1,578 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.NameAndType;
+import org.vesalainen.bcc.ConstantInfo.Ref;
+
+/**
+ * Removes classes, methods and fields which are not reachable from entry
+ * classes. Constant pool entries used only by removed members are dropped.
+ *
+ * <p>All members of entry classes are kept. Reachability is conservative:
+ * <ul>
+ * <li>Method or field is kept if a reachable method references a member
+ * with the same name and descriptor in any class.</li>
+ * <li>Static initializers are kept.</li>
+ * <li>Methods overriding Object methods and serialization members are
+ * kept.</li>
+ * <li>All members are kept for classes extending or implementing, directly
+ * or indirectly, a class outside class path, other than Object, and for
+ * classes using invokedynamic or other constants bootstrap methods refer
+ * to.</li>
+ * </ul>
+ * Classes and members used only through reflection must be given as entry
+ * classes. Only class files are written to jar.
+ * @author Timo Vesalainen <timo.vesalainen@iki.fi>
+ */
+public class Shrinker implements Closeable
+{
+    private static final Set<String> KEEP = new HashSet<>(Arrays.asList(
+            "<clinit>()V",
+            "toString()Ljava/lang/String;",
+            "hashCode()I",
+            "equals(Ljava/lang/Object;)Z",
+            "clone()Ljava/lang/Object;",
+            "finalize()V",
+            "writeObject(Ljava/io/ObjectOutputStream;)V",
+            "readObject(Ljava/io/ObjectInputStream;)V",
+            "readObjectNoData()V",
+            "writeReplace()Ljava/lang/Object;",
+            "readResolve()Ljava/lang/Object;",
+            "serialVersionUID:J",
+            "serialPersistentFields:[Ljava/io/ObjectStreamField;"
+            ));
+    private final ClassFinder finder;
+    private final Set<String> entries = new HashSet<>();
+    private Map<String,Info> infos;
+    private Set<String> reachable;
+    private Set<String> referenced;
+    private Map<String,List<Member>> members;
+    private Deque<Member> queue;
+    /**
+     * Creates shrinker for classes in class path.
+     * @param classPath
+     */
+    public Shrinker(File... classPath)
+    {
+        this.finder = new ClassFinder(classPath);
+    }
+    /**
+     * Adds entry class. All members of entry class are kept.
+     * @param classname
+     */
+    public void addEntry(String classname)
+    {
+        entries.add(classname.replace('.', '/'));
+    }
+    /**
+     * Writes reachable classes to jar.
+     * @param jar
+     * @return Kept class names and true for classes written unchanged
+     * @throws IOException
+     */
+    public SortedMap<String,Boolean> shrink(File jar) throws IOException
+    {
+        SortedMap<String,byte[]> classes = shrink();
+        SortedMap<String,Boolean> result = new TreeMap<>();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar)))
+        {
+            for (Map.Entry<String,byte[]> entry : classes.entrySet())
+            {
+                String classname = entry.getKey();
+                out.putNextEntry(new JarEntry(classname+".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+                result.put(classname, !infos.get(classname).shrunk);
+            }
+        }
+        return result;
+    }
+    /**
+     * Returns reachable classes as class file bytes.
+     * @return
+     * @throws IOException
+     */
+    public SortedMap<String,byte[]> shrink() throws IOException
+    {
+        if (entries.isEmpty())
+        {
+            throw new IllegalStateException("no entry classes");
+        }
+        infos = new HashMap<>();
+        reachable = new HashSet<>();
+        referenced = new HashSet<>();
+        members = new HashMap<>();
+        queue = new ArrayDeque<>();
+        for (String entry : entries)
+        {
+            if (!finder.contains(entry))
+            {
+                throw new IllegalArgumentException(entry+" not found");
+            }
+            reach(entry);
+        }
+        SortedMap<String,byte[]> result = new TreeMap<>();
+        boolean added = true;
+        while (added)
+        {
+            process();
+            result.clear();
+            added = false;
+            for (String classname : new ArrayList<>(reachable))
+            {
+                byte[] bytes = infos.get(classname).write();
+                result.put(classname, bytes);
+                // classes referenced only from attributes, like StackMapTable
+                for (String rn : new ClassFile(bytes).getReferencedClassnames())
+                {
+                    if (!reachable.contains(rn) && finder.contains(rn))
+                    {
+                        reach(rn);
+                        added = true;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        finder.close();
+    }
+
+    private void process() throws IOException
+    {
+        while (!queue.isEmpty())
+        {
+            Member member = queue.removeFirst();
+            for (String cn : member.classes)
+            {
+                reach(cn);
+            }
+            for (String sig : member.references)
+            {
+                if (referenced.add(sig))
+                {
+                    List<Member> list = members.get(sig);
+                    if (list != null)
+                    {
+                        for (Member m : list)
+                        {
+                            keep(m);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void reach(String classname) throws IOException
+    {
+        if (reachable.contains(classname) || !finder.contains(classname))
+        {
+            return;
+        }
+        reachable.add(classname);
+        Info info = info(classname);
+        keep(info.header);
+        boolean keepAll = entries.contains(classname) || info.dynamic || isExternal(info);
+        for (Map.Entry<String,Member> entry : info.members.entrySet())
+        {
+            String sig = entry.getKey();
+            Member member = entry.getValue();
+            List<Member> list = members.get(sig);
+            if (list == null)
+            {
+                list = new ArrayList<>();
+                members.put(sig, list);
+            }
+            list.add(member);
+            if (keepAll || KEEP.contains(sig) || referenced.contains(sig))
+            {
+                keep(member);
+            }
+        }
+    }
+
+    /**
+     * Returns info of class in class path. Infos are created once, also for
+     * super classes which are not reachable.
+     * @param classname
+     * @return
+     * @throws IOException
+     */
+    private Info info(String classname) throws IOException
+    {
+        Info info = infos.get(classname);
+        if (info == null)
+        {
+            info = new Info(finder.find(classname));
+            infos.put(classname, info);
+        }
+        return info;
+    }
+    /**
+     * Returns true if some super class or interface, direct or indirect, is
+     * outside class path. Methods of such class can be called from outside
+     * through overridden or implemented methods.
+     * @param info
+     * @return
+     * @throws IOException
+     */
+    private boolean isExternal(Info info) throws IOException
+    {
+        if (info.external == null)
+        {
+            boolean external = false;
+            for (String cn : info.supers)
+            {
+                if (!"java/lang/Object".equals(cn))
+                {
+                    if (!finder.contains(cn) || isExternal(info(cn)))
+                    {
+                        external = true;
+                        break;
+                    }
+                }
+            }
+            info.external = external;
+        }
+        return info.external;
+    }
+
+    private void keep(Member member)
+    {
+        if (member != null && !member.kept)
+        {
+            member.kept = true;
+            queue.add(member);
+        }
+    }
+
+    private static void descriptorClasses(String descriptor, Set<String> set)
+    {
+        int index = descriptor.indexOf('L');
+        while (index != -1)
+        {
+            int end = descriptor.indexOf(';', index);
+            set.add(descriptor.substring(index+1, end));
+            index = descriptor.indexOf('L', end);
+        }
+    }
+    /**
+     * Field or method
+     */
+    private static class Member
+    {
+        private final int start;
+        private final int end;
+        private final Set<String> classes = new HashSet<>();
+        private final Set<String> references = new HashSet<>();
+        private boolean kept;
+
+        public Member(int start, int end, String descriptor)
+        {
+            this.start = start;
+            this.end = end;
+            descriptorClasses(descriptor, classes);
+        }
+
+    }
+    /**
+     * Members and references of a class collected with ClassReader.
+     */
+    private static class Info extends ClassVisitor implements OpCode
+    {
+        private final ByteBuffer bytes;
+        private final int bodyOffset;
+        private final Map<String,Member> members = new HashMap<>();
+        private final List<Member> fields = new ArrayList<>();
+        private final List<Member> methods = new ArrayList<>();
+        private final List<String> supers = new ArrayList<>();
+        private final List<Integer> refs = new ArrayList<>();
+        private final Member header = new Member(-1, -1, "");
+        private final List<Integer> starts = new ArrayList<>();
+        private final List<Integer> ends = new ArrayList<>();
+        private boolean shrunk;
+        private ConstantPool pool;
+        private boolean dynamic;
+        private Boolean external;
+        private Member current;
+
+        public Info(ClassFile cf)
+        {
+            ByteBuffer bb = cf.getClassBytes().duplicate();
+            bb.position(0);
+            this.bytes = bb.slice();
+            this.bodyOffset = cf.getBodyOffset();
+            new ClassReader(bytes).accept(this);
+        }
+
+        @Override
+        public void visitConstantPool(ConstantPool pool)
+        {
+            this.pool = pool;
+        }
+
+        @Override
+        public void visitConstant(int index, int tag)
+        {
+            switch (tag)
+            {
+                case ConstantInfo.CONSTANT_Fieldref:
+                case ConstantInfo.CONSTANT_Methodref:
+                case ConstantInfo.CONSTANT_InterfaceMethodref:
+                    refs.add(index);
+                    break;
+                default:
+                    if (tag >= ConstantInfo.CONSTANT_MethodHandle)
+                    {
+                        dynamic = true;
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces)
+        {
+            current = header;
+            if (superClass != 0)
+            {
+                supers.add(className(superClass));
+            }
+            for (int intf : interfaces)
+            {
+                supers.add(className(intf));
+            }
+            header.classes.addAll(supers);
+            if (dynamic)
+            {
+                // method handles refer to any of these
+                for (int index : refs)
+                {
+                    ref(index, pool.getTag(index) == ConstantInfo.CONSTANT_Fieldref);
+                }
+            }
+            // field and method offsets in visiting order
+            int pos = bodyOffset + 8 + 2*interfaces.length;
+            for (int jj=0;jj<2;jj++)
+            {
+                int count = bytes.getChar(pos);
+                pos += 2;
+                for (int ii=0;ii<count;ii++)
+                {
+                    starts.add(pos);
+                    pos = ClassFile.skipAttributes(bytes, pos+6);
+                    ends.add(pos);
+                }
+            }
+        }
+
+        @Override
+        public boolean visitField(int accessFlags, int nameIndex, int descriptorIndex)
+        {
+            String descriptor = pool.getString(descriptorIndex);
+            Member field = member(pool.getString(nameIndex)+':'+descriptor, descriptor);
+            fields.add(field);
+            return false;
+        }
+
+        @Override
+        public boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex)
+        {
+            String descriptor = pool.getString(descriptorIndex);
+            current = member(pool.getString(nameIndex)+descriptor, descriptor);
+            methods.add(current);
+            return true;
+        }
+
+        private Member member(String sig, String descriptor)
+        {
+            int index = fields.size()+methods.size();
+            Member member = new Member(starts.get(index), ends.get(index), descriptor);
+            members.put(sig, member);
+            return member;
+        }
+
+        @Override
+        public boolean visitCode(int maxStack, int maxLocals, int codeLength)
+        {
+            return true;
+        }
+
+        @Override
+        public void visitInstruction(int pc, int opcode, int operand, int operand2)
+        {
+            switch (opcode)
+            {
+                case GETSTATIC:
+                case PUTSTATIC:
+                case GETFIELD:
+                case PUTFIELD:
+                case INVOKEVIRTUAL:
+                case INVOKESPECIAL:
+                case INVOKESTATIC:
+                case INVOKEINTERFACE:
+                    ref(operand, opcode <= PUTFIELD);
+                    break;
+                case NEW:
+                case ANEWARRAY:
+                case CHECKCAST:
+                case INSTANCEOF:
+                case MULTIANEWARRAY:
+                    addClass(className(operand));
+                    break;
+                case LDC:
+                case LDC_W:
+                    if (pool.getTag(operand) == ConstantInfo.CONSTANT_Class)
+                    {
+                        addClass(className(operand));
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void visitExceptionHandler(int startPc, int endPc, int handlerPc, int catchType)
+        {
+            if (catchType != 0)
+            {
+                addClass(className(catchType));
+            }
+        }
+
+        private void ref(int index, boolean field)
+        {
+            Ref ref = (Ref) pool.getConstantInfo(index);
+            NameAndType nat = (NameAndType) pool.getConstantInfo(ref.getName_and_type_index());
+            String name = pool.getString(nat.getName_index());
+            String descriptor = pool.getString(nat.getDescriptor_index());
+            addClass(className(ref.getClass_index()));
+            descriptorClasses(descriptor, current.classes);
+            if (field)
+            {
+                current.references.add(name+':'+descriptor);
+            }
+            else
+            {
+                current.references.add(name+descriptor);
+            }
+        }
+
+        private void addClass(String name)
+        {
+            name = ReferenceIndex.elementClass(name);
+            if (name != null)
+            {
+                current.classes.add(name);
+            }
+        }
+
+        private String className(int index)
+        {
+            Clazz clazz = (Clazz) pool.getConstantInfo(index);
+            return pool.getString(clazz.getName_index());
+        }
+        /**
+         * Returns class bytes without removed members.
+         * @return
+         * @throws IOException
+         */
+        private byte[] write() throws IOException
+        {
+            shrunk = false;
+            for (Member member : members.values())
+            {
+                if (!member.kept)
+                {
+                    shrunk = true;
+                }
+            }
+            byte[] array = new byte[bytes.limit()];
+            ByteBuffer bb = bytes.duplicate();
+            bb.position(0);
+            bb.get(array);
+            if (!shrunk)
+            {
+                return array;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream(array.length);
+            DataOutputStream out = new DataOutputStream(body);
+            int fieldsStart = bodyOffset + 8 + 2*bytes.getChar(bodyOffset+6);
+            out.write(array, bodyOffset, fieldsStart-bodyOffset);
+            int attributesStart = writeMembers(out, array, fields, fieldsStart);
+            attributesStart = writeMembers(out, array, methods, attributesStart);
+            out.write(array, attributesStart, array.length-attributesStart);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(array.length);
+            DataOutputStream dos = new DataOutputStream(result);
+            dos.write(array, 0, 8);
+            new ConstantPoolCompactor(pool, body.toByteArray(), null).write(dos, false);
+            return result.toByteArray();
+        }
+        /**
+         * Writes count and kept members.
+         * @return Position after members in class bytes
+         */
+        private int writeMembers(DataOutputStream out, byte[] array, List<Member> list, int pos) throws IOException
+        {
+            int count = 0;
+            for (Member member : list)
+            {
+                if (member.kept)
+                {
+                    count++;
+                }
+            }
+            out.writeShort(count);
+            pos += 2;
+            for (Member member : list)
+            {
+                if (member.kept)
+                {
+                    out.write(array, member.start, member.end-member.start);
+                }
+                pos = member.end;
+            }
+            return pos;
+        }
+    }
+}
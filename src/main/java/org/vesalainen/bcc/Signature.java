@@ -27,8 +27,26 @@ import org.vesalainen.bcc.model.El;
  */
 public class Signature extends Descriptor
 {
-    
+    /**
+     * Returns signature of element. Signatures of fields, methods and 
+     * constructors are cached.
+     * @param element
+     * @return 
+     * @see DescriptorCache
+     */
     public static String getSignature(Element element)
+    {
+        switch (element.getKind())
+        {
+            case FIELD:
+            case CONSTRUCTOR:
+            case METHOD:
+                return DescriptorCache.getSignature(element);
+            default:
+                return createSignature(element);
+        }
+    }
+    static String createSignature(Element element)
     {
         try
         {
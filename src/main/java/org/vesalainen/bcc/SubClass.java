@@ -22,14 +22,17 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
@@ -80,9 +83,22 @@ public class SubClass extends ClassFile
     private final ReentrantLock fieldLock = new ReentrantLock();
     private final ReentrantLock attrLock = new ReentrantLock();
     private final ReentrantLock methodLock = new ReentrantLock();
-    private final ReentrantReadWriteLock constantLock = new ReentrantReadWriteLock();
-    private final ReadLock constantReadLock = constantLock.readLock();
-    private final WriteLock constantWriteLock = constantLock.writeLock();
+    private boolean ldcLayout;
+    /**
+     * Default constant pool size after which static methods are placed in
+     * companion classes.
+     */
+    public static final int SPILL_THRESHOLD = 0xc000;
+    private int spillThreshold = SPILL_THRESHOLD;
+    private SubClass family = this;
+    private final List<SubClass> companions = new ArrayList<>();
+    private final Map<String,Spill> spills = new HashMap<>();
+    private final Map<Integer,Integer> redirects = new ConcurrentHashMap<>();
+    private volatile boolean full;
+    private int accessFlags;
+    private List<ByteBuffer> rawFields;
+    private List<ByteBuffer> rawMethods;
+    private List<ByteBuffer> rawAttributes;
 
     public SubClass(Class<?> superClass, String qualifiedName, Modifier... modifiers) throws IOException
     {
@@ -90,7 +106,20 @@ public class SubClass extends ClassFile
     }
     public SubClass(TypeElement superClass, String qualifiedName, Modifier... modifiers) throws IOException
     {
-        super(superClass, qualifiedName, modifiers);
+        this(superClass, qualifiedName, new ConcurrentConstantPool(), modifiers);
+    }
+    /**
+     * Creates SubClass using given constant pool implementation. 
+     * CompactConstantPool uses less memory but serializes constant resolving.
+     * @param superClass
+     * @param qualifiedName
+     * @param constantPool
+     * @param modifiers
+     * @throws IOException 
+     */
+    public SubClass(TypeElement superClass, String qualifiedName, ConstantPool constantPool, Modifier... modifiers) throws IOException
+    {
+        super(superClass, qualifiedName, constantPool, modifiers);
         
         magic = 0xcafebabe;
         minor_version = 0;
@@ -99,32 +128,160 @@ public class SubClass extends ClassFile
         super_class = resolveClassIndex(superClass);
 
     }
-
-    @Override
-    public final void addAttribute(AttributeInfo ai)
+    /**
+     * Creates SubClass which rewrites an existing class. Constant pool starts
+     * with the constants of original in the same indexes, so fields, methods
+     * and attributes of original are written as raw bytes. Field or method
+     * defined with the same name and descriptor replaces the original one.
+     *
+     * <p>Original members are not visible as elements of this class. Super
+     * class must be available as an element.
+     *
+     * <p>Class version is never changed, because attributes like NestHost,
+     * NestMembers, Record or PermittedSubclasses are ignored in older
+     * versions. StackMapTable is not generated, so methods added to a class
+     * of version above 50 must not branch or catch exceptions. Writing such
+     * class throws IllegalStateException.
+     * @param original
+     * @throws IOException 
+     * @see ClassFile#ClassFile(java.nio.ByteBuffer) 
+     */
+    public SubClass(ClassFile original) throws IOException
     {
-        attrLock.lock();
-        try
+        this(
+                superClassOf(original), 
+                original.getQualifiedName().toString(), 
+                new ConcurrentConstantPool(new PrototypeConstantPool(original.constant_pool)), 
+                original.getModifiers().toArray(new Modifier[0])
+                );
+        ByteBuffer bb = original.getClassBytes();
+        minor_version = original.minor_version;
+        major_version = original.major_version;
+        this_class = original.this_class;
+        super_class = original.super_class;
+        int pos = original.getBodyOffset();
+        accessFlags = bb.getChar(pos);
+        int interfaces_count = bb.getChar(pos+6);
+        pos += 8;
+        for (int ii=0;ii<interfaces_count;ii++)
         {
-            super.addAttribute(ai);
+            interfaces.add((short) bb.getChar(pos));
+            pos += 2;
         }
-        finally
+        rawFields = new ArrayList<>();
+        int count = bb.getChar(pos);
+        pos += 2;
+        for (int ii=0;ii<count;ii++)
         {
-            attrLock.unlock();
+            pos = raw(bb, pos, ClassFile.skipAttributes(bb, pos+6), rawFields);
+        }
+        rawMethods = new ArrayList<>();
+        count = bb.getChar(pos);
+        pos += 2;
+        for (int ii=0;ii<count;ii++)
+        {
+            pos = raw(bb, pos, ClassFile.skipAttributes(bb, pos+6), rawMethods);
+        }
+        rawAttributes = new ArrayList<>();
+        count = bb.getChar(pos);
+        pos += 2;
+        for (int ii=0;ii<count;ii++)
+        {
+            pos = raw(bb, pos, pos + 6 + bb.getInt(pos+2), rawAttributes);
+        }
+    }
+    private static TypeElement superClassOf(ClassFile original)
+    {
+        if (original.getClassBytes() == null)
+        {
+            throw new IllegalArgumentException(original.getQualifiedName()+" is not read from class file");
+        }
+        if (original.super_class == 0)
+        {
+            throw new IllegalArgumentException(original.getQualifiedName()+" has no super class");
+        }
+        DeclaredType dt = (DeclaredType) original.getSuperclass();
+        return (TypeElement) dt.asElement();
+    }
+
+    private static int raw(ByteBuffer bb, int start, int end, List<ByteBuffer> list)
+    {
+        ByteBuffer dup = bb.duplicate();
+        dup.limit(end);
+        dup.position(start);
+        list.add(dup.slice());
+        return end;
+    }
+
+    /**
+     * Returns immutable snapshot of constant pool. Classes of the same family
+     * can start from it with new ConcurrentConstantPool(prototype), so that
+     * common constants are not resolved again. Call this after common
+     * constants are resolved and before other threads use this class.
+     * @return 
+     */
+    public PrototypeConstantPool createConstantPoolPrototype()
+    {
+        return new PrototypeConstantPool(constant_pool);
+    }
+    /**
+     * Sets constant pool size after which new static methods are defined in
+     * a generated companion class. Companion is named as this class followed
+     * by $ and a number and is in the same package. Calls to spilled methods
+     * are redirected to the companion when classes are written.
+     *
+     * <p>Threshold is checked when constants are added. Method is compiled
+     * completely in the class it was started in, so threshold must leave
+     * room for the largest method. Methods are spilled in definition order.
+     *
+     * <p>Only static methods are spilled. Constructors, instance methods and
+     * fields stay in this class. If they don't fit, IllegalStateException is
+     * thrown when constant pool is full.
+     *
+     * <p>Spilled method is compiled in the context of the companion. It can
+     * access fields and methods of this class only if they are not private.
+     * Private spilled method is package private in the companion.
+     * @param spillThreshold 
+     * @see #getCompanions() 
+     */
+    public void setSpillThreshold(int spillThreshold)
+    {
+        this.spillThreshold = spillThreshold;
+    }
+    /**
+     * Returns the generated companion classes. Companions are loaded and
+     * saved with this class.
+     * @return 
+     */
+    public List<SubClass> getCompanions()
+    {
+        synchronized(companions)
+        {
+            return new ArrayList<>(companions);
         }
     }
+    /**
+     * If set, constants loaded with ldc are placed first in constant pool
+     * when writing. Most used constants get the lowest indexes and ldc_w is
+     * replaced with shorter ldc where possible. Default is false.
+     * @param ldcLayout 
+     */
+    public void setLdcLayout(boolean ldcLayout)
+    {
+        this.ldcLayout = ldcLayout;
+    }
 
     @Override
-    protected int addConstantInfo(ConstantInfo ci, int fromIndex)
+    public final void addAttribute(AttributeInfo ai)
     {
-        constantWriteLock.lock();
+        attrLock.lock();
         try
         {
-            return super.addConstantInfo(ci, fromIndex);
+            super.addAttribute(ai);
         }
         finally
         {
-            constantWriteLock.unlock();
+            attrLock.unlock();
         }
     }
 
@@ -170,6 +327,29 @@ public class SubClass extends ClassFile
         }
     }
     
+    /**
+     * Returns the constant map index to constant info. If entry doesn't exist
+     * it is added. Concurrent calls with equal entries return the same index.
+     * @param ci
+     * @return 
+     */
+    private int resolveConstantInfo(ConstantInfo ci)
+    {
+        int index;
+        try
+        {
+            index = constant_pool.resolve(ci);
+        }
+        catch (IllegalStateException ex)
+        {
+            throw new IllegalStateException(getQualifiedName()+" constant pool is full. Only static methods are spilled to companion classes after spill threshold "+spillThreshold+". Constants of fields, constructors and instance methods must fit in the class itself.", ex);
+        }
+        if (index > spillThreshold)
+        {
+            full = true;
+        }
+        return index;
+    }
     /**
      * Returns the constant map index to field.
      * If entry doesn't exist it is created.
@@ -179,109 +359,109 @@ public class SubClass extends ClassFile
     int resolveFieldIndex(VariableElement field)
     {
         TypeElement declaringClass = (TypeElement) field.getEnclosingElement();
-        String descriptor = Descriptor.getDesriptor(field);
-        int index = resolveFieldIndex(declaringClass, field.getSimpleName().toString(), descriptor);
+        int ci = resolveClassIndex(declaringClass);
+        int nati = resolveNameAndTypeIndex(field.getSimpleName(), DescriptorCache.getDescriptor(field));
+        int index = resolveConstantInfo(new Fieldref(ci, nati));
         addIndexedElement(index, field);
         return index;
     }
     /**
-     * Returns the constant map index to field
+     * Returns the constant map index to method
      * If entry doesn't exist it is created.
-     * @param declaringClass
-     * @param name
-     * @param descriptor
+     * @param method
      * @return
      */
-    private int resolveFieldIndex(TypeElement declaringClass, String name, String descriptor)
+    int resolveMethodIndex(ExecutableElement method)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getRefIndex(Fieldref.class, declaringClass.getQualifiedName().toString(), name, descriptor);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index == -1)
+        TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
+        if (
+                method.getModifiers().contains(Modifier.STATIC) &&
+                declaringClass.getQualifiedName().contentEquals(family.getQualifiedName())
+                )
         {
-            // add entry to constant pool
-            int ci = resolveClassIndex(declaringClass);
-            int nati = resolveNameAndTypeIndex(name, descriptor);
-            return addConstantInfo(new Fieldref(ci, nati), size);
+            synchronized(family.spills)
+            {
+                Spill spill = family.spills.get(method.getSimpleName().toString()+Descriptor.getDesriptor(method));
+                if (spill != null)
+                {
+                    int index = resolveSpillIndex(spill);
+                    addIndexedElement(index, method);
+                    return index;
+                }
+                return resolveMethodIndex(declaringClass, method);
+            }
         }
+        return resolveMethodIndex(declaringClass, method);
+    }
+
+    private int resolveMethodIndex(TypeElement declaringClass, ExecutableElement method)
+    {
+        int ci = resolveClassIndex(declaringClass);
+        int nati = resolveNameAndTypeIndex(method.getSimpleName(), DescriptorCache.getDescriptor(method));
+        int index = resolveConstantInfo(new Methodref(ci, nati));
+        addIndexedElement(index, method);
         return index;
     }
+    /**
+     * Returns the constant map index to spilled method in companion.
+     * @param spill
+     * @return 
+     */
+    private int resolveSpillIndex(Spill spill)
+    {
+        int ci = resolveClassIndex(spill.companion);
+        int nati = resolveNameAndTypeIndex(spill.name, spill.descriptor);
+        return resolveConstantInfo(new Methodref(ci, nati));
+    }
     /**
      * Returns the constant map index to method
      * If entry doesn't exist it is created.
      * @param method
      * @return
      */
-    int resolveMethodIndex(ExecutableElement method)
+    int resolveInterfaceMethodIndex(ExecutableElement method)
     {
-         int size = 0;
-        int index = 0;
-        constantReadLock.lock();
         TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
-        String declaringClassname = declaringClass.getQualifiedName().toString();
-        String descriptor = Descriptor.getDesriptor(method);
-        String name = method.getSimpleName().toString();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getRefIndex(Methodref.class, declaringClassname, name, descriptor);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index == -1)
-        {
-            // add entry to constant pool
-            int ci = resolveClassIndex(declaringClass);
-            int nati = resolveNameAndTypeIndex(name, descriptor);
-            index = addConstantInfo(new Methodref(ci, nati), size);
-        }
+        int ci = resolveClassIndex(declaringClass);
+        int nati = resolveNameAndTypeIndex(method.getSimpleName(), DescriptorCache.getDescriptor(method));
+        int index = resolveConstantInfo(new InterfaceMethodref(ci, nati));
         addIndexedElement(index, method);
         return index;
     }
     /**
-     * Returns the constant map index to method
-     * If entry doesn't exist it is created.
+     * Resolves field into constant pool and returns a handle which can be
+     * used repeatedly in MethodCompiler get/put methods of this class.
+     * @param field
+     * @return
+     */
+    public MemberHandle getMemberHandle(VariableElement field)
+    {
+        return new MemberHandle(this, field, resolveFieldIndex(field));
+    }
+    /**
+     * Resolves method or constructor into constant pool and returns a handle
+     * which can be used repeatedly in MethodCompiler invoke method of this
+     * class. Invocation instruction is selected as in
+     * MethodCompiler.invoke(ExecutableElement)
      * @param method
      * @return
      */
-    int resolveInterfaceMethodIndex(ExecutableElement method)
+    public MemberHandle getMemberHandle(ExecutableElement method)
     {
-         int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        TypeElement declaringClass = (TypeElement) method.getEnclosingElement();
-        String declaringClassname = declaringClass.getQualifiedName().toString();
-        String descriptor = Descriptor.getDesriptor(method);
-        String name = method.getSimpleName().toString();
-        try
+        Set<Modifier> modifiers = method.getModifiers();
+        if (method.getKind() == ElementKind.CONSTRUCTOR || modifiers.contains(Modifier.PRIVATE))
         {
-            size = getConstantPoolSize();
-            index = getRefIndex(InterfaceMethodref.class, declaringClassname, name, descriptor);
+            return new MemberHandle(this, method, resolveMethodIndex(method), OpCode.INVOKESPECIAL);
         }
-        finally
+        if (modifiers.contains(Modifier.STATIC))
         {
-            constantReadLock.unlock();
+            return new MemberHandle(this, method, resolveMethodIndex(method), OpCode.INVOKESTATIC);
         }
-        if (index == -1)
+        if (method.getEnclosingElement().getKind() == ElementKind.INTERFACE)
         {
-            // add entry to constant pool
-            int ci = resolveClassIndex(declaringClass);
-            int nati = resolveNameAndTypeIndex(name, descriptor);
-            index = addConstantInfo(new InterfaceMethodref(ci, nati), size);
+            return new MemberHandle(this, method, resolveInterfaceMethodIndex(method), OpCode.INVOKEINTERFACE);
         }
-        addIndexedElement(index, method);
-        return index;
+        return new MemberHandle(this, method, resolveMethodIndex(method), OpCode.INVOKEVIRTUAL);
     }
     /**
      * Returns the constant map index to name
@@ -291,26 +471,7 @@ public class SubClass extends ClassFile
      */
     final int resolveNameIndex(CharSequence name)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getNameIndex(name);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        else
-        {
-            return addConstantInfo(new Utf8(name), size);
-        }
+        return resolveConstantInfo(new Utf8(name));
     }
     /**
      * Returns the constant map index to name and type
@@ -321,28 +482,22 @@ public class SubClass extends ClassFile
      */
     int resolveNameAndTypeIndex(String name, String descriptor)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getNameAndTypeIndex(name, descriptor);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        else
-        {
-            int nameIndex = resolveNameIndex(name);
-            int typeIndex = resolveNameIndex(descriptor);
-            return addConstantInfo(new NameAndType(nameIndex, typeIndex), size);
-        }
+        int nameIndex = resolveNameIndex(name);
+        int typeIndex = resolveNameIndex(descriptor);
+        return resolveConstantInfo(new NameAndType(nameIndex, typeIndex));
+    }
+    /**
+     * Returns the constant map index to name and type using cached descriptor
+     * If entry doesn't exist it is created.
+     * @param name
+     * @param descriptor
+     * @return
+     */
+    private int resolveNameAndTypeIndex(CharSequence name, Utf8 descriptor)
+    {
+        int nameIndex = resolveNameIndex(name);
+        int typeIndex = resolveConstantInfo(descriptor);
+        return resolveConstantInfo(new NameAndType(nameIndex, typeIndex));
     }
     /**
      * Returns the constant map index to class
@@ -362,24 +517,8 @@ public class SubClass extends ClassFile
      */
     public final int resolveClassIndex(TypeElement type)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getClassIndex(type);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index == -1)
-        {
-            String name = El.getInternalForm(type);
-            int nameIndex = resolveNameIndex(name);
-            index = addConstantInfo(new Clazz(nameIndex), size);
-        }
+        int nameIndex = resolveConstantInfo(DescriptorCache.getInternalName(type));
+        int index = resolveConstantInfo(new Clazz(nameIndex));
         addIndexedElement(index, type);
         return index;
     }
@@ -391,24 +530,8 @@ public class SubClass extends ClassFile
      */
     public final int resolveClassIndex(ArrayType arrayType)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getClassIndex(arrayType);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index == -1)
-        {
-            String name = Descriptor.getFieldDesriptor(arrayType);
-            int nameIndex = resolveNameIndex(name);
-            index = addConstantInfo(new Clazz(nameIndex), size);
-        }
+        int nameIndex = resolveNameIndex(Descriptor.getFieldDesriptor(arrayType));
+        int index = resolveConstantInfo(new Clazz(nameIndex));
         addIndexedElement(index, arrayType);
         return index;
     }
@@ -420,23 +543,7 @@ public class SubClass extends ClassFile
      */
     public final int resolveConstantIndex(int constant)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getConstantIndex(constant);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        return addConstantInfo(new ConstantInteger(constant), size);
+        return resolveConstantInfo(new ConstantInteger(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -446,23 +553,7 @@ public class SubClass extends ClassFile
      */
     public final int resolveConstantIndex(float constant)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getConstantIndex(constant);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        return addConstantInfo(new ConstantFloat(constant), size);
+        return resolveConstantInfo(new ConstantFloat(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -472,23 +563,7 @@ public class SubClass extends ClassFile
      */
     public final int resolveConstantIndex(double constant)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getConstantIndex(constant);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        return addConstantInfo(new ConstantDouble(constant), size);
+        return resolveConstantInfo(new ConstantDouble(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -498,23 +573,7 @@ public class SubClass extends ClassFile
      */
     public final int resolveConstantIndex(long constant)
     {
-        int size = 0;
-        int index = 0;
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getConstantIndex(constant);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        return addConstantInfo(new ConstantLong(constant), size);
+        return resolveConstantInfo(new ConstantLong(constant));
     }
     /**
      * Returns the constant map index to constant
@@ -524,24 +583,8 @@ public class SubClass extends ClassFile
      */
     public final int resolveConstantIndex(String constant)
     {
-        int size = 0;
-        int index = 0;
         int nameIndex = resolveNameIndex(constant);
-        constantReadLock.lock();
-        try
-        {
-            size = getConstantPoolSize();
-            index = getConstantIndex(constant);
-        }
-        finally
-        {
-            constantReadLock.unlock();
-        }
-        if (index != -1)
-        {
-            return index;
-        }
-        return addConstantInfo(new ConstantString(nameIndex), size);
+        return resolveConstantInfo(new ConstantString(nameIndex));
     }
 
     public void codeDefaultConstructor(final FieldInitializer... fis) throws IOException
@@ -795,6 +838,23 @@ public class SubClass extends ClassFile
     }
     private void defineMethod(MethodCompiler mc, Method method) throws IOException
     {
+        if (
+                family == this &&
+                method.getKind() == ElementKind.METHOD &&
+                method.getModifiers().contains(Modifier.STATIC) &&
+                (full || methods.size() >= 0xffff)
+                )
+        {
+            SubClass companion = getCompanion();
+            Method m = companion.new Method(method);
+            Set<Modifier> mod = EnumSet.noneOf(Modifier.class);
+            mod.addAll(method.getModifiers());
+            mod.remove(Modifier.PRIVATE);
+            m.setModifiers(mod);
+            companion.defineMethod(mc, m);
+            spill(new Spill(method.getSimpleName().toString(), Descriptor.getDesriptor(method), companion));
+            return;
+        }
         MethodInfo methodInfo = new MethodInfo(this, method);
         addMethodInfo(methodInfo);
         try
@@ -807,6 +867,85 @@ public class SubClass extends ClassFile
         }
         methodInfo.readyToWrite();
     }
+    /**
+     * Returns the companion which new static methods are spilled to.
+     * Companion is changed when it's constant pool is filled.
+     * @return
+     * @throws IOException 
+     */
+    private SubClass getCompanion() throws IOException
+    {
+        synchronized(companions)
+        {
+            if (!companions.isEmpty())
+            {
+                SubClass companion = companions.get(companions.size()-1);
+                if (!companion.full && companion.methods.size() < 0xffff)
+                {
+                    return companion;
+                }
+            }
+            SubClass companion = new SubClass(El.getTypeElement("java.lang.Object"), getQualifiedName()+"$"+(companions.size()+1), Modifier.FINAL);
+            companion.family = this;
+            companion.ldcLayout = ldcLayout;
+            companions.add(companion);
+            return companion;
+        }
+    }
+    /**
+     * Registers spilled method. Later references to it are resolved to the
+     * companion. Existing references in this class and companions are
+     * redirected to the companion when classes are written.
+     * @param spill 
+     */
+    private void spill(Spill spill)
+    {
+        synchronized(spills)
+        {
+            spills.put(spill.name+spill.descriptor, spill);
+            redirect(spill);
+            for (SubClass companion : getCompanions())
+            {
+                companion.redirect(spill);
+            }
+        }
+    }
+    /**
+     * Adds redirection from existing method ref of spilled method to
+     * companion method ref.
+     * @param spill 
+     */
+    private void redirect(Spill spill)
+    {
+        int old = getRefIndex(Methodref.class, family, spill.name, spill.descriptor);
+        if (old != -1)
+        {
+            redirects.put(old, resolveSpillIndex(spill));
+        }
+    }
+    /**
+     * Returns redirections from method refs of spilled methods to companion
+     * method refs or null if there is nothing to redirect. Constant pool is
+     * not changed.
+     * @return 
+     */
+    private int[] getSpillRedirect()
+    {
+        if (redirects.isEmpty())
+        {
+            return null;
+        }
+        int[] redirect = new int[constant_pool.size()+1];
+        for (int ii=0;ii<redirect.length;ii++)
+        {
+            redirect[ii] = ii;
+        }
+        for (Map.Entry<Integer,Integer> entry : redirects.entrySet())
+        {
+            redirect[entry.getKey()] = entry.getValue();
+        }
+        return redirect;
+    }
     public Object newInstance() throws IOException
     {
         try
@@ -826,15 +965,13 @@ public class SubClass extends ClassFile
     public Class<?> load() throws IOException
     {
         GenClassLoader cl = new GenClassLoader(superClass.getClass().getClassLoader());
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos))
-        {
-            write(dos);
-        }
-
         try
         {
-            Class<?> cls = cl.load(getQualifiedName().toString(), baos.toByteArray());
+            for (SubClass companion : getCompanions())
+            {
+                cl.load(companion.getQualifiedName().toString(), companion.toByteArray());
+            }
+            Class<?> cls = cl.load(getQualifiedName().toString(), toByteArray());
             return cls;
         }
         catch (Error er)
@@ -844,6 +981,16 @@ public class SubClass extends ClassFile
         }
     }
 
+    private byte[] toByteArray() throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(getConstantPoolByteSize()+1024);
+        try (DataOutputStream dos = new DataOutputStream(baos))
+        {
+            write(dos);
+        }
+        return baos.toByteArray();
+    }
+
     public void createSourceFile(ProcessingEnvironment env) throws IOException
     {
         Filer filer = env.getFiler();
@@ -900,28 +1047,51 @@ public class SubClass extends ClassFile
         write(dos);
         dos.close();
         System.err.println("wrote "+sourceFile.getName());
+        for (SubClass companion : getCompanions())
+        {
+            companion.save(env);
+        }
     }
 
     /**
-     * Writes the class
+     * Writes the class. Constant pool entries not referenced from class body
+     * are left out and indexes are renumbered.
      * @param out
      * @throws IOException
      */
     @Override
     public void write(DataOutput out) throws IOException
     {
-        addSignatureIfNeed();
+        if (rawMethods == null)
+        {
+            addSignatureIfNeed();
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeBody(new DataOutputStream(body));
         out.writeInt(magic);
         out.writeShort(minor_version);
-        out.writeShort(major_version);
-        out.writeShort(constant_pool.size()+1);
-        for (ConstantInfo ci : constant_pool)
+        out.writeShort(writeVersion());
+        int[] redirect = getSpillRedirect();
+        ConstantPoolCompactor compactor = new ConstantPoolCompactor(constant_pool, body.toByteArray(), redirect);
+        compactor.write(out, ldcLayout);
+    }
+    /**
+     * Writes class file items following the constant pool.
+     * @param out
+     * @throws IOException 
+     */
+    private void writeBody(DataOutput out) throws IOException
+    {
+        if (rawMethods != null)
         {
-            ci.write(out);
+            out.writeShort(accessFlags);
+        }
+        else
+        {
+            int modifier = ClassFlags.getModifier(getModifiers());
+            modifier |= ClassFlags.ACC_SYNTHETIC | ClassFlags.ACC_PUBLIC | ClassFlags.ACC_SUPER;
+            out.writeShort(modifier);
         }
-        int modifier = ClassFlags.getModifier(getModifiers());
-        modifier |= ClassFlags.ACC_SYNTHETIC | ClassFlags.ACC_PUBLIC | ClassFlags.ACC_SUPER;
-        out.writeShort(modifier);
         out.writeShort(this_class);
         out.writeShort(super_class);
         out.writeShort(interfaces.size());
@@ -929,17 +1099,39 @@ public class SubClass extends ClassFile
         {
             out.writeShort(ii);
         }
-        out.writeShort(fields.size());
+        List<ByteBuffer> rawFieldList = Collections.emptyList();
+        List<ByteBuffer> rawMethodList = Collections.emptyList();
+        List<ByteBuffer> rawAttributeList = Collections.emptyList();
+        if (rawMethods != null)
+        {
+            Set<Integer> fieldKeys = new HashSet<>();
+            for (FieldInfo fi : fields)
+            {
+                fieldKeys.add((resolveNameIndex(fi.getSimpleName())<<16) | resolveNameIndex(Descriptor.getDesriptor(fi)));
+            }
+            rawFieldList = notReplaced(rawFields, fieldKeys);
+            Set<Integer> methodKeys = new HashSet<>();
+            for (MethodInfo mi : methods)
+            {
+                methodKeys.add((mi.getName_index()<<16) | mi.getDescriptor_index());
+            }
+            rawMethodList = notReplaced(rawMethods, methodKeys);
+            rawAttributeList = rawAttributes;
+        }
+        out.writeShort(rawFieldList.size()+fields.size());
+        writeRaw(out, rawFieldList);
         for (FieldInfo fi : fields)
         {
             fi.write(out);
         }
-        out.writeShort(methods.size());
+        out.writeShort(rawMethodList.size()+methods.size());
+        writeRaw(out, rawMethodList);
         for (MethodInfo mi : methods)
         {
             mi.write(out);
         }
-        out.writeShort(attributes.size());
+        out.writeShort(rawAttributeList.size()+attributes.size());
+        writeRaw(out, rawAttributeList);
         for (AttributeInfo ai : attributes)
         {
             ai.write(out);
@@ -947,6 +1139,79 @@ public class SubClass extends ClassFile
 
     }
 
+    private static List<ByteBuffer> notReplaced(List<ByteBuffer> raws, Set<Integer> keys)
+    {
+        List<ByteBuffer> list = new ArrayList<>();
+        for (ByteBuffer raw : raws)
+        {
+            if (!keys.contains((raw.getChar(2)<<16) | raw.getChar(4)))
+            {
+                list.add(raw);
+            }
+        }
+        return list;
+    }
+
+    private static void writeRaw(DataOutput out, List<ByteBuffer> raws) throws IOException
+    {
+        byte[] buf = null;
+        for (ByteBuffer raw : raws)
+        {
+            ByteBuffer bb = raw.duplicate();
+            if (bb.hasArray())
+            {
+                out.write(bb.array(), bb.arrayOffset()+bb.position(), bb.remaining());
+            }
+            else
+            {
+                if (buf == null)
+                {
+                    buf = new byte[4096];
+                }
+                while (bb.hasRemaining())
+                {
+                    int count = Math.min(buf.length, bb.remaining());
+                    bb.get(buf, 0, count);
+                    out.write(buf, 0, count);
+                }
+            }
+        }
+    }
+    /**
+     * Returns the major version to write. Version of rewritten class is kept.
+     * @return 
+     * @throws IllegalStateException If added method needs StackMapTable.
+     */
+    private int writeVersion()
+    {
+        if (rawMethods != null && major_version > 50)
+        {
+            for (MethodInfo mi : methods)
+            {
+                MethodCompiler mc = mi.getMc();
+                if (mc != null && mc.needsStackMap())
+                {
+                    throw new IllegalStateException(mi.getSimpleName()+" branches or catches exceptions and needs StackMapTable. "+getQualifiedName()+" has version "+major_version+" which is kept");
+                }
+            }
+        }
+        return major_version;
+    }
+
+    private static class Spill
+    {
+        private final String name;
+        private final String descriptor;
+        private final SubClass companion;
+
+        public Spill(String name, String descriptor, SubClass companion)
+        {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.companion = companion;
+        }
+    }
+
     private void addSignatureIfNeed()
     {
         String signature = Signature.getSignature(this);
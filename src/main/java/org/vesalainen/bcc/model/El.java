@@ -447,8 +447,19 @@ public class El
         return elements.getName(cs);
     }
 
+    /**
+     * Returns internal form of class name. Names of nested classes are
+     * separated with '$' as in binary name. E.g. java/util/Map$Entry
+     * @param type
+     * @return 
+     */
     public static String getInternalForm(TypeElement type)
     {
+        Element enclosing = type.getEnclosingElement();
+        if (enclosing instanceof TypeElement)
+        {
+            return getInternalForm((TypeElement) enclosing)+'$'+type.getSimpleName();
+        }
         return type.getQualifiedName().toString().replace('.', '/');
     }
 
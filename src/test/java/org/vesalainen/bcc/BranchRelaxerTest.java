@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class BranchRelaxerTest
+{
+    @Test
+    public void testRelax() throws Exception
+    {
+        test(false);
+    }
+
+    @Test
+    public void testRelaxWideIndex() throws Exception
+    {
+        test(true);
+    }
+
+    @Test
+    public void testInvert()
+    {
+        assertEquals(OpCode.IFNE, BranchRelaxer.invert(OpCode.IFEQ));
+        assertEquals(OpCode.IFEQ, BranchRelaxer.invert(OpCode.IFNE));
+        assertEquals(OpCode.IFGE, BranchRelaxer.invert(OpCode.IFLT));
+        assertEquals(OpCode.IFLE, BranchRelaxer.invert(OpCode.IFGT));
+        assertEquals(OpCode.IF_ICMPNE, BranchRelaxer.invert(OpCode.IF_ICMPEQ));
+        assertEquals(OpCode.IF_ICMPGE, BranchRelaxer.invert(OpCode.IF_ICMPLT));
+        assertEquals(OpCode.IF_ACMPEQ, BranchRelaxer.invert(OpCode.IF_ACMPNE));
+        assertEquals(OpCode.IFNONNULL, BranchRelaxer.invert(OpCode.IFNULL));
+        assertEquals(OpCode.IFNULL, BranchRelaxer.invert(OpCode.IFNONNULL));
+    }
+
+    private void test(final boolean wide) throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Relax", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                setWideIndex(wide);
+                nameArgument("x", 1);
+                tload("x");
+                ifeq("zero");
+                tload("x");
+                iconst(1);
+                if_icmpeq("one");
+                tload("x");
+                tableswitch(2, 6, "two", "three", "four", "five", "last");
+                fixAddress("two");
+                ldc("two");
+                treturn();
+                fixAddress("six");
+                ldc("six");
+                treturn();
+                fixAddress("five");
+                Block block = startBlock();
+                iconst(10);
+                tload("x");
+                iconst(5);
+                isub();
+                idiv();
+                pop();
+                endBlock(block);
+                ldc("five");
+                treturn();
+                addExceptionHandler(block, "caught", ArithmeticException.class);
+                fixAddress("three");
+                // pushes following branch targets out of short range
+                for (int ii=0;ii<20000;ii++)
+                {
+                    iconst(1);
+                    pop();
+                    if (ii % 100 == 0)
+                    {
+                        Label label = newLabel();
+                        tload("x");
+                        ifne(label);
+                        fixAddress(label);
+                    }
+                }
+                ldc("three");
+                treturn();
+                fixAddress("zero");
+                ldc("zero");
+                treturn();
+                fixAddress("one");
+                ldc("one");
+                treturn();
+                fixAddress("four");
+                ldc("four");
+                treturn();
+                fixAddress("caught");
+                pop();
+                ldc("caught");
+                treturn();
+                fixAddress("last");
+                tload("x");
+                iconst(6);
+                if_icmpeq("six");
+                ldc("other");
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        Runner runner = (Runner) sc.newInstance();
+        String[] expected = {"zero", "one", "two", "three", "four", "caught", "six"};
+        for (int ii=0;ii<expected.length;ii++)
+        {
+            assertEquals(expected[ii], runner.run(ii));
+        }
+        try
+        {
+            runner.run(expected.length);
+            fail();
+        }
+        catch (SwitchException ex)
+        {
+        }
+    }
+}
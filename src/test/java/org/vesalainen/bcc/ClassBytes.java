@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Class file bytes for tests.
+ * @author Timo Vesalainen
+ */
+final class ClassBytes
+{
+    private ClassBytes()
+    {
+    }
+    /**
+     * Returns class file of loaded class.
+     * @param cls
+     * @return
+     * @throws IOException 
+     */
+    static byte[] read(Class<?> cls) throws IOException
+    {
+        String name = cls.getName().replace('.', '/')+".class";
+        try (InputStream is = cls.getClassLoader().getResourceAsStream(name))
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int rc = is.read(buf);
+            while (rc != -1)
+            {
+                baos.write(buf, 0, rc);
+                rc = is.read(buf);
+            }
+            return baos.toByteArray();
+        }
+    }
+    /**
+     * Returns class file written by cf.
+     * @param cf
+     * @return
+     * @throws IOException 
+     */
+    static byte[] write(ClassFile cf) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        cf.write(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+    /**
+     * Writes class file of loaded class under dir.
+     * @param dir
+     * @param cls
+     * @throws IOException 
+     */
+    static void writeClass(File dir, Class<?> cls) throws IOException
+    {
+        File file = new File(dir, cls.getName().replace('.', '/')+".class");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), read(cls));
+    }
+    /**
+     * Deletes file or directory tree.
+     * @param file 
+     */
+    static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
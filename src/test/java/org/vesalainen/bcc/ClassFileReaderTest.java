@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import javax.lang.model.element.Element;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ClassFileReaderTest
+{
+    @Test
+    public void testBuffer() throws Exception
+    {
+        byte[] bytes = ClassBytes.read(InterfaceCaller.class);
+        ByteBuffer bb = ByteBuffer.allocateDirect(bytes.length+20);
+        bb.position(10);
+        bb.put(bytes);
+        bb.position(10);
+        ClassFile cf = new ClassFile(bb);
+        assertEquals(InterfaceCaller.class.getName(), cf.getQualifiedName().toString());
+        assertTrue(cf.getReferencedClassnames().contains("java/util/Comparator"));
+        Set<String> names = new HashSet<>();
+        for (Element element : cf.getEnclosedElements())
+        {
+            MethodInfo mi = (MethodInfo) element;
+            names.add(cf.getString(mi.getName_index()));
+        }
+        assertTrue(names.contains("run"));
+        assertTrue(names.contains("compare"));
+        assertArrayEquals(bytes, ClassBytes.write(cf));
+    }
+
+    @Test
+    public void testMap() throws Exception
+    {
+        byte[] bytes = ClassBytes.read(InterfaceCaller.class);
+        File file = File.createTempFile("InterfaceCaller", ".class");
+        try
+        {
+            Files.write(file.toPath(), bytes);
+            ClassFile mapped = ClassFile.map(file);
+            ClassFile read = new ClassFile(bytes);
+            assertEquals(read.getQualifiedName().toString(), mapped.getQualifiedName().toString());
+            assertEquals(read.getEnclosedElements().size(), mapped.getEnclosedElements().size());
+            assertEquals(read.getReferencedClassnames(), mapped.getReferencedClassnames());
+            assertEquals(read.getNameIndex("compare"), mapped.getNameIndex("compare"));
+            assertArrayEquals(bytes, ClassBytes.write(mapped));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
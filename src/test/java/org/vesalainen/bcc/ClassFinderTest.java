@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ClassFinderTest
+{
+    @Test
+    public void testFind() throws Exception
+    {
+        File dir = Files.createTempDirectory("finder").toFile();
+        File classes = new File(dir, "classes");
+        File jar = new File(dir, "test.jar");
+        try
+        {
+            ClassBytes.writeClass(classes, Visited.class);
+            ClassBytes.writeClass(classes, Runner.class);
+            try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar)))
+            {
+                for (Class<?> cls : new Class<?>[] {Visited.class, InterfaceCaller.class})
+                {
+                    out.putNextEntry(new JarEntry(cls.getName().replace('.', '/')+".class"));
+                    out.write(ClassBytes.read(cls));
+                    out.closeEntry();
+                }
+            }
+            try (ClassFinder finder = new ClassFinder(classes, jar))
+            {
+                assertEquals(new HashSet<>(Arrays.asList(
+                        "org/vesalainen/bcc/Visited", 
+                        "org/vesalainen/bcc/Runner", 
+                        "org/vesalainen/bcc/InterfaceCaller"
+                        )), finder.getClassnames());
+                // first class path element wins
+                assertEquals(classes, finder.locate(Visited.class.getName()));
+                assertEquals(jar, finder.locate("org/vesalainen/bcc/InterfaceCaller"));
+                assertNull(finder.locate("org.vesalainen.bcc.Missing"));
+                assertTrue(finder.contains("org/vesalainen/bcc/Runner"));
+                assertFalse(finder.contains("java/lang/Object"));
+                assertEquals(InterfaceCaller.class.getName(), finder.find(InterfaceCaller.class).getQualifiedName().toString());
+                finder.close();
+                // indexed again after close
+                assertEquals(Visited.class.getName(), finder.find("org/vesalainen/bcc/Visited").getQualifiedName().toString());
+            }
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNotFound() throws Exception
+    {
+        File dir = Files.createTempDirectory("finder").toFile();
+        try (ClassFinder finder = new ClassFinder(dir))
+        {
+            finder.find("org.vesalainen.bcc.Missing");
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ClassHeaderTest
+{
+    @Test
+    public void testHeader() throws Exception
+    {
+        ClassHeader header = new ClassHeader(ByteBuffer.wrap(ClassBytes.read(ShrinkThread.class)));
+        assertEquals("org/vesalainen/bcc/ShrinkThread", header.getClassname());
+        assertEquals("org/vesalainen/bcc/ShrinkBase", header.getSuperclass());
+        assertEquals(0, header.getInterfaces().length);
+        assertFalse(header.isSynthetic());
+        assertEquals(ShrinkThread.class.getModifiers(), header.getAccessFlags() & ShrinkThread.class.getModifiers());
+        header = new ClassHeader(ByteBuffer.wrap(ClassBytes.read(ClassFinder.class)));
+        assertEquals("java/lang/Object", header.getSuperclass());
+        assertArrayEquals(new String[] {"java/io/Closeable"}, header.getInterfaces());
+    }
+
+    @Test
+    public void testReferencedClassnames() throws Exception
+    {
+        for (Class<?> cls : new Class<?>[] {Lambda.class, ShrinkMain.class, ClassFile.class, ClassFinder.class})
+        {
+            byte[] bytes = ClassBytes.read(cls);
+            ClassHeader header = new ClassHeader(ByteBuffer.wrap(bytes));
+            assertEquals(cls.getName(), new ClassFile(bytes).getReferencedClassnames(), header.getReferencedClassnames());
+        }
+    }
+
+    @Test
+    public void testPosition() throws Exception
+    {
+        byte[] bytes = ClassBytes.read(ShrinkMain.class);
+        ByteBuffer bb = ByteBuffer.allocate(bytes.length+10);
+        bb.position(10);
+        bb.put(bytes);
+        bb.position(10);
+        ClassHeader header = new ClassHeader(bb);
+        assertEquals(10, bb.position());
+        assertEquals("org/vesalainen/bcc/ShrinkMain", header.getClassname());
+    }
+
+    @Test
+    public void testFindHeader() throws Exception
+    {
+        File dir = Files.createTempDirectory("header").toFile();
+        try
+        {
+            ClassBytes.writeClass(dir, ShrinkMain.class);
+            try (ClassFinder finder = new ClassFinder(dir))
+            {
+                ClassHeader header = finder.findHeader("org.vesalainen.bcc.ShrinkMain");
+                assertEquals("org/vesalainen/bcc/ShrinkMain", header.getClassname());
+                assertEquals(finder.find("org.vesalainen.bcc.ShrinkMain").getReferencedClassnames(), header.getReferencedClassnames());
+            }
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNotFound() throws Exception
+    {
+        File dir = Files.createTempDirectory("header").toFile();
+        try (ClassFinder finder = new ClassFinder(dir))
+        {
+            finder.findHeader("org.vesalainen.bcc.ShrinkMain");
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+}
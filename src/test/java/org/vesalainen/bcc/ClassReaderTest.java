@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ClassReaderTest
+{
+    @Test
+    public void testVisit() throws Exception
+    {
+        final ClassReader reader = new ClassReader(ClassBytes.read(Visited.class));
+        final List<String> events = new ArrayList<>();
+        final List<String> methods = new ArrayList<>();
+        final List<String> switches = new ArrayList<>();
+        final List<String> handlers = new ArrayList<>();
+        final List<String> invokes = new ArrayList<>();
+        reader.accept(new ClassVisitor()
+        {
+            private ConstantPool pool;
+            private String method;
+
+            @Override
+            public void visitVersion(int minorVersion, int majorVersion)
+            {
+                events.add("version");
+            }
+
+            @Override
+            public void visitConstantPool(ConstantPool pool)
+            {
+                this.pool = pool;
+                events.add("pool");
+            }
+
+            @Override
+            public void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces)
+            {
+                events.add("class");
+                ConstantInfo.Clazz clazz = (ConstantInfo.Clazz) pool.getConstantInfo(thisClass);
+                assertEquals("org/vesalainen/bcc/Visited", pool.getString(clazz.getName_index()));
+                assertEquals(0, interfaces.length);
+            }
+
+            @Override
+            public boolean visitField(int accessFlags, int nameIndex, int descriptorIndex)
+            {
+                events.add("field");
+                assertEquals("field", pool.getString(nameIndex));
+                assertEquals("J", pool.getString(descriptorIndex));
+                return false;
+            }
+
+            @Override
+            public boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex)
+            {
+                events.add("method");
+                method = pool.getString(nameIndex);
+                methods.add(method);
+                return true;
+            }
+
+            @Override
+            public boolean visitCode(int maxStack, int maxLocals, int codeLength)
+            {
+                assertTrue(codeLength > 0);
+                return true;
+            }
+
+            @Override
+            public void visitInstruction(int pc, int opcode, int operand, int operand2)
+            {
+                if (opcode == OpCode.INVOKESTATIC)
+                {
+                    invokes.add(method+":"+pc);
+                }
+            }
+
+            @Override
+            public void visitSwitch(int pc, int opcode, int defaultTarget, int[] keys, int[] targets)
+            {
+                assertEquals(keys.length, targets.length);
+                switches.add(method+":"+(opcode == OpCode.TABLESWITCH ? "table" : "lookup")+Arrays.toString(keys));
+            }
+
+            @Override
+            public void visitExceptionHandler(int startPc, int endPc, int handlerPc, int catchType)
+            {
+                assertTrue(startPc < endPc);
+                ConstantInfo.Clazz clazz = (ConstantInfo.Clazz) pool.getConstantInfo(catchType);
+                handlers.add(method+":"+pool.getString(clazz.getName_index()));
+            }
+
+            @Override
+            public void visitEnd()
+            {
+                events.add("end");
+            }
+        });
+        assertEquals(Arrays.asList("version", "pool", "class", "field", "method", "method", "method", "method", "method", "end"), events);
+        assertEquals(Arrays.asList("<init>", "table", "lookup", "parse", "add"), methods);
+        assertEquals(Arrays.asList("table:table[1, 2, 3]", "lookup:lookup[-1000, 1000000]"), switches);
+        assertEquals(Arrays.asList("parse:java/lang/NumberFormatException"), handlers);
+        assertEquals(1, invokes.size());
+        assertTrue(invokes.get(0).startsWith("parse:"));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class CodeDataOutputTest
+{
+    @Test
+    public void testWrite() throws IOException
+    {
+        CodeDataOutput out = new CodeDataOutput(null);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int ii=0;ii<100;ii++)
+        {
+            write(out, ii);
+            write(dos, ii);
+        }
+        dos.flush();
+        assertEquals(baos.size(), out.position());
+        assertArrayEquals(baos.toByteArray(), out.getCode());
+    }
+
+    @Test
+    public void testPut() throws IOException
+    {
+        CodeDataOutput out = new CodeDataOutput(null);
+        out.writeInt(0);
+        out.writeShort(0);
+        out.putInt(0, 0x01020304);
+        out.putShort(4, 0xfffe);
+        assertEquals(6, out.position());
+        assertArrayEquals(new byte[] {1, 2, 3, 4, -1, -2}, out.getCode());
+        try
+        {
+            out.putInt(3, 0);
+            fail();
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+        }
+    }
+
+    @Test
+    public void testGetCode() throws IOException
+    {
+        CodeDataOutput out = new CodeDataOutput(null);
+        out.writeOpCode(OpCode.NOP);
+        out.writeOpCode(OpCode.RETURN);
+        assertEquals(OpCode.RETURN, out.getLastOpCode());
+        byte[] code = out.getCode();
+        assertSame(code, out.getCode());
+        out.putShort(0, 0);
+        assertArrayEquals(new byte[] {0, 0}, code);
+        out.writeOpCode(OpCode.NOP);
+        assertArrayEquals(new byte[] {0, 0}, code);
+        assertEquals(3, out.getCode().length);
+    }
+
+    @Test
+    public void testReusable() throws IOException
+    {
+        CodeDataOutput out = new CodeDataOutput(null, true);
+        out.writeShort(0x1234);
+        byte[] code = out.getCode();
+        assertNotSame(code, out.getCode());
+        out.reset();
+        assertEquals(0, out.position());
+        assertEquals(0, out.getLastOpCode());
+        out.writeByte(7);
+        assertArrayEquals(new byte[] {0x12, 0x34}, code);
+        assertArrayEquals(new byte[] {7}, out.getCode());
+    }
+
+    @Test
+    public void testRange() throws IOException
+    {
+        CodeDataOutput out = new CodeDataOutput(null);
+        out.writeByte(-128);
+        out.writeByte(255);
+        out.writeShort(-32768);
+        out.writeShort(65535);
+        out.writeChar(65535);
+        for (int v : new int[] {-129, 256})
+        {
+            try
+            {
+                out.writeByte(v);
+                fail();
+            }
+            catch (IllegalArgumentException ex)
+            {
+            }
+        }
+        for (int v : new int[] {-32769, 65536})
+        {
+            try
+            {
+                out.writeShort(v);
+                fail();
+            }
+            catch (IllegalArgumentException ex)
+            {
+            }
+        }
+        assertEquals(8, out.position());
+    }
+
+    private static void write(DataOutput out, int ii) throws IOException
+    {
+        out.writeByte(ii);
+        out.writeShort(ii*300);
+        out.writeInt(ii*100000);
+        out.writeLong(ii*10000000000L);
+        out.writeFloat(ii*1.5F);
+        out.writeDouble(ii*2.5);
+        out.writeChar('a'+ii);
+        out.writeBoolean((ii & 1) == 0);
+        out.writeUTF("abc\u00e4\u20ac\u0000"+ii);
+        out.writeChars("xy");
+        out.writeBytes("z");
+        out.write(new byte[] {1, 2, 3}, 1, 2);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.ConstantDouble;
+import org.vesalainen.bcc.ConstantInfo.ConstantInteger;
+import org.vesalainen.bcc.ConstantInfo.ConstantLong;
+import org.vesalainen.bcc.ConstantInfo.ConstantString;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+import org.vesalainen.bcc.model.El;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class CompactConstantPoolTest
+{
+    @Test
+    public void testResolve() throws Exception
+    {
+        CompactConstantPool pool = new CompactConstantPool();
+        int u = pool.resolve(new Utf8("java/lang/String"));
+        int c = pool.resolve(new Clazz(u));
+        int l = pool.resolve(new ConstantLong(123456789012L));
+        int i = pool.resolve(new ConstantInteger(42));
+        int d = pool.resolve(new ConstantDouble(1.5));
+        int s = pool.resolve(new ConstantString(u));
+        assertEquals(u, pool.resolve(new Utf8("java/lang/String")));
+        assertEquals(c, pool.resolve(new Clazz(u)));
+        assertEquals(l, pool.resolve(new ConstantLong(123456789012L)));
+        assertEquals(l+2, i);
+        assertEquals(d+2, s);
+        assertEquals(8, pool.size());
+        assertEquals(ConstantInfo.CONSTANT_Long, pool.getTag(l));
+        assertEquals("java/lang/String", pool.getString(u));
+        assertEquals(new ConstantDouble(1.5), pool.getConstantInfo(d));
+        assertEquals(-1, pool.indexOf(new ConstantInteger(43)));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pool.write(new DataOutputStream(baos));
+        assertEquals(baos.size(), pool.getByteSize());
+        CompactConstantPool read = new CompactConstantPool(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals(pool.size(), read.size());
+        for (int index : new int[] {u, c, l, i, d, s})
+        {
+            assertEquals(pool.getConstantInfo(index), read.getConstantInfo(index));
+            assertEquals(index, read.indexOf(pool.getConstantInfo(index)));
+        }
+    }
+
+    @Test
+    public void testSubClass() throws Exception
+    {
+        SubClass sc = new SubClass(
+                El.getTypeElement(Runner.class.getCanonicalName()), 
+                "org.vesalainen.bcc.gen.Compact", 
+                new CompactConstantPool(), 
+                javax.lang.model.element.Modifier.PUBLIC
+                );
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                ldc("compact");
+                tload("x");
+                ldc(100000L);
+                l2i();
+                iadd();
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("compact100001", runner.run(1));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.lang.model.element.ExecutableElement;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.model.ExecutableElementImpl.MethodBuilder;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ConcurrentConstantPoolTest
+{
+    private static final int THREADS = 8;
+
+    @Test
+    public void testResolve() throws Exception
+    {
+        final SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Resolve", javax.lang.model.element.Modifier.PUBLIC);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (int ii=0;ii<THREADS;ii++)
+            {
+                futures.add(executor.submit(new Callable<int[]>()
+                {
+                    @Override
+                    public int[] call() throws Exception
+                    {
+                        int[] indexes = new int[3000];
+                        for (int jj=0;jj<1000;jj++)
+                        {
+                            indexes[3*jj] = sc.resolveConstantIndex("s"+jj);
+                            indexes[3*jj+1] = sc.resolveConstantIndex((long)jj);
+                            indexes[3*jj+2] = sc.resolveConstantIndex(jj*7);
+                        }
+                        return indexes;
+                    }
+                }));
+            }
+            int[] first = futures.get(0).get();
+            for (Future<int[]> future : futures)
+            {
+                assertArrayEquals(first, future.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        ClassFile cf = new ClassFile(ClassBytes.write(sc));
+        assertEquals(sc.getQualifiedName().toString(), cf.getQualifiedName().toString());
+    }
+
+    @Test
+    public void testDefineMethods() throws Exception
+    {
+        final SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Define", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                ldc("run");
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int ii=0;ii<THREADS;ii++)
+            {
+                final int k = ii;
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        MethodBuilder mb = sc.buildMethod("m"+k);
+                        mb.addModifiers(Modifier.PUBLIC|Modifier.STATIC);
+                        mb.setReturnType(String.class);
+                        ExecutableElement method = mb.getExecutableElement();
+                        sc.defineMethod(new MethodCompiler()
+                        {
+                            @Override
+                            protected void implement() throws IOException
+                            {
+                                ldc("m");
+                                ldc(k);
+                                invokestatic(Runner.class, "help", String.class, int.class);
+                                treturn();
+                            }
+                        }, method);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("run3", runner.run(3));
+        for (int ii=0;ii<THREADS;ii++)
+        {
+            assertEquals("m"+ii, runner.getClass().getMethod("m"+ii).invoke(null));
+        }
+    }
+
+    @Test
+    public void testFull() throws Exception
+    {
+        ConcurrentConstantPool pool = new ConcurrentConstantPool();
+        for (int ii=1;ii<ConstantPool.MAX_SIZE;ii++)
+        {
+            assertEquals(ii, pool.resolve(new ConstantInfo.ConstantInteger(ii)));
+        }
+        try
+        {
+            pool.resolve(new ConstantInfo.ConstantLong(1L));
+            fail("pool overflow accepted");
+        }
+        catch (IllegalStateException ex)
+        {
+        }
+        assertEquals(ConstantPool.MAX_SIZE-1, pool.size());
+        for (int ii=1;ii<=pool.size();ii++)
+        {
+            assertEquals(ConstantInfo.CONSTANT_Integer, pool.getTag(ii));
+        }
+        assertEquals(ConstantPool.MAX_SIZE, pool.resolve(new ConstantInfo.ConstantInteger(-1)));
+        try
+        {
+            pool.resolve(new ConstantInfo.ConstantInteger(-2));
+            fail("pool overflow accepted");
+        }
+        catch (IllegalStateException ex)
+        {
+        }
+        assertEquals(ConstantPool.MAX_SIZE, pool.size());
+        assertEquals(ConstantInfo.CONSTANT_Integer, pool.getTag(ConstantPool.MAX_SIZE));
+    }
+}
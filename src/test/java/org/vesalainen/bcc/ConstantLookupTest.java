@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.Map;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.ConstantInfo.Clazz;
+import org.vesalainen.bcc.ConstantInfo.ConstantDouble;
+import org.vesalainen.bcc.ConstantInfo.ConstantLong;
+import org.vesalainen.bcc.ConstantInfo.Fieldref;
+import org.vesalainen.bcc.ConstantInfo.InterfaceMethodref;
+import org.vesalainen.bcc.ConstantInfo.Methodref;
+import org.vesalainen.bcc.model.El;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ConstantLookupTest
+{
+    @Test
+    public void testRefEquals()
+    {
+        assertEquals(new Methodref(1, 2), new Methodref(1, 2));
+        assertEquals(new Methodref(1, 2).hashCode(), new Methodref(1, 2).hashCode());
+        assertFalse(new Methodref(1, 2).equals(new Fieldref(1, 2)));
+        assertFalse(new Methodref(1, 2).equals(new InterfaceMethodref(1, 2)));
+        assertFalse(new Fieldref(1, 2).equals(new InterfaceMethodref(1, 2)));
+        assertFalse(new Methodref(1, 2).equals(new Methodref(2, 1)));
+    }
+
+    @Test
+    public void testLongDouble()
+    {
+        long[] longs = {0x1ffffffffL, 0x80000000L, -1L, Long.MIN_VALUE, 0x7fffffff80000001L};
+        for (long l : longs)
+        {
+            assertEquals(l, new ConstantLong(l).getConstant());
+            assertEquals(Double.longBitsToDouble(l), new ConstantDouble(Double.longBitsToDouble(l)).getConstant(), 0);
+        }
+        assertEquals(0x1ffffffffL, new ConstantLong(1, -1).getConstant());
+    }
+
+    @Test
+    public void testNestedClass() throws Exception
+    {
+        SubClass sc = new SubClass(Object.class, "org.vesalainen.bcc.gen.Lookup", Modifier.PUBLIC);
+        TypeElement entry = El.getTypeElement(Map.Entry.class.getName());
+        assertEquals("java.util.Map.Entry", entry.getQualifiedName().toString());
+        int index = sc.resolveClassIndex(entry);
+        Clazz clazz = (Clazz) sc.getConstantInfo(index);
+        assertEquals("java/util/Map$Entry", sc.getString(clazz.getName_index()));
+        assertTrue(sc.referencesClass(entry));
+        assertEquals(index, sc.resolveClassIndex(entry));
+        ExecutableElement getKey = El.getMethod(entry, "getKey");
+        int ref = sc.resolveInterfaceMethodIndex(getKey);
+        assertEquals(ref, sc.resolveInterfaceMethodIndex(getKey));
+        assertEquals(index, ((InterfaceMethodref) sc.getConstantInfo(ref)).getClass_index());
+        assertFalse(sc.referencesMethod(getKey));
+    }
+
+    @Test
+    public void testAppend() throws Exception
+    {
+        SubClass sc = new SubClass(Object.class, "org.vesalainen.bcc.gen.Append", Modifier.PUBLIC);
+        int[] ints = new int[200];
+        int[] longs = new int[200];
+        int[] doubles = new int[200];
+        int[] strings = new int[200];
+        for (int ii=0;ii<ints.length;ii++)
+        {
+            ints[ii] = sc.resolveConstantIndex(ii*1000000);
+            longs[ii] = sc.resolveConstantIndex(-ii*10000000000L);
+            doubles[ii] = sc.resolveConstantIndex(ii+0.5);
+            strings[ii] = sc.resolveConstantIndex("s"+ii);
+        }
+        ExecutableElement concat = El.getMethod(String.class, "concat", String.class);
+        int method = sc.resolveMethodIndex(concat);
+        int size = sc.getConstantPoolSize();
+        for (int ii=0;ii<ints.length;ii++)
+        {
+            assertEquals(ints[ii], sc.getConstantIndex(ii*1000000));
+            assertEquals(longs[ii], sc.getConstantIndex(-ii*10000000000L));
+            assertEquals(doubles[ii], sc.getConstantIndex(ii+0.5));
+            assertEquals(strings[ii], sc.getConstantIndex("s"+ii));
+            assertEquals(ints[ii], sc.resolveConstantIndex(ii*1000000));
+            assertEquals(longs[ii], sc.resolveConstantIndex(-ii*10000000000L));
+            assertEquals(-ii*10000000000L, ((ConstantLong) sc.getConstantInfo(longs[ii])).getConstant());
+        }
+        assertEquals(-1, sc.getConstantIndex(-1));
+        assertEquals(-1, sc.getConstantIndex("missing"));
+        assertTrue(sc.referencesMethod(concat));
+        assertEquals(method, sc.resolveMethodIndex(concat));
+        assertEquals(size, sc.getConstantPoolSize());
+    }
+}
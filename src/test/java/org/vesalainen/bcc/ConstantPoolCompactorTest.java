@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.ConstantInfo.ConstantInteger;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ConstantPoolCompactorTest
+{
+    @Test
+    public void testUnused() throws Exception
+    {
+        SubClass sc = create("org.vesalainen.bcc.gen.Compactor");
+        for (int ii=0;ii<300;ii++)
+        {
+            sc.resolveConstantIndex(1000000+ii);
+        }
+        sc.resolveConstantIndex("unused");
+        override(sc);
+        byte[] bytes = ClassBytes.write(sc);
+        ClassFile cf = new ClassFile(bytes);
+        assertTrue(cf.getConstantPoolSize() < sc.getConstantPoolSize());
+        assertEquals(-1, cf.constant_pool.indexOf(new Utf8("unused")));
+        assertEquals(-1, cf.constant_pool.indexOf(new ConstantInteger(1000000)));
+        assertTrue(cf.constant_pool.indexOf(new Utf8("used")) != -1);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("used2", runner.run(2));
+    }
+
+    @Test
+    public void testNothingUnused() throws Exception
+    {
+        SubClass sc = create("org.vesalainen.bcc.gen.NoUnused");
+        override(sc);
+        byte[] bytes = ClassBytes.write(sc);
+        ClassFile cf = new ClassFile(bytes);
+        assertTrue(cf.getConstantPoolSize() <= sc.getConstantPoolSize());
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("used3", runner.run(3));
+    }
+
+    private static SubClass create(String name) throws IOException
+    {
+        SubClass sc = new SubClass(Runner.class, name, javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        return sc;
+    }
+
+    private static void override(SubClass sc) throws IOException
+    {
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                ldc("used");
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+    }
+}
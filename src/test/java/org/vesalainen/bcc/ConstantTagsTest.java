@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ConstantTagsTest
+{
+    @Test
+    public void testInvokeDynamic() throws Exception
+    {
+        byte[] bytes = ClassBytes.read(Lambda.class);
+        ClassFile cf = new ClassFile(bytes);
+        Set<Integer> tags = new HashSet<>();
+        for (int index=1;index<=cf.getConstantPoolSize();index++)
+        {
+            tags.add(cf.getConstantTag(index));
+        }
+        assertTrue(tags.contains(ConstantInfo.CONSTANT_MethodHandle));
+        assertTrue(tags.contains(ConstantInfo.CONSTANT_MethodType));
+        assertTrue(tags.contains(ConstantInfo.CONSTANT_InvokeDynamic));
+        assertTrue(cf.getReferencedClassnames().contains("java/lang/invoke/LambdaMetafactory"));
+        assertArrayEquals(bytes, ClassBytes.write(cf));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 8, bytes.length-8));
+        CompactConstantPool pool = new CompactConstantPool(in);
+        assertEquals(cf.getConstantPoolSize(), pool.size());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        pool.write(new DataOutputStream(baos));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 8, 8+baos.size()), baos.toByteArray());
+
+        final boolean[] found = new boolean[1];
+        new ClassReader(bytes).accept(new ClassVisitor()
+        {
+            @Override
+            public boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex)
+            {
+                return true;
+            }
+
+            @Override
+            public boolean visitCode(int maxStack, int maxLocals, int codeLength)
+            {
+                return true;
+            }
+
+            @Override
+            public void visitInstruction(int pc, int opcode, int operand, int operand2)
+            {
+                if (opcode == OpCode.INVOKEDYNAMIC)
+                {
+                    found[0] = true;
+                }
+            }
+        });
+        assertTrue(found[0]);
+    }
+
+    @Test
+    public void testObject() throws Exception
+    {
+        try (InputStream is = ClassLoader.getSystemResourceAsStream("java/lang/Object.class"))
+        {
+            ClassFile cf = new ClassFile(is);
+            assertEquals("java.lang.Object", cf.getQualifiedName().toString());
+            assertEquals(0, cf.super_class);
+            assertFalse(cf.getEnclosedElements().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class DependenciesTest
+{
+    static File classPath(Class<?> cls) throws Exception
+    {
+        return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    @Test
+    public void testDependencies() throws Exception
+    {
+        try (Dependencies dependencies = new Dependencies("org.vesalainen.bcc", classPath(ShrinkMain.class)))
+        {
+            SortedMap<String,Boolean> map = dependencies.dependenciesFor(ShrinkMain.class);
+            assertEquals(new HashSet<>(Arrays.asList(
+                    "org/vesalainen/bcc/ShrinkMain", 
+                    "org/vesalainen/bcc/ShrinkThread", 
+                    "org/vesalainen/bcc/ShrinkBase"
+                    )), map.keySet());
+            assertEquals(map, dependencies.parallelDependenciesFor(ShrinkMain.class.getName()));
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Dependencies dependencies = new Dependencies("org.vesalainen", classPath(SubClass.class)))
+        {
+            String[] classes = new String[] {"org.vesalainen.bcc.SubClass", "org.vesalainen.bcc.Dependencies"};
+            SortedMap<String,Boolean> map = dependencies.dependenciesFor(classes);
+            assertTrue(map.containsKey("org/vesalainen/bcc/ClassFile"));
+            assertEquals(map, dependencies.parallelDependenciesFor(pool, classes));
+            assertEquals(map, dependencies.parallelDependenciesFor(classes));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNotFound() throws Exception
+    {
+        try (Dependencies dependencies = new Dependencies("org.vesalainen", classPath(SubClass.class)))
+        {
+            dependencies.parallelDependenciesFor("org.vesalainen.bcc.Missing");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SortedMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class DependencyCacheTest
+{
+    private static final String MAIN = "org/vesalainen/bcc/ShrinkMain";
+
+    @Test
+    public void testCache() throws Exception
+    {
+        File dir = Files.createTempDirectory("cache").toFile();
+        File classes = new File(dir, "classes");
+        File cacheFile = new File(dir, "deps.cache");
+        try
+        {
+            ClassBytes.writeClass(classes, ShrinkMain.class);
+            ClassBytes.writeClass(classes, ShrinkThread.class);
+            ClassBytes.writeClass(classes, ShrinkBase.class);
+            SortedMap<String,Boolean> expected = dependencies(classes, cacheFile);
+            assertEquals(3, expected.size());
+            assertTrue(cacheFile.exists());
+            assertNotNull(new DependencyCache(cacheFile, classes).get(classes, MAIN));
+            // from cache
+            assertEquals(expected, dependencies(classes, cacheFile));
+            // changed element is dropped
+            ClassBytes.writeClass(classes, Runner.class);
+            assertNull(new DependencyCache(cacheFile, classes).get(classes, MAIN));
+            assertEquals(expected, dependencies(classes, cacheFile));
+            assertNotNull(new DependencyCache(cacheFile, classes).get(classes, MAIN));
+            // invalid cache is ignored
+            Files.write(cacheFile.toPath(), new byte[] {1, 2, 3});
+            assertNull(new DependencyCache(cacheFile, classes).get(classes, MAIN));
+            assertEquals(expected, dependencies(classes, cacheFile));
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+
+    private static SortedMap<String,Boolean> dependencies(File classes, File cacheFile) throws IOException
+    {
+        try (Dependencies dependencies = new Dependencies("org.vesalainen.bcc", classes))
+        {
+            dependencies.setCache(cacheFile);
+            return dependencies.dependenciesFor(ShrinkMain.class);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.model.El;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class DescriptorCacheTest
+{
+    @Test
+    public void testMethod()
+    {
+        ExecutableElement method = El.getMethod(Runner.class, "help", String.class, int.class);
+        assertEquals("(Ljava/lang/String;I)Ljava/lang/String;", Descriptor.getDesriptor(method));
+        assertEquals(Descriptor.createDesriptor(method), Descriptor.getDesriptor(method));
+        assertSame(DescriptorCache.getDescriptor(method), DescriptorCache.getDescriptor(method));
+        assertEquals(Signature.createSignature(method), Signature.getSignature(method));
+        assertSame(DescriptorCache.getSignature(method), DescriptorCache.getSignature(method));
+    }
+
+    @Test
+    public void testField()
+    {
+        VariableElement field = El.getField(Runner.class, "counter");
+        assertEquals("I", Descriptor.getDesriptor(field));
+        assertSame(DescriptorCache.getDescriptor(field), DescriptorCache.getDescriptor(field));
+    }
+
+    @Test
+    public void testInternalName()
+    {
+        TypeElement type = El.getTypeElement(Runner.class.getCanonicalName());
+        assertEquals("org/vesalainen/bcc/Runner", DescriptorCache.getInternalName(type).getString());
+        assertSame(DescriptorCache.getInternalName(type), DescriptorCache.getInternalName(type));
+    }
+}
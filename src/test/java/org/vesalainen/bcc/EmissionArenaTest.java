@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class EmissionArenaTest
+{
+    @Test
+    public void testSameCode() throws Exception
+    {
+        byte[] plain = ClassBytes.write(create("org.vesalainen.bcc.gen.Arena", false));
+        // twice to reuse arenas
+        assertArrayEquals(plain, ClassBytes.write(create("org.vesalainen.bcc.gen.Arena", true)));
+        SubClass sc = create("org.vesalainen.bcc.gen.Arena", true);
+        assertArrayEquals(plain, ClassBytes.write(sc));
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("p3", runner.run(3));
+        assertEquals("n0", runner.run(0));
+    }
+
+    @Test
+    public void testAcquire() throws Exception
+    {
+        MethodCompiler mc1 = new Branch(true);
+        MethodCompiler mc2 = new Branch(true);
+        assertNull(mc1.getArena());
+        mc1.prepare(true);
+        mc2.prepare(true);
+        EmissionArena arena1 = mc1.getArena();
+        EmissionArena arena2 = mc2.getArena();
+        assertNotNull(arena1);
+        assertNotNull(arena2);
+        assertNotSame(arena1, arena2);
+        mc2.releaseArena();
+        assertNull(mc2.getArena());
+        mc1.releaseArena();
+        assertSame(arena1, EmissionArena.acquire());
+        assertSame(arena2, EmissionArena.acquire());
+        assertEquals(0, arena1.getOut().position());
+        assertTrue(arena1.getLabels().isEmpty());
+        arena2.release();
+        arena1.release();
+        MethodCompiler mc3 = new Branch(false);
+        mc3.prepare(false);
+        assertNull(mc3.getArena());
+    }
+
+    @Test
+    public void testReleaseOnFailure() throws Exception
+    {
+        EmissionArena arena = EmissionArena.acquire();
+        arena.release();
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.ArenaFail", javax.lang.model.element.Modifier.PUBLIC);
+        MethodCompiler mc = new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                tload("x");
+                ifle("undefined");
+                treturn();
+            }
+        };
+        mc.setUseArena(true);
+        try
+        {
+            sc.overrideMethod(mc, Modifier.PUBLIC, "run", int.class);
+            fail("undefined label accepted");
+        }
+        catch (RuntimeException ex)
+        {
+        }
+        assertNull(mc.getArena());
+        assertSame(arena, EmissionArena.acquire());
+        arena.release();
+    }
+
+    @Test
+    public void testDump() throws Exception
+    {
+        SubClass sc = create("org.vesalainen.bcc.gen.ArenaDump", true);
+        PrintStream err = System.err;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(baos, true));
+        try
+        {
+            sc.dump();
+        }
+        finally
+        {
+            System.setErr(err);
+        }
+        String str = baos.toString();
+        assertTrue(str, str.contains("negative"));
+        assertTrue(str, str.contains("end"));
+    }
+
+    private static SubClass create(String name, boolean useArena) throws IOException
+    {
+        SubClass sc = new SubClass(Runner.class, name, javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new Branch(useArena), Modifier.PUBLIC, "run", int.class);
+        return sc;
+    }
+
+    private static class Branch extends MethodCompiler
+    {
+        public Branch(boolean useArena)
+        {
+            setUseArena(useArena);
+        }
+
+        @Override
+        protected void implement() throws IOException
+        {
+            nameArgument("x", 1);
+            tload("x");
+            ifle("negative");
+            ldc("p");
+            goto_n("end");
+            fixAddress("negative");
+            ldc("n");
+            fixAddress("end");
+            tload("x");
+            invokestatic(Runner.class, "help", String.class, int.class);
+            treturn();
+        }
+    }
+}
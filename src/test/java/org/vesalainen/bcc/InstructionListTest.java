@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class InstructionListTest
+{
+    @Test
+    public void testOptimize() throws Exception
+    {
+        test(false);
+    }
+
+    @Test
+    public void testOptimizeWideIndex() throws Exception
+    {
+        test(true);
+    }
+
+    private void test(final boolean wide) throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.List", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        final int[] sizes = new int[1];
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                setInstructionList(true);
+                setWideIndex(wide);
+                nameArgument("x", 1);
+                tload("x");
+                tableswitch(0, 1, "l1", "l2");
+                fixAddress("l1");
+                ldc("one");
+                goto_n("l3");
+                fixAddress("l2");
+                ldc("two");
+                nop();
+                fixAddress("l3");
+                goto_n("l4");
+                fixAddress("l4");
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+            }
+
+            @Override
+            protected void optimize(InstructionList list) throws IOException
+            {
+                // iload 1, tableswitch
+                assertEquals(OpCode.ILOAD, list.getOpCode(0));
+                assertEquals(1, list.getOperand(0));
+                assertEquals(OpCode.TABLESWITCH, list.getOpCode(1));
+                assertEquals(-1, list.getTargetIndex(1));
+                // default throws SwitchException
+                assertEquals(OpCode.NEW, list.getOpCode(2));
+                assertEquals(OpCode.ATHROW, list.getOpCode(5));
+                // l1: ldc, goto l3
+                assertEquals(OpCode.LDC, list.getOpCode(6));
+                assertEquals(OpCode.GOTO, list.getOpCode(7));
+                assertEquals(10, list.getTargetIndex(7));
+                // l2: ldc, nop
+                assertEquals(OpCode.NOP, list.getOpCode(9));
+                // l3: goto l4
+                assertEquals(OpCode.GOTO, list.getOpCode(10));
+                assertEquals(11, list.getTargetIndex(10));
+                list.threadJumps();
+                assertEquals(11, list.getTargetIndex(7));
+                int length = list.getCode().length;
+                list.remove(9);
+                assertEquals(-1, list.getOpCode(9));
+                assertEquals(length-1, list.getCode().length);
+                sizes[0] = list.size();
+                super.optimize(list);
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        assertEquals(14, sizes[0]);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("one0", runner.run(0));
+        assertEquals("two1", runner.run(1));
+    }
+}
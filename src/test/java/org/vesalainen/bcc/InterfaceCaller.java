@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.util.Comparator;
+
+/**
+ * Calls interface static method. Compiled to invokestatic of
+ * InterfaceMethodref which needs class version 52.
+ * @author Timo Vesalainen
+ */
+public class InterfaceCaller extends Runner
+{
+
+    @Override
+    public String run(int x)
+    {
+        return "orig"+x;
+    }
+
+    public int compare(String a, String b)
+    {
+        Comparator<String> c = Comparator.naturalOrder();
+        return c.compare(a, b);
+    }
+}
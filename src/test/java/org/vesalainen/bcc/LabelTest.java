@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class LabelTest
+{
+    @Test
+    public void testBranches() throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Labels", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                Label a = newLabel();
+                Label b = newLabel();
+                Label c = newLabel();
+                Label loop = newLabel();
+                Label end = newLabel();
+                tload("x");
+                tableswitch(c, 0, 2, a, b, c);
+                fixAddress(a);
+                ldc("A");
+                goto_n(end);
+                fixAddress(b);
+                // b is merged to named label
+                goto_n("named");
+                fixAddress(c);
+                iconst(0);
+                fixAddress(loop);
+                iconst(1);
+                iadd();
+                dup();
+                iconst(1000);
+                if_icmplt(loop);
+                pop();
+                ldc("C");
+                goto_n(end);
+                fixAddress("named");
+                ldc("B");
+                goto_n(end);
+                fixAddress(end);
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("A0", runner.run(0));
+        assertEquals("B1", runner.run(1));
+        assertEquals("C2", runner.run(2));
+        assertEquals("C7", runner.run(7));
+    }
+
+    @Test
+    public void testExceptionHandler() throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Handler", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                Label handler = newLabel();
+                Label end = newLabel();
+                Block block = startBlock();
+                iconst(10);
+                tload("x");
+                idiv();
+                pop();
+                ldc("ok");
+                endBlock(block);
+                goto_n(end);
+                fixAddress(handler);
+                pop();
+                ldc("div");
+                fixAddress(end);
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+                addExceptionHandler(block, handler, ArithmeticException.class);
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("ok1", runner.run(1));
+        assertEquals("div0", runner.run(0));
+    }
+
+    @Test
+    public void testMerge()
+    {
+        Label a = new Label("a");
+        Label b = new Label("b");
+        Label c = new Label();
+        assertFalse(new Label().equals(c));
+        a.mergeTo(b);
+        b.mergeTo(c);
+        assertTrue(a.isMerged());
+        assertFalse(c.isMerged());
+        assertSame(c, a.resolve());
+        assertTrue(a.getNames().contains("a"));
+        assertTrue(a.getNames().contains("b"));
+        assertEquals(c.getNames(), a.getNames());
+        try
+        {
+            a.mergeTo(c);
+            fail();
+        }
+        catch (IllegalArgumentException ex)
+        {
+        }
+    }
+
+    @Test
+    public void testEquals()
+    {
+        assertEquals(new Label("a"), new Label("a"));
+        assertEquals(new Label("a").hashCode(), new Label("a").hashCode());
+        assertFalse(new Label("a").equals(new Label("b")));
+        Label c = new Label();
+        assertEquals(c, c);
+        assertFalse(new Label().equals(c));
+        Label d = new Label();
+        d.mergeTo(c);
+        assertEquals(c, d);
+        assertEquals(c.hashCode(), d.hashCode());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testUnion()
+    {
+        Label a = new Label("a");
+        Label b = new Label("b");
+        a.createBranch(0);
+        b.createBranch(4);
+        Label u = new Label(a, b);
+        assertEquals(2, u.getNames().size());
+        assertEquals(2, u.getBranches().size());
+        assertSame(u, a.resolve());
+        assertSame(u, b.resolve());
+        // same label twice
+        Label v = new Label(a, a);
+        assertEquals(2, v.getNames().size());
+        assertSame(v, b.resolve());
+    }
+}
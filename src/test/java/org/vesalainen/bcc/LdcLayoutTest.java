@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.ConstantInfo.ConstantString;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class LdcLayoutTest
+{
+    @Test
+    public void testLayout() throws Exception
+    {
+        SubClass plain = create("org.vesalainen.bcc.gen.Plain", false);
+        SubClass layout = create("org.vesalainen.bcc.gen.Layout", true);
+        byte[] plainBytes = ClassBytes.write(plain);
+        byte[] layoutBytes = ClassBytes.write(layout);
+        assertTrue(layoutBytes.length < plainBytes.length);
+        ClassFile cf = new ClassFile(layoutBytes);
+        int hot = cf.constant_pool.indexOf(new ConstantString(cf.constant_pool.indexOf(new Utf8("hot"))));
+        assertTrue(hot > 0 && hot < 256);
+        for (SubClass sc : new SubClass[] {plain, layout})
+        {
+            Runner runner = (Runner) sc.newInstance();
+            assertEquals("hot2", runner.run(2));
+            assertEquals("hotzero", runner.run(0));
+        }
+    }
+
+    private static SubClass create(String name, boolean ldcLayout) throws IOException
+    {
+        SubClass sc = new SubClass(Runner.class, name, javax.lang.model.element.Modifier.PUBLIC);
+        sc.setLdcLayout(ldcLayout);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                for (int ii=0;ii<300;ii++)
+                {
+                    ldc("s"+ii);
+                    pop();
+                }
+                tload("x");
+                ifeq("zero");
+                ldc("hot");
+                tload("x");
+                invokestatic(Runner.class, "help", String.class, int.class);
+                treturn();
+                fixAddress("zero");
+                ldc("hot");
+                ldc("zero");
+                invokevirtual(String.class, "concat", String.class);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        return sc;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class MemberHandleTest
+{
+    @Test
+    public void testHandles() throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Handles", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                MemberHandle help = resolveMethod(Runner.class, "help", String.class, int.class);
+                MemberHandle counter = resolveField(Runner.class, "counter");
+                MemberHandle concat = resolveMethod(String.class, "concat", String.class);
+                MemberHandle length = resolveMethod(CharSequence.class, "length");
+                assertEquals(OpCode.INVOKESTATIC, help.getOpCode());
+                assertTrue(help.isStatic());
+                assertEquals("(Ljava/lang/String;I)Ljava/lang/String;", help.getDescriptor());
+                assertEquals(-1, help.getStackEffect());
+                assertEquals(0, counter.getStackEffect());
+                assertEquals(1, counter.getValueSize());
+                assertEquals(-1, concat.getStackEffect());
+                assertEquals(OpCode.INVOKEINTERFACE, length.getOpCode());
+                assertEquals(1, length.getArgumentSize());
+                // counter += x
+                aload(0);
+                aload(0);
+                getField(counter);
+                tload("x");
+                iadd();
+                putField(counter);
+                ldc(">");
+                for (int ii=0;ii<3;ii++)
+                {
+                    ldc("a");
+                    aload(0);
+                    getField(counter);
+                    invoke(help);
+                    invoke(concat);
+                }
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals(">a2a2a2", runner.run(2));
+        assertEquals(">a5a5a5", runner.run(3));
+        assertEquals(5, runner.counter);
+    }
+}
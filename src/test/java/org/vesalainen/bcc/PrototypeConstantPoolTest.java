@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.model.El;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class PrototypeConstantPoolTest
+{
+    @Test
+    public void testFamily() throws Exception
+    {
+        SubClass template = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Template", javax.lang.model.element.Modifier.PUBLIC);
+        template.overrideMethod(new Run("template", 0), Modifier.PUBLIC, "run", int.class);
+        int doubleIndex = template.resolveConstantIndex(1.5);
+        int stringIndex = template.resolveConstantIndex("template");
+        PrototypeConstantPool prototype = template.createConstantPoolPrototype();
+        int size = prototype.size();
+        for (int ii=0;ii<3;ii++)
+        {
+            SubClass sc = new SubClass(
+                    El.getTypeElement(Runner.class.getCanonicalName()), 
+                    "org.vesalainen.bcc.gen.Member"+ii, 
+                    new ConcurrentConstantPool(prototype), 
+                    javax.lang.model.element.Modifier.PUBLIC
+                    );
+            assertEquals(doubleIndex, sc.resolveConstantIndex(1.5));
+            assertEquals(stringIndex, sc.resolveConstantIndex("template"));
+            sc.codeDefaultConstructor();
+            sc.overrideMethod(new Run("member", ii), Modifier.PUBLIC, "run", int.class);
+            assertTrue(sc.getConstantPoolSize() > size);
+            Runner runner = (Runner) sc.newInstance();
+            assertEquals("member"+(ii+1), runner.run(1));
+            assertEquals(size, prototype.size());
+        }
+    }
+
+    private static class Run extends MethodCompiler
+    {
+        private final String prefix;
+        private final int add;
+
+        public Run(String prefix, int add)
+        {
+            this.prefix = prefix;
+            this.add = add;
+        }
+
+        @Override
+        protected void implement() throws IOException
+        {
+            nameArgument("x", 1);
+            ldc(prefix);
+            tload("x");
+            iconst(add);
+            iadd();
+            invokestatic(Runner.class, "help", String.class, int.class);
+            treturn();
+        }
+    }
+}
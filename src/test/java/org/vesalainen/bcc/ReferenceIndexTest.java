@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ReferenceIndexTest
+{
+    private static final String MAIN = "org/vesalainen/bcc/ShrinkMain";
+    private static final String THREAD = "org/vesalainen/bcc/ShrinkThread";
+    private static final String BASE = "org/vesalainen/bcc/ShrinkBase";
+
+    @Test
+    public void testIndex() throws Exception
+    {
+        File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            ClassBytes.writeClass(dir, ShrinkMain.class);
+            ClassBytes.writeClass(dir, ShrinkThread.class);
+            ClassBytes.writeClass(dir, ShrinkBase.class);
+            ReferenceIndex index = new ReferenceIndex(dir);
+            assertEquals(new HashSet<>(Arrays.asList(MAIN, THREAD, BASE)), index.getClassnames());
+            assertTrue(index.getReferencedClasses(MAIN).contains(THREAD));
+            assertFalse(index.getReferencedClasses(MAIN).contains(MAIN));
+            assertTrue(index.getReferencedClasses(THREAD).contains(BASE));
+            assertEquals(new HashSet<>(Arrays.asList(MAIN)), index.getReferencingClasses(THREAD));
+            assertTrue(index.getReferencingClasses(MAIN).isEmpty());
+            assertTrue(index.getReferencingClasses("java/lang/Thread").contains(BASE));
+            // member references
+            assertTrue(index.isUsed(THREAD, "result", "Ljava/lang/String;"));
+            assertEquals(new HashSet<>(Arrays.asList(MAIN, THREAD)), index.getReferencingClasses(THREAD, "result", "Ljava/lang/String;"));
+            assertTrue(index.getReferencingClasses(THREAD, "<init>", "()V").contains(MAIN));
+            assertFalse(index.isUsed(MAIN, "start", "()Ljava/lang/String;"));
+            assertTrue(index.getReferencingClasses(MAIN, "start", "()Ljava/lang/String;").isEmpty());
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+
+    @Test
+    public void testElementClass()
+    {
+        assertEquals("java/lang/String", ReferenceIndex.elementClass("java/lang/String"));
+        assertEquals("java/lang/String", ReferenceIndex.elementClass("[[Ljava/lang/String;"));
+        assertNull(ReferenceIndex.elementClass("[I"));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.lang.model.SourceVersion;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class RewriteTest
+{
+    @Test
+    public void testWrite() throws Exception
+    {
+        byte[] orig = ClassBytes.read(InterfaceCaller.class);
+        assertArrayEquals(orig, ClassBytes.write(new ClassFile(orig)));
+    }
+    @Test(expected=UnsupportedOperationException.class)
+    public void testModify() throws Exception
+    {
+        ClassFile cf = new ClassFile(ClassBytes.read(InterfaceCaller.class));
+        cf.addInterface((short)1);
+    }
+    @Test
+    public void testInterfaceCalls() throws Exception
+    {
+        byte[] orig = ClassBytes.read(InterfaceCaller.class);
+        SubClass sc = new SubClass(new ClassFile(orig));
+        sc.overrideMethod(new Help(false), Modifier.PUBLIC, "run", int.class);
+        byte[] bytes = ClassBytes.write(sc);
+        assertEquals(version(orig), version(bytes));
+        Class<?> cls = new GenClassLoader(RewriteTest.class.getClassLoader()).load(InterfaceCaller.class.getName(), bytes);
+        Object obj = cls.newInstance();
+        assertEquals("new7", ((Runner)obj).run(7));
+        assertEquals(-1, cls.getMethod("compare", String.class, String.class).invoke(obj, "a", "b"));
+    }
+    @Test(expected=IllegalStateException.class)
+    public void testInterfaceCallsBranch() throws Exception
+    {
+        SubClass sc = new SubClass(new ClassFile(ClassBytes.read(InterfaceCaller.class)));
+        sc.overrideMethod(new Help(true), Modifier.PUBLIC, "run", int.class);
+        ClassBytes.write(sc);
+    }
+
+    @Test
+    public void testNestmate() throws Exception
+    {
+        File dir = compileNest();
+        if (dir == null)
+        {
+            return;
+        }
+        try
+        {
+            File file = new File(dir, "nest/Outer$Inner.class");
+            byte[] orig = Files.readAllBytes(file.toPath());
+            SubClass sc = new SubClass(new ClassFile(orig));
+            sc.overrideMethod(new Added(false), Modifier.PUBLIC, "toString");
+            byte[] bytes = ClassBytes.write(sc);
+            assertEquals(version(orig), version(bytes));
+            Files.write(file.toPath(), bytes);
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, null))
+            {
+                Object obj = loader.loadClass("nest.Outer$Inner").newInstance();
+                assertEquals("added", obj.toString());
+                // private field of Outer is accessible only through NestHost
+                assertEquals(42, obj.getClass().getMethod("get").invoke(obj));
+            }
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+    @Test
+    public void testNestmateBranch() throws Exception
+    {
+        File dir = compileNest();
+        if (dir == null)
+        {
+            return;
+        }
+        try
+        {
+            byte[] orig = Files.readAllBytes(new File(dir, "nest/Outer$Inner.class").toPath());
+            SubClass sc = new SubClass(new ClassFile(orig));
+            sc.overrideMethod(new Added(true), Modifier.PUBLIC, "toString");
+            ClassBytes.write(sc);
+            fail("version "+version(orig)+" class written without StackMapTable");
+        }
+        catch (IllegalStateException ex)
+        {
+        }
+        finally
+        {
+            ClassBytes.delete(dir);
+        }
+    }
+    /**
+     * Compiles nest.Outer and nest.Outer$Inner with release 11 to temporary
+     * directory.
+     * @return Directory or null if release 11 compiler is not available.
+     * @throws IOException 
+     */
+    private static File compileNest() throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null || SourceVersion.latest().ordinal() < 11)
+        {
+            return null;
+        }
+        File dir = Files.createTempDirectory("nest").toFile();
+        File src = new File(dir, "nest/Outer.java");
+        src.getParentFile().mkdirs();
+        Files.write(src.toPath(), (
+                "package nest;\n" +
+                "public class Outer\n" +
+                "{\n" +
+                "    private static int x = 42;\n" +
+                "    public static class Inner\n" +
+                "    {\n" +
+                "        public int get()\n" +
+                "        {\n" +
+                "            return x;\n" +
+                "        }\n" +
+                "    }\n" +
+                "}\n"
+                ).getBytes("UTF-8"));
+        try (StandardJavaFileManager fm = compiler.getStandardFileManager(null, null, null))
+        {
+            Iterable<? extends JavaFileObject> units = fm.getJavaFileObjects(src);
+            boolean ok = compiler.getTask(null, fm, null, Arrays.asList("--release", "11", "-d", dir.getPath()), null, units).call();
+            assertTrue(ok);
+        }
+        src.delete();
+        return dir;
+    }
+
+    private static int version(byte[] bytes)
+    {
+        return ((bytes[6] & 0xff)<<8) | (bytes[7] & 0xff);
+    }
+
+    private static class Added extends MethodCompiler
+    {
+        private final boolean branch;
+
+        public Added(boolean branch)
+        {
+            this.branch = branch;
+        }
+
+        @Override
+        protected void implement() throws IOException
+        {
+            if (branch)
+            {
+                tload("this");
+                ifnonnull("end");
+                fixAddress("end");
+            }
+            ldc("added");
+            treturn();
+        }
+    }
+
+    private static class Help extends MethodCompiler
+    {
+        private final boolean branch;
+
+        public Help(boolean branch)
+        {
+            this.branch = branch;
+        }
+
+        @Override
+        protected void implement() throws IOException
+        {
+            nameArgument("x", 1);
+            if (branch)
+            {
+                tload("x");
+                ifeq("zero");
+                fixAddress("zero");
+            }
+            ldc("new");
+            tload("x");
+            invokestatic(Runner.class, "help", String.class, int.class);
+            treturn();
+        }
+    }
+}
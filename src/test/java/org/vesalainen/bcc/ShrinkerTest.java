@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.SortedMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class ShrinkerTest
+{
+    @Test
+    public void testIndirectOverride() throws Exception
+    {
+        File classPath = new File(ShrinkMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        final SortedMap<String,byte[]> classes;
+        try (Shrinker shrinker = new Shrinker(classPath))
+        {
+            shrinker.addEntry(ShrinkMain.class.getName());
+            classes = shrinker.shrink();
+        }
+        assertTrue(classes.containsKey("org/vesalainen/bcc/ShrinkBase"));
+        assertTrue(classes.containsKey("org/vesalainen/bcc/ShrinkThread"));
+        assertFalse(classes.containsKey("org/vesalainen/bcc/ShrinkerTest"));
+        ClassLoader loader = new ClassLoader(ShrinkerTest.class.getClassLoader())
+        {
+            @Override
+            protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+            {
+                byte[] bytes = classes.get(name.replace('.', '/'));
+                if (bytes == null)
+                {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null)
+                {
+                    cls = defineClass(name, bytes, 0, bytes.length);
+                }
+                return cls;
+            }
+        };
+        Class<?> main = loader.loadClass(ShrinkMain.class.getName());
+        assertNotSame(ShrinkMain.class, main);
+        Method start = main.getMethod("start");
+        assertEquals("run", start.invoke(null));
+    }
+}
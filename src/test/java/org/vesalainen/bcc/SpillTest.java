@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import javax.lang.model.element.ExecutableElement;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.model.ExecutableElementImpl.MethodBuilder;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class SpillTest
+{
+    @Test
+    public void testSpill() throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.Spill", javax.lang.model.element.Modifier.PUBLIC);
+        sc.setSpillThreshold(20);
+        sc.codeDefaultConstructor();
+        final ExecutableElement[] ms = new ExecutableElement[5];
+        for (int ii=0;ii<ms.length;ii++)
+        {
+            MethodBuilder mb = sc.buildMethod("m"+ii);
+            mb.addModifiers(Modifier.STATIC);
+            mb.setReturnType(String.class);
+            ms[ii] = mb.getExecutableElement();
+        }
+        // forward reference to method which is spilled later
+        sc.overrideMethod(new MethodCompiler()
+        {
+            @Override
+            protected void implement() throws IOException
+            {
+                nameArgument("x", 1);
+                invokestatic(ms[ms.length-1]);
+                treturn();
+            }
+        }, Modifier.PUBLIC, "run", int.class);
+        for (int ii=0;ii<ms.length;ii++)
+        {
+            final int k = ii;
+            sc.defineMethod(new MethodCompiler()
+            {
+                @Override
+                protected void implement() throws IOException
+                {
+                    ldc("m");
+                    ldc(k);
+                    invokestatic(Runner.class, "help", String.class, int.class);
+                    if (k > 0)
+                    {
+                        // backward reference to spilled method
+                        invokestatic(ms[k-1]);
+                        invokevirtual(String.class, "concat", String.class);
+                    }
+                    treturn();
+                }
+            }, ms[ii]);
+        }
+        assertFalse(sc.getCompanions().isEmpty());
+        int size = sc.getConstantPoolSize();
+        byte[] bytes1 = ClassBytes.write(sc);
+        byte[] bytes2 = ClassBytes.write(sc);
+        assertEquals(size, sc.getConstantPoolSize());
+        assertArrayEquals(bytes1, bytes2);
+        Runner runner = (Runner) sc.newInstance();
+        assertEquals("m4m3m2m1m0", runner.run(0));
+    }
+
+    @Test
+    public void testInstanceOverflow() throws Exception
+    {
+        SubClass sc = new SubClass(Runner.class, "org.vesalainen.bcc.gen.SpillFull", javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        try
+        {
+            // instance method is not spilled
+            sc.overrideMethod(new MethodCompiler()
+            {
+                @Override
+                protected void implement() throws IOException
+                {
+                    for (int ii=0;ii<ConstantPool.MAX_SIZE/2;ii++)
+                    {
+                        ldc("s"+ii);
+                        pop();
+                    }
+                    aconst_null();
+                    treturn();
+                }
+            }, Modifier.PUBLIC, "run", int.class);
+            fail("constant pool overflow accepted");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+            assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains("Only static methods are spilled"));
+        }
+        assertTrue(sc.getCompanions().isEmpty());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.vesalainen.bcc.ConstantInfo.Utf8;
+
+/**
+ * @author Timo Vesalainen
+ */
+public class Utf8Test
+{
+    private static final String[] STRINGS = new String[] {
+        "", 
+        "abc", 
+        "\u0000x", 
+        "\u00e4\u00f6\u00e5\u20ac", 
+        "\ud83d\ude00", 
+        "\u07ff\u0800\uffff"
+    };
+
+    @Test
+    public void testEncode() throws Exception
+    {
+        for (String s : STRINGS)
+        {
+            Utf8 utf8 = new Utf8(s);
+            ByteArrayOutputStream b1 = new ByteArrayOutputStream();
+            utf8.write(new DataOutputStream(b1));
+            ByteArrayOutputStream b2 = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(b2);
+            dos.writeByte(ConstantInfo.CONSTANT_Utf8);
+            dos.writeUTF(s);
+            assertArrayEquals(b2.toByteArray(), b1.toByteArray());
+            assertEquals(b1.size(), utf8.getSize());
+        }
+    }
+
+    @Test
+    public void testRead() throws Exception
+    {
+        for (String s : STRINGS)
+        {
+            Utf8 utf8 = new Utf8(s);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            utf8.write(new DataOutputStream(baos));
+            ConstantInfo ci = ConstantInfo.read(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+            assertEquals(s, ((Utf8)ci).getString());
+            assertEquals(utf8, ci);
+            assertEquals(utf8.hashCode(), ci.hashCode());
+        }
+    }
+
+    @Test
+    public void testClass() throws Exception
+    {
+        String name = "org.vesalainen.bcc.gen.\u00c4\u00e4kk\u00f6set";
+        SubClass sc = new SubClass(Runner.class, name, javax.lang.model.element.Modifier.PUBLIC);
+        sc.codeDefaultConstructor();
+        byte[] bytes = ClassBytes.write(sc);
+        assertEquals(name, new ClassFile(bytes).getQualifiedName().toString());
+        Class<?> cls = new GenClassLoader(Utf8Test.class.getClassLoader()).load(name, bytes);
+        assertEquals(name, cls.getName());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 Timo Vesalainen
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.vesalainen.bcc;
+
+/**
+ * Class read in ClassReaderTest.
+ * @author Timo Vesalainen
+ */
+public class Visited
+{
+    private long field;
+
+    public int table(int x)
+    {
+        switch (x)
+        {
+            case 1:
+                return 10;
+            case 2:
+                return 20;
+            case 3:
+                return 30;
+            default:
+                return 0;
+        }
+    }
+
+    public int lookup(int x)
+    {
+        switch (x)
+        {
+            case -1000:
+                return 1;
+            case 1000000:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    public int parse(String s)
+    {
+        try
+        {
+            return Integer.parseInt(s);
+        }
+        catch (NumberFormatException ex)
+        {
+            return -1;
+        }
+    }
+
+    public long add(int x)
+    {
+        field += x;
+        return field;
+    }
+}